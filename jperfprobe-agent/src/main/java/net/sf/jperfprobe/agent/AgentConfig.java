@@ -0,0 +1,205 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe.agent;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * AgentConfig tells which methods the agent puts probes in. The configuration has one pattern on each line:
+ * <pre>
+ * # all methods of the classes in com.acme.service
+ * com.acme.service.*
+ * # the find methods of the classes in com.acme.dao and its sub packages
+ * com.acme.dao.**#find*
+ * # ! in front excludes, a class or only some of its methods
+ * !com.acme.service.HealthCheck
+ * !com.acme.dao.**#findAll
+ * </pre>
+ * In a class pattern * matches any part of a name within a package, and ** matches across packages. In a method
+ * pattern * matches any part of the name. A method gets a probe if an include matches it, and no exclude does.
+ * The probe is named by the class and method, e.g. com.acme.service.Orders.place, overloaded methods share a
+ * probe. Constructors, static initializers, abstract, native, bridge and synthetic methods get no probe.
+ */
+public final class AgentConfig {
+
+    /**
+     * Configuration without patterns, no method gets a probe
+     */
+    public static final AgentConfig NONE = new AgentConfig(Collections.<String>emptyList());
+
+    private final List<Pattern> includes = new ArrayList<Pattern>();
+
+    private final List<Pattern> excludes = new ArrayList<Pattern>();
+
+    // the class part of the includes, to skip classes without reading their methods
+    private final List<Pattern> includedClasses = new ArrayList<Pattern>();
+
+    // the excludes that take a whole class
+    private final List<Pattern> excludedClasses = new ArrayList<Pattern>();
+
+    private final List<String> lines;
+
+    private AgentConfig(List<String> lines) {
+        this.lines = Collections.unmodifiableList(lines);
+    }
+
+    /**
+     * Read a configuration file
+     *
+     * @param file
+     * @return configuration
+     * @throws IOException              if the file can not be read
+     * @throws IllegalArgumentException if a line is not a valid pattern
+     */
+    public static AgentConfig load(Path file) throws IOException {
+        return parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parse a configuration
+     *
+     * @param text, one pattern on each line
+     * @return configuration
+     * @throws IllegalArgumentException if a line is not a valid pattern
+     */
+    public static AgentConfig parse(String text) {
+        List<String> patterns = new ArrayList<String>();
+        for (String l : text.split("\r?\n")) {
+            String line = l.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            patterns.add(line);
+        }
+
+        AgentConfig config = new AgentConfig(patterns);
+        for (String line : patterns) {
+            config.add(line);
+        }
+
+        return config;
+    }
+
+    private void add(String line) {
+        boolean exclude = line.startsWith("!");
+        String pattern = exclude ? line.substring(1).trim() : line;
+        int hash = pattern.indexOf('#');
+        String classPart = hash < 0 ? pattern : pattern.substring(0, hash);
+        String methodPart = hash < 0 ? "*" : pattern.substring(hash + 1);
+        if (classPart.isEmpty() || methodPart.isEmpty() || methodPart.indexOf('#') >= 0) {
+            throw new IllegalArgumentException("not a class#method pattern: " + line);
+        }
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (!(Character.isJavaIdentifierPart(c) || c == '.' || c == '*' || c == '#')) {
+                throw new IllegalArgumentException("not a class#method pattern: " + line);
+            }
+        }
+
+        Pattern classPattern = Pattern.compile(toRegex(classPart, true));
+        Pattern method = Pattern.compile(toRegex(classPart, true) + "#" + toRegex(methodPart, false));
+        if (exclude) {
+            excludes.add(method);
+            if (hash < 0) {
+                excludedClasses.add(classPattern);
+            }
+        } else {
+            includes.add(method);
+            includedClasses.add(classPattern);
+        }
+    }
+
+    private static String toRegex(String glob, boolean className) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*') {
+                if (className && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                    sb.append(".*");
+                    i++;
+                } else {
+                    sb.append(className ? "[^.]*" : ".*");
+                }
+            } else if (Character.isLetterOrDigit(c) || c == '_') {
+                sb.append(c);
+            } else {
+                // . and $ of nested classes are literal
+                sb.append('\\').append(c);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Tell if some methods of a class may get a probe
+     *
+     * @param className, e.g. com.acme.Orders
+     * @return false if no method of the class gets a probe
+     */
+    public boolean matchesClass(String className) {
+        return matchesAny(includedClasses, className) && !matchesAny(excludedClasses, className);
+    }
+
+    /**
+     * Tell if a method gets a probe
+     *
+     * @param className,  e.g. com.acme.Orders
+     * @param methodName, e.g. place
+     * @return true if the method gets a probe
+     */
+    public boolean matches(String className, String methodName) {
+        String name = className + "#" + methodName;
+
+        return matchesAny(includes, name) && !matchesAny(excludes, name);
+    }
+
+    private static boolean matchesAny(List<Pattern> patterns, String name) {
+        for (Pattern p : patterns) {
+            if (p.matcher(name).matches()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Get the patterns of the configuration
+     *
+     * @return patterns, without comments and empty lines
+     */
+    public List<String> getPatterns() {
+        return lines;
+    }
+
+    @Override
+    public String toString() {
+        return "AgentConfig" + lines;
+    }
+}
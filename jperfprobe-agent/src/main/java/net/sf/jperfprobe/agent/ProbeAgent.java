@@ -0,0 +1,168 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe.agent;
+
+import java.io.*;
+import java.lang.instrument.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.logging.*;
+
+/**
+ * ProbeAgent is a java agent that puts probes in the methods selected by a configuration file, see AgentConfig.
+ * The probes are timed with the StaticProbeManager, and can be read from it, over JMX or exported. Start the
+ * application with the agent:
+ * <pre>
+ * java -javaagent:jperfprobe-agent.jar=probes.conf -jar app.jar
+ * </pre>
+ * The agent can also be attached to a running JVM. Attaching it again, or calling reload or update, applies a
+ * changed configuration to the loaded classes, probes are added and removed without a restart.
+ */
+public final class ProbeAgent {
+    static final Logger log = Logger.getLogger(ProbeAgent.class.getName());
+
+    // the installed agent, null until premain or agentmain is called
+    private static ProbeAgent agent;
+
+    private final Instrumentation instrumentation;
+
+    private final ProbeTransformer transformer;
+
+    private Path configFile;
+
+    ProbeAgent(Instrumentation instrumentation, AgentConfig config) {
+        if (!instrumentation.isRetransformClassesSupported()) {
+            throw new IllegalStateException("the JVM can not retransform classes");
+        }
+        this.instrumentation = instrumentation;
+        this.transformer = new ProbeTransformer(config);
+        instrumentation.addTransformer(transformer, true);
+        retransform(AgentConfig.NONE, config);
+    }
+
+    /**
+     * Called when the agent is given on the command line
+     *
+     * @param args, path of the configuration file
+     * @param inst
+     * @throws IOException if the configuration file can not be read
+     */
+    public static void premain(String args, Instrumentation inst) throws IOException {
+        install(args, inst);
+    }
+
+    /**
+     * Called when the agent is attached to a running JVM. If the agent is installed already, the configuration
+     * file is read again and applied.
+     *
+     * @param args, path of the configuration file
+     * @param inst
+     * @throws IOException if the configuration file can not be read
+     */
+    public static void agentmain(String args, Instrumentation inst) throws IOException {
+        install(args, inst);
+    }
+
+    private static synchronized void install(String args, Instrumentation inst) throws IOException {
+        if (args == null || args.trim().isEmpty()) {
+            throw new IllegalArgumentException("the agent argument must be the path of the configuration file");
+        }
+        Path file = Paths.get(args.trim());
+        AgentConfig config = AgentConfig.load(file);
+        if (agent == null) {
+            agent = new ProbeAgent(inst, config);
+        } else {
+            agent.update(config);
+        }
+        agent.configFile = file;
+        log.info("probes from " + file + ": " + config.getPatterns());
+    }
+
+    /**
+     * Get the installed agent
+     *
+     * @return agent, null if the JVM was not started with the agent and it was not attached
+     */
+    public static synchronized ProbeAgent getAgent() {
+        return agent;
+    }
+
+    /**
+     * Read the configuration file again, and apply it
+     *
+     * @throws IOException if the configuration file can not be read
+     */
+    public synchronized void reload() throws IOException {
+        if (configFile == null) {
+            throw new IllegalStateException("the agent has no configuration file");
+        }
+        update(AgentConfig.load(configFile));
+    }
+
+    /**
+     * Apply a configuration. The loaded classes that had probes or get probes are retransformed, methods that are
+     * no longer selected lose their probes.
+     *
+     * @param config
+     * @return # of classes retransformed
+     */
+    public synchronized int update(AgentConfig config) {
+        AgentConfig old = transformer.getConfig();
+        transformer.setConfig(config);
+
+        return retransform(old, config);
+    }
+
+    /**
+     * Get the configuration in use
+     *
+     * @return configuration
+     */
+    public AgentConfig getConfig() {
+        return transformer.getConfig();
+    }
+
+    private int retransform(AgentConfig old, AgentConfig config) {
+        List<Class<?>> classes = new ArrayList<Class<?>>();
+        for (Class<?> c : instrumentation.getAllLoadedClasses()) {
+            if (c.getClassLoader() != null && instrumentation.isModifiableClass(c)
+                    && (old.matchesClass(c.getName()) || config.matchesClass(c.getName()))) {
+                classes.add(c);
+            }
+        }
+
+        int n = 0;
+        // one at a time, a class that can not be retransformed does not stop the others
+        for (Class<?> c : classes) {
+            try {
+                instrumentation.retransformClasses(c);
+                n++;
+            } catch (Throwable t) {
+                log.log(Level.WARNING, "could not retransform " + c.getName(), t);
+            }
+        }
+
+        return n;
+    }
+}
@@ -0,0 +1,76 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe.agent;
+
+import net.sf.jperfprobe.*;
+
+import java.util.*;
+
+/**
+ * ProbeSites holds the handles of the woven probes. Each probe gets an id when a method is woven, and the woven
+ * code reads its handle from the array by that id, so no probe is looked up by name when the method runs.
+ * A probe keeps its id when it is removed and woven again.
+ */
+public final class ProbeSites {
+
+    /**
+     * Handles of the woven probes by id, read by the woven code. Replaced by a longer copy when a probe is added.
+     */
+    public static volatile ProbeHandle[] handles = new ProbeHandle[0];
+
+    private static final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+    private ProbeSites() {
+    }
+
+    /**
+     * Get the id of a probe, the probe gets a handle in the static probe manager the first time
+     *
+     * @param probeName
+     * @return id
+     */
+    static synchronized int register(String probeName) {
+        Integer id = ids.get(probeName);
+        if (id != null) {
+            return id;
+        }
+
+        ProbeHandle[] next = Arrays.copyOf(handles, handles.length + 1);
+        // begin and end need a concurrent result
+        next[handles.length] = StaticProbeManager.handle(probeName, true);
+        handles = next;
+        ids.put(probeName, handles.length - 1);
+
+        return handles.length - 1;
+    }
+
+    /**
+     * Get the names of the probes that have been woven
+     *
+     * @return names
+     */
+    public static synchronized Set<String> getProbeNames() {
+        return new TreeSet<String>(ids.keySet());
+    }
+}
@@ -0,0 +1,226 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe.agent;
+
+import org.objectweb.asm.*;
+import org.objectweb.asm.commons.*;
+import java.lang.instrument.*;
+import java.security.*;
+import java.util.*;
+import java.util.logging.*;
+
+/**
+ * ProbeTransformer weaves probes into the methods the configuration selects. A woven method begins its probe
+ * when it is entered, and ends it on every return, or as a failure when an exception leaves the method:
+ * <pre>
+ * long begin = ProbeSites.handles[id].begin();
+ * try {
+ *     ...method body...
+ *     ProbeSites.handles[id].end(begin);
+ * } catch (Throwable t) {
+ *     ProbeSites.handles[id].end(begin, false);
+ *     throw t;
+ * }
+ * </pre>
+ * The start time is kept in a local variable, so the probes are safe to use from any thread. When a class is
+ * retransformed it is woven from its original bytes, so a method that is no longer selected loses its probe.
+ */
+final class ProbeTransformer implements ClassFileTransformer {
+    // java.util.logging, the agent jar brings no logging binding of its own
+    static final Logger log = Logger.getLogger(ProbeTransformer.class.getName());
+
+    private static final String SITES = Type.getInternalName(ProbeSites.class);
+
+    private static final String HANDLES = "handles";
+
+    private static final String HANDLE = "net/sf/jperfprobe/ProbeHandle";
+
+    private volatile AgentConfig config;
+
+    // tells if a class loader sees the ProbeSites of the agent, woven code can not run without it
+    private final Map<ClassLoader, Boolean> visible = new WeakHashMap<ClassLoader, Boolean>();
+
+    ProbeTransformer(AgentConfig config) {
+        this.config = config;
+    }
+
+    AgentConfig getConfig() {
+        return config;
+    }
+
+    void setConfig(AgentConfig config) {
+        this.config = config;
+    }
+
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                            ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        if (className == null || loader == null || isOwn(className)) {
+            return null;
+        }
+        AgentConfig c = config;
+        String name = className.replace('/', '.');
+        if (!c.matchesClass(name) || !isVisible(loader)) {
+            return null;
+        }
+
+        try {
+            return weave(loader, name, classfileBuffer, c);
+        } catch (Throwable t) {
+            // the class is loaded as it is, without probes
+            log.log(Level.WARNING, "could not put probes in " + name, t);
+            return null;
+        }
+    }
+
+    // the probes and the agent itself are never woven
+    private static boolean isOwn(String className) {
+        return className.startsWith("net/sf/jperfprobe/agent/")
+                || (className.startsWith("net/sf/jperfprobe/") && className.indexOf('/', 18) < 0);
+    }
+
+    private boolean isVisible(ClassLoader loader) {
+        synchronized (visible) {
+            Boolean v = visible.get(loader);
+            if (v == null) {
+                try {
+                    v = Class.forName(ProbeSites.class.getName(), false, loader) == ProbeSites.class;
+                } catch (ClassNotFoundException e) {
+                    v = Boolean.FALSE;
+                }
+                if (!v) {
+                    log.warning("classes of " + loader + " can not see the agent, they get no probes");
+                }
+                visible.put(loader, v);
+            }
+
+            return v;
+        }
+    }
+
+    /**
+     * Weave probes into the selected methods of a class
+     *
+     * @param loader    of the class, used to find the common super class of types when frames are computed
+     * @param className
+     * @param bytes     class file
+     * @param config
+     * @return woven class file, null if no method was selected
+     */
+    static byte[] weave(final ClassLoader loader, String className, byte[] bytes, AgentConfig config) {
+        ClassReader reader = new ClassReader(bytes);
+        ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_FRAMES) {
+            @Override
+            protected ClassLoader getClassLoader() {
+                return loader;
+            }
+        };
+        ProbeClassVisitor visitor = new ProbeClassVisitor(writer, className, config);
+        reader.accept(visitor, ClassReader.SKIP_FRAMES);
+
+        return visitor.woven > 0 ? writer.toByteArray() : null;
+    }
+
+    private static final class ProbeClassVisitor extends ClassVisitor {
+        private static final int SKIPPED = Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE | Opcodes.ACC_BRIDGE
+                | Opcodes.ACC_SYNTHETIC;
+
+        private final String className;
+
+        private final AgentConfig config;
+
+        // # of methods with a probe
+        private int woven;
+
+        ProbeClassVisitor(ClassVisitor cv, String className, AgentConfig config) {
+            super(Opcodes.ASM9, cv);
+            this.className = className;
+            this.config = config;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+                                         String[] exceptions) {
+            MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+            if (mv == null || (access & SKIPPED) != 0 || name.charAt(0) == '<' || !config.matches(className, name)) {
+                return mv;
+            }
+            woven++;
+
+            return new ProbeMethodVisitor(mv, access, name, descriptor, ProbeSites.register(className + "." + name));
+        }
+    }
+
+    private static final class ProbeMethodVisitor extends AdviceAdapter {
+        private final int id;
+
+        private final Label start = new Label();
+
+        // local variable with the start time
+        private int begin;
+
+        ProbeMethodVisitor(MethodVisitor mv, int access, String name, String descriptor, int id) {
+            super(Opcodes.ASM9, mv, access, name, descriptor);
+            this.id = id;
+        }
+
+        private void loadHandle() {
+            visitFieldInsn(GETSTATIC, SITES, HANDLES, "[L" + HANDLE + ";");
+            push(id);
+            visitInsn(AALOAD);
+        }
+
+        @Override
+        protected void onMethodEnter() {
+            loadHandle();
+            visitMethodInsn(INVOKEVIRTUAL, HANDLE, "begin", "()J", false);
+            begin = newLocal(Type.LONG_TYPE);
+            storeLocal(begin);
+            visitLabel(start);
+        }
+
+        @Override
+        protected void onMethodExit(int opcode) {
+            // a throw is ended by the handler
+            if (opcode != ATHROW) {
+                loadHandle();
+                loadLocal(begin);
+                visitMethodInsn(INVOKEVIRTUAL, HANDLE, "end", "(J)V", false);
+            }
+        }
+
+        @Override
+        public void visitMaxs(int maxStack, int maxLocals) {
+            // the handler comes after the handlers of the method, so it only sees exceptions that leave it
+            Label handler = new Label();
+            visitTryCatchBlock(start, handler, handler, null);
+            visitLabel(handler);
+            loadHandle();
+            loadLocal(begin);
+            push(false);
+            visitMethodInsn(INVOKEVIRTUAL, HANDLE, "end", "(JZ)V", false);
+            visitInsn(ATHROW);
+            super.visitMaxs(maxStack, maxLocals);
+        }
+    }
+}
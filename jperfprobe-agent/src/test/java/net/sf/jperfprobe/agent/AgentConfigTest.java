@@ -0,0 +1,83 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe.agent;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+public class AgentConfigTest {
+
+    @Test
+    public void testPatterns() {
+        AgentConfig config = AgentConfig.parse("# comment\n"
+                + "com.acme.service.*\n"
+                + "\n"
+                + "com.acme.dao.**#find*\r\n"
+                + "!com.acme.service.HealthCheck\n"
+                + "!com.acme.dao.**#findAll\n");
+
+        assertEquals(4, config.getPatterns().size());
+        assertTrue(config.matches("com.acme.service.Orders", "place"));
+        assertTrue(config.matches("com.acme.service.Orders$Line", "total"));
+        assertFalse(config.matches("com.acme.service.impl.Orders", "place"));
+        assertFalse(config.matches("com.acme.service.HealthCheck", "ping"));
+        assertFalse(config.matchesClass("com.acme.service.HealthCheck"));
+
+        assertTrue(config.matches("com.acme.dao.jdbc.OrderDao", "findById"));
+        assertFalse(config.matches("com.acme.dao.jdbc.OrderDao", "findAll"));
+        assertFalse(config.matches("com.acme.dao.jdbc.OrderDao", "save"));
+        assertTrue(config.matchesClass("com.acme.dao.jdbc.OrderDao"));
+        assertFalse(config.matchesClass("com.acme.web.Controller"));
+    }
+
+    @Test
+    public void testNestedClasses() {
+        AgentConfig config = AgentConfig.parse("com.acme.Outer$Inner#run\ncom.acme.Other$*");
+
+        assertTrue(config.matchesClass("com.acme.Outer$Inner"));
+        assertTrue(config.matches("com.acme.Outer$Inner", "run"));
+        assertFalse(config.matches("com.acme.Outer", "run"));
+        assertFalse(config.matches("com.acme.OuterXInner", "run"));
+        assertTrue(config.matches("com.acme.Other$1", "call"));
+        assertFalse(config.matchesClass("com.acme.Other"));
+    }
+
+    @Test
+    public void testNone() {
+        assertFalse(AgentConfig.NONE.matchesClass("com.acme.Orders"));
+        assertFalse(AgentConfig.parse("# nothing\n").matches("com.acme.Orders", "place"));
+    }
+
+    @Test
+    public void testInvalid() {
+        for (String line : new String[]{"com.acme.Orders#", "!#place", "com.acme.(Orders)", "a#b#c"}) {
+            try {
+                AgentConfig.parse("com.acme.*\n" + line);
+                fail(line);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains(line));
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe.agent;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import net.sf.jperfprobe.sample.*;
+import org.junit.rules.*;
+
+import java.io.*;
+import java.lang.instrument.*;
+import java.lang.reflect.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.jar.*;
+
+public class ProbeAgentTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<Class<?>> retransformed = new ArrayList<Class<?>>();
+
+    private final List<ClassFileTransformer> transformers = new ArrayList<ClassFileTransformer>();
+
+    // instrumentation with some loaded classes, that records what the agent asks for
+    private Instrumentation instrumentation() {
+        final Class<?>[] loaded = {Greeter.class, String.class, ProbeAgentTest.class};
+
+        return (Instrumentation) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Instrumentation.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String name = method.getName();
+                        if (name.equals("isRetransformClassesSupported") || name.equals("isModifiableClass")) {
+                            return true;
+                        } else if (name.equals("getAllLoadedClasses")) {
+                            return loaded;
+                        } else if (name.equals("addTransformer")) {
+                            assertEquals(Boolean.TRUE, args[1]);
+                            transformers.add((ClassFileTransformer) args[0]);
+                        } else if (name.equals("retransformClasses")) {
+                            retransformed.addAll(Arrays.asList((Class<?>[]) args[0]));
+                        }
+
+                        return null;
+                    }
+                });
+    }
+
+    @Test
+    public void testRetransformOnUpdate() {
+        ProbeAgent agent = new ProbeAgent(instrumentation(), AgentConfig.parse("net.sf.jperfprobe.sample.*"));
+        assertEquals(1, transformers.size());
+        assertEquals(Collections.<Class<?>>singletonList(Greeter.class), retransformed);
+
+        // the probes are removed from the classes that had them
+        retransformed.clear();
+        assertEquals(1, agent.update(AgentConfig.parse("com.acme.*")));
+        assertEquals(Collections.<Class<?>>singletonList(Greeter.class), retransformed);
+        assertEquals("[com.acme.*]", agent.getConfig().getPatterns().toString());
+
+        // classes of the bootstrap loader are never retransformed
+        retransformed.clear();
+        assertEquals(0, agent.update(AgentConfig.parse("java.lang.*")));
+        assertTrue(retransformed.isEmpty());
+    }
+
+    /**
+     * Start a JVM with the agent, the agent classes are found on the class path of the test, the agent jar only
+     * has the manifest
+     */
+    @Test
+    public void testJavaAgent() throws Exception {
+        File config = folder.newFile("probes.conf");
+        Files.write(config.toPath(), (Greeter.class.getName() + "#greet\n").getBytes(StandardCharsets.UTF_8));
+        File jar = folder.newFile("agent.jar");
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue("Premain-Class", ProbeAgent.class.getName());
+        manifest.getMainAttributes().putValue("Can-Retransform-Classes", "true");
+        new JarOutputStream(new FileOutputStream(jar), manifest).close();
+
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "-javaagent:" + jar + "=" + config,
+                "-cp", System.getProperty("java.class.path"), GreeterMain.class.getName())
+                .redirectErrorStream(true).start();
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+        for (String line; (line = reader.readLine()) != null; ) {
+            if (line.startsWith("greet=")) {
+                lines.add(line);
+            }
+        }
+        assertTrue(process.waitFor(60, TimeUnit.SECONDS));
+
+        // greet is woven at load, then the probe moves from greet to quiet by retransformation
+        assertEquals(Arrays.asList("greet=100 quiet=0", "greet=0 quiet=50"), lines);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReloadWithoutFile() throws Exception {
+        new ProbeAgent(instrumentation(), AgentConfig.NONE).reload();
+    }
+}
@@ -0,0 +1,149 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe.agent;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import net.sf.jperfprobe.*;
+import net.sf.jperfprobe.sample.*;
+
+import java.io.*;
+import java.lang.reflect.*;
+
+public class ProbeTransformerTest {
+    private static final String GREETER = Greeter.class.getName();
+
+    /**
+     * Loads the sample classes itself, woven with a configuration, and everything else from its parent
+     */
+    static class WeavingLoader extends ClassLoader {
+        private final ProbeTransformer transformer;
+
+        WeavingLoader(AgentConfig config) {
+            super(WeavingLoader.class.getClassLoader());
+            transformer = new ProbeTransformer(config);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.startsWith("net.sf.jperfprobe.sample.")) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> c = findLoadedClass(name);
+                if (c == null) {
+                    byte[] bytes = read(name);
+                    byte[] woven = transformer.transform(this, name.replace('.', '/'), null, null, bytes);
+                    bytes = woven != null ? woven : bytes;
+                    c = defineClass(name, bytes, 0, bytes.length);
+                }
+
+                return c;
+            }
+        }
+
+        static byte[] read(String name) throws ClassNotFoundException {
+            try (InputStream in = WeavingLoader.class.getResourceAsStream("/" + name.replace('.', '/') + ".class")) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buf = new byte[4096];
+                for (int n; (n = in.read(buf)) > 0; ) {
+                    out.write(buf, 0, n);
+                }
+
+                return out.toByteArray();
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+    }
+
+    @Before
+    public void setUp() {
+        StaticProbeManager.clear();
+    }
+
+    private static Object call(Object target, String method, Class<?> type, Object arg) throws Throwable {
+        Class<?> c = target instanceof Class ? (Class<?>) target : target.getClass();
+        try {
+            return c.getMethod(method, type).invoke(target instanceof Class ? null : target, arg);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Test
+    public void testWovenMethods() throws Throwable {
+        Class<?> greeter = new WeavingLoader(AgentConfig.parse(GREETER + "\n!" + GREETER + "#quiet"))
+                .loadClass(GREETER);
+        Object g = greeter.getConstructor(String.class).newInstance("Hello");
+
+        assertEquals("Hello, world", call(g, "greet", String.class, "world"));
+        assertEquals(4, call(g, "countOdd", int.class, 8));
+        assertEquals(6L, call(greeter, "twice", long.class, 3L));
+        greeter.getMethod("quiet").invoke(g);
+        try {
+            call(g, "greet", String.class, null);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("no name", e.getMessage());
+        }
+
+        Result greet = StaticProbeManager.getResult(GREETER + ".greet");
+        assertEquals(1, greet.getNSamples());
+        assertEquals(1, greet.getFailures().getNSamples());
+        // the exceptions caught in the method are not failures of the method
+        assertEquals(1, StaticProbeManager.getResult(GREETER + ".countOdd").getNSamples());
+        assertEquals(0, StaticProbeManager.getResult(GREETER + ".countOdd").getFailures().getNSamples());
+        assertEquals(1, StaticProbeManager.getResult(GREETER + ".twice").getNSamples());
+        // the private check method is selected too, it is called 8 times and throws 4 times
+        assertEquals(4, StaticProbeManager.getResult(GREETER + ".check").getNSamples());
+        assertEquals(4, StaticProbeManager.getResult(GREETER + ".check").getFailures().getNSamples());
+        assertFalse(ProbeSites.getProbeNames().contains(GREETER + ".quiet"));
+        assertFalse(ProbeSites.getProbeNames().contains(GREETER + ".<init>"));
+    }
+
+    @Test
+    public void testNotSelected() throws Exception {
+        byte[] bytes = WeavingLoader.read(GREETER);
+        ProbeTransformer transformer = new ProbeTransformer(AgentConfig.parse("com.acme.*"));
+        assertNull(transformer.transform(getClass().getClassLoader(), GREETER.replace('.', '/'), null, null, bytes));
+
+        transformer.setConfig(AgentConfig.parse(GREETER + "#nothing*"));
+        assertNull(transformer.transform(getClass().getClassLoader(), GREETER.replace('.', '/'), null, null, bytes));
+
+        // the probes themselves are never woven
+        transformer.setConfig(AgentConfig.parse("net.sf.jperfprobe.**"));
+        assertNull(transformer.transform(getClass().getClassLoader(), "net/sf/jperfprobe/Result", null, null,
+                WeavingLoader.read(Result.class.getName())));
+        assertNotNull(transformer.transform(getClass().getClassLoader(), GREETER.replace('.', '/'), null, null, bytes));
+    }
+
+    @Test
+    public void testSameIdWhenWovenAgain() {
+        int id = ProbeSites.register("again");
+        assertEquals(id, ProbeSites.register("again"));
+        assertEquals("again", ProbeSites.handles[id].getName());
+    }
+}
@@ -0,0 +1,69 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe.sample;
+
+/**
+ * Class the agent tests put probes in
+ */
+public class Greeter {
+    private final String greeting;
+
+    public Greeter(String greeting) {
+        this.greeting = greeting;
+    }
+
+    public String greet(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("no name");
+        }
+
+        return greeting + ", " + name;
+    }
+
+    public int countOdd(int n) {
+        int odd = 0;
+        for (int i = 0; i < n; i++) {
+            try {
+                check(i);
+            } catch (IllegalStateException e) {
+                odd++;
+            }
+        }
+
+        return odd;
+    }
+
+    private static void check(int i) {
+        if (i % 2 == 1) {
+            throw new IllegalStateException();
+        }
+    }
+
+    public static long twice(long x) {
+        return 2 * x;
+    }
+
+    public void quiet() {
+    }
+}
@@ -0,0 +1,57 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe.sample;
+
+import net.sf.jperfprobe.*;
+import net.sf.jperfprobe.agent.*;
+
+/**
+ * Run by the agent tests in a JVM started with the agent, prints the # of samples of the woven probes before and
+ * after the configuration is changed
+ */
+public class GreeterMain {
+    private static final String GREETER = Greeter.class.getName();
+
+    public static void main(String[] args) {
+        Greeter greeter = new Greeter("Hello");
+        for (int i = 0; i < 100; i++) {
+            greeter.greet("world");
+            greeter.quiet();
+        }
+        print();
+
+        ProbeAgent.getAgent().update(AgentConfig.parse(GREETER + "#quiet"));
+        StaticProbeManager.clear();
+        for (int i = 0; i < 50; i++) {
+            greeter.greet("world");
+            greeter.quiet();
+        }
+        print();
+    }
+
+    private static void print() {
+        System.out.println("greet=" + StaticProbeManager.getResult(GREETER + ".greet").getNSamples()
+                + " quiet=" + StaticProbeManager.getResult(GREETER + ".quiet").getNSamples());
+    }
+}
@@ -0,0 +1,94 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe.benchmarks;
+
+import net.sf.jperfprobe.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.*;
+
+/**
+ * Cost of adding a sample, through the manager by probe name or straight to a pre-resolved result.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AddSampleBenchmark {
+    private static final String NAME = "bench";
+
+    @State(Scope.Benchmark)
+    public static class Manager {
+        @Param({"false", "true"})
+        public boolean concurrent;
+
+        ProbeManager manager;
+
+        // a concurrent result shared by all benchmark threads
+        Result sharedResult;
+
+        @Setup
+        public void setUp() {
+            manager = new ProbeManagerImpl();
+            manager.setConcurrentResults(concurrent);
+            ProbeManager concurrentManager = new ProbeManagerImpl();
+            concurrentManager.setConcurrentResults(true);
+            sharedResult = concurrentManager.getResult(NAME);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        Probe probe;
+
+        // a single threaded result owned by the benchmark thread
+        Result ownResult;
+
+        long sample;
+
+        @Setup
+        public void setUp() {
+            probe = new DefaultProbe(NAME);
+            probe.start();
+            probe.stop();
+            ownResult = new ProbeManagerImpl().getResult(NAME);
+        }
+    }
+
+    @Benchmark
+    public void addSampleFromProbeNamed(Manager m, ThreadState t) {
+        m.manager.addSampleFromProbe(t.probe);
+    }
+
+    @Benchmark
+    public void addSampleSharedResult(Manager m, ThreadState t) {
+        m.sharedResult.addSample(++t.sample & 0xffff);
+    }
+
+    @Benchmark
+    public void addSampleOwnResult(ThreadState t) {
+        t.ownResult.addSample(++t.sample & 0xffff);
+    }
+}
@@ -0,0 +1,56 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe.benchmarks;
+
+import org.openjdk.jmh.profile.*;
+import org.openjdk.jmh.runner.*;
+import org.openjdk.jmh.runner.options.*;
+
+/**
+ * Runs the benchmarks single threaded and with 2, 8 and 32 threads, with the gc profiler so the allocation
+ * rate is reported next to ns/op.
+ * <p/>
+ * Usage: java -jar benchmarks.jar [benchmark regexp] [thread counts, comma separated]
+ */
+public final class BenchmarkRunner {
+    private static final String DEFAULT_THREADS = "1,2,8,32";
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : "net.sf.jperfprobe.benchmarks.*";
+        String threads = args.length > 1 ? args[1] : DEFAULT_THREADS;
+
+        for (String t : threads.split(",")) {
+            Options opt = new OptionsBuilder()
+                    .include(include)
+                    .threads(Integer.parseInt(t.trim()))
+                    .addProfiler(GCProfiler.class)
+                    .build();
+
+            new Runner(opt).run();
+        }
+    }
+}
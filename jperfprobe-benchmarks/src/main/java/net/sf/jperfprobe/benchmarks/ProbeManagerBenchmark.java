@@ -0,0 +1,135 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe.benchmarks;
+
+import net.sf.jperfprobe.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.*;
+
+/**
+ * Overhead of starting and stopping a probe, looked up by name or through a pre-resolved handle, or begun and
+ * ended with the start time on the stack. With async the
+ * samples are handed to the background aggregator, and dropped if it falls behind. With callTree the probes are
+ * also put in the call tree of the thread.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProbeManagerBenchmark {
+    private static final String NAME = "bench";
+
+    @Param({"false", "true"})
+    public boolean concurrent;
+
+    @Param({"false", "true"})
+    public boolean async;
+
+    @Param({"false", "true"})
+    public boolean callTree;
+
+    private ProbeManager manager;
+
+    private ProbeHandle handle;
+
+    // begin and end need a concurrent result
+    private ProbeHandle beginEndHandle;
+
+    private ProbeHandle staticHandle;
+
+    @Setup
+    public void setUp() {
+        manager = new ProbeManagerImpl();
+        manager.setConcurrentResults(concurrent);
+        if (async) {
+            manager.setAsyncRecording(65536, BackpressurePolicy.DROP);
+        }
+        if (callTree) {
+            manager.setCallTree(16, 1024);
+        }
+        handle = manager.handle(NAME);
+        beginEndHandle = manager.handle("beginEnd", true);
+
+        StaticProbeManager.clear();
+        StaticProbeManager.setConcurrentResults(concurrent);
+        staticHandle = StaticProbeManager.handle(NAME);
+    }
+
+    @TearDown
+    public void tearDown() {
+        manager.setAsyncRecording(0, BackpressurePolicy.DROP);
+    }
+
+    @Benchmark
+    public void staticStartStopNamed() {
+        StaticProbeManager.start(NAME);
+        StaticProbeManager.stop(NAME);
+    }
+
+    @Benchmark
+    public void staticStartStopHandle() {
+        staticHandle.start();
+        staticHandle.stop();
+    }
+
+    @Benchmark
+    public void startStopNamed() {
+        manager.start(NAME);
+        manager.stop(NAME);
+    }
+
+    @Benchmark
+    public void nestedStartStopNamed() {
+        manager.start("outer");
+        manager.start(NAME);
+        manager.stop(NAME);
+        manager.stop("outer");
+    }
+
+    @Benchmark
+    public void startStopHandle() {
+        handle.start();
+        handle.stop();
+    }
+
+    @Benchmark
+    public void beginEndHandle() {
+        beginEndHandle.end(beginEndHandle.begin());
+    }
+
+    @Benchmark
+    public void scopeHandle() {
+        try (ProbeHandle.Scope scope = handle.time()) {
+            // a success unless marked as failed
+        }
+    }
+
+    @Benchmark
+    public Probe getProbeInstanceNamed() {
+        return manager.getProbeInstance(NAME);
+    }
+}
@@ -0,0 +1,63 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe.benchmarks;
+
+import net.sf.jperfprobe.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.*;
+import java.util.concurrent.*;
+
+/**
+ * Cost of reading the time, for each Time implementation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TimeBenchmark {
+
+    @Param({"nanos", "millis", "cached"})
+    public String implementation;
+
+    private Time time;
+
+    @Setup
+    public void setUp() {
+        if ("millis".equals(implementation)) {
+            time = new SystemTimeByMillis();
+        } else if ("cached".equals(implementation)) {
+            time = TimeFactory.getTime(Duration.ofNanos(100000));
+        } else {
+            time = new SystemTimeByNanos();
+        }
+    }
+
+    @Benchmark
+    public long getNanos() {
+        return time.getNanos();
+    }
+}
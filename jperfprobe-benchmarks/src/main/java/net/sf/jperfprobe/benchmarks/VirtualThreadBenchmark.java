@@ -0,0 +1,112 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe.benchmarks;
+
+import net.sf.jperfprobe.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.*;
+
+/**
+ * A million virtual threads, all alive at the same time, time one call each of the same probe. The threads are
+ * started and parked before the measurement, so it is the release of the threads and the timing of their calls
+ * that is measured, not the creation of the threads. Each thread yields inside the timed call, so the calls
+ * overlap. With beginEnd the start time is kept on the stack of each thread, with startStop each thread gets its
+ * own probe. Needs JDK 21, and is only built by the jdk21 profile.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Benchmark)
+public class VirtualThreadBenchmark {
+    private static final String NAME = "request";
+
+    @Param({"1000000"})
+    public int threads;
+
+    @Param({"beginEnd", "startStop"})
+    public String mode;
+
+    private ProbeManager manager;
+
+    private Thread[] running;
+
+    private CountDownLatch go;
+
+    @Setup(Level.Invocation)
+    public void startThreads() throws InterruptedException {
+        manager = new ProbeManagerImpl();
+        manager.setCalibrationInterval(null);
+        final ProbeHandle handle = manager.handle(NAME, true);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch parked = new CountDownLatch(threads);
+        Runnable call = "beginEnd".equals(mode) ? () -> {
+            parked.countDown();
+            awaitUninterruptibly(release);
+            long begin = handle.begin();
+            Thread.yield();
+            handle.end(begin);
+        } : () -> {
+            parked.countDown();
+            awaitUninterruptibly(release);
+            handle.start();
+            Thread.yield();
+            handle.stop();
+        };
+        running = new Thread[threads];
+        Thread.Builder builder = Thread.ofVirtual();
+        for (int i = 0; i < threads; i++) {
+            running[i] = builder.start(call);
+        }
+        parked.await();
+        go = release;
+    }
+
+    @Benchmark
+    public int oneProbe() throws InterruptedException {
+        go.countDown();
+        for (Thread t : running) {
+            t.join();
+        }
+
+        return manager.getResult(NAME).getNSamples();
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
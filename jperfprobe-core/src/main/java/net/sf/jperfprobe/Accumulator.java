@@ -0,0 +1,89 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import java.io.*;
+
+/**
+ * Accumulator is the part of a Result that collects the statistics. There is one implementation for
+ * single threaded recording and one for recording from many threads at the same time.
+ */
+abstract class Accumulator implements Statistics, Serializable {
+
+    /**
+     * Add a sample to the statistics
+     *
+     * @param time sample to add
+     */
+    abstract void add(long time);
+
+    /**
+     * Reset all statistics
+     */
+    abstract void clear();
+
+    /**
+     * Get the sum of the squared samples, to merge the stdev of many accumulators
+     *
+     * @return square sum
+     */
+    abstract double getSquareSum();
+
+    /**
+     * Copy the statistics, the copy is consistent if no sample is added while copying
+     *
+     * @return copy
+     */
+    ResultSnapshot.Frozen freeze() {
+        return new ResultSnapshot.Frozen(this);
+    }
+
+    /**
+     * Create an accumulator
+     *
+     * @param concurrent, true if many threads will add samples at the same time
+     * @return accumulator
+     */
+    static Accumulator create(boolean concurrent) {
+        return concurrent ? new StripedAccumulator() : new SimpleAccumulator();
+    }
+
+    /**
+     * Calculate the sample standard deviation
+     *
+     * @param nSamples  # of samples
+     * @param total     sum of samples
+     * @param squareSum sum of the squared samples
+     * @return stdev
+     */
+    static double stdev(long nSamples, long total, double squareSum) {
+        if (nSamples == 0) {
+            return 0.0;
+        }
+        double nMinus1 = (nSamples <= 1) ? 1 : nSamples - 1;
+        double numerator = squareSum - (((double) total * total) / nSamples);
+
+        return java.lang.Math.sqrt(numerator / nMinus1);
+    }
+}
@@ -0,0 +1,238 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import java.lang.ref.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * AsyncRecorder moves the adding of samples off the recording threads. Each recording thread writes
+ * (result, elapsed, success) to its own single producer ring buffer, and a background aggregator thread drains
+ * all the rings in batches into the results.
+ */
+final class AsyncRecorder implements Runnable {
+
+    // how long the aggregator sleeps when there was nothing to drain
+    private static final long IDLE_PARK_NANOS = 1000000L;
+
+    private final ProbeManagerImpl manager;
+
+    private final int capacity;
+
+    private final BackpressurePolicy policy;
+
+    private final AtomicLong dropped;
+
+    private final ThreadLocal<Ring> rings = new ThreadLocal<Ring>();
+
+    private final CopyOnWriteArrayList<Ring> allRings = new CopyOnWriteArrayList<Ring>();
+
+    // only one thread drains at a time, the aggregator or a flush
+    private final Object drainLock = new Object();
+
+    private final Thread aggregator;
+
+    private volatile boolean running = true;
+
+    /**
+     * Constr, the aggregator is started
+     *
+     * @param manager,  the samples are added through
+     * @param capacity, # of samples in the ring of each thread, rounded up to a power of 2
+     * @param policy,   what to do when a ring is full
+     * @param dropped,  counts the dropped samples
+     */
+    AsyncRecorder(ProbeManagerImpl manager, int capacity, BackpressurePolicy policy, AtomicLong dropped) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+        }
+        int powerOf2 = 1;
+        while (powerOf2 < capacity) {
+            powerOf2 <<= 1;
+        }
+        this.manager = manager;
+        this.capacity = powerOf2;
+        this.policy = policy;
+        this.dropped = dropped;
+        aggregator = new Thread(this, "jperfprobe-aggregator");
+        aggregator.setDaemon(true);
+        aggregator.start();
+    }
+
+    /**
+     * Offer a sample from the calling thread
+     *
+     * @param result
+     * @param elapsed
+     * @param success
+     * @return false if the sample must be added synchronously, also when the recorder is shut down
+     */
+    boolean offer(Result result, long elapsed, boolean success) {
+        if (!running) {
+            return false;
+        }
+        Ring ring = rings.get();
+        if (ring == null) {
+            ring = new Ring(Thread.currentThread(), capacity);
+            rings.set(ring);
+            allRings.add(ring);
+        }
+        if (ring.offer(result, elapsed, success)) {
+            // the tail is written before running is read, and shutdown writes running before its last drain, so
+            // either the last drain sees the sample or it is drained here
+            if (!running) {
+                flush();
+            }
+            return true;
+        }
+        if (policy == BackpressurePolicy.DROP) {
+            dropped.incrementAndGet();
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Add all samples offered so far to their results
+     */
+    void flush() {
+        synchronized (drainLock) {
+            drain();
+        }
+    }
+
+    /**
+     * Stop the aggregator, the samples offered so far are added. An offer after this returns false, an offer that
+     * is in progress drains its own sample.
+     */
+    void shutdown() {
+        running = false;
+        LockSupport.unpark(aggregator);
+        try {
+            aggregator.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    BackpressurePolicy getPolicy() {
+        return policy;
+    }
+
+    public void run() {
+        while (running) {
+            int n;
+            synchronized (drainLock) {
+                n = drain();
+            }
+            if (n == 0) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    // drain all rings, the rings of dead threads are dropped when they are empty
+    private int drain() {
+        int n = 0;
+        for (Ring ring : allRings) {
+            int drained = ring.drain(manager);
+            if (drained == 0 && ring.owner.get() == null) {
+                allRings.remove(ring);
+            }
+            n += drained;
+        }
+
+        return n;
+    }
+
+    /**
+     * Single producer, single consumer ring of samples. The producer publishes with a volatile write of the tail,
+     * which is ordered before its next read of running, and the consumer frees slots with an ordered write of the
+     * head.
+     */
+    private static final class Ring {
+        final WeakReference<Thread> owner;
+
+        private final Result[] results;
+        private final long[] elapsed;
+        private final boolean[] success;
+        private final int mask;
+
+        // next slot to write, only written by the producer
+        private final AtomicLong tail = new AtomicLong();
+
+        // next slot to read, only written by the consumer
+        private final AtomicLong head = new AtomicLong();
+
+        // the head as last seen by the producer
+        private long cachedHead;
+
+        Ring(Thread owner, int capacity) {
+            this.owner = new WeakReference<Thread>(owner);
+            results = new Result[capacity];
+            elapsed = new long[capacity];
+            success = new boolean[capacity];
+            mask = capacity - 1;
+        }
+
+        boolean offer(Result result, long time, boolean succeeded) {
+            long t = tail.get();
+            if (t - cachedHead > mask) {
+                cachedHead = head.get();
+                if (t - cachedHead > mask) {
+                    return false;
+                }
+            }
+            int i = (int) t & mask;
+            results[i] = result;
+            elapsed[i] = time;
+            success[i] = succeeded;
+            tail.set(t + 1);
+
+            return true;
+        }
+
+        int drain(ProbeManagerImpl manager) {
+            long h = head.get();
+            long t = tail.get();
+            for (long next = h; next < t; next++) {
+                int i = (int) next & mask;
+                Result result = results[i];
+                results[i] = null;
+                manager.record(result, elapsed[i], success[i]);
+            }
+            head.lazySet(t);
+
+            return (int) (t - h);
+        }
+    }
+}
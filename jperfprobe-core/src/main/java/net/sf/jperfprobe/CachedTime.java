@@ -0,0 +1,111 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import java.util.concurrent.locks.*;
+
+/**
+ * Time read from a field that a background ticker thread updates with System.nanoTime() at a fixed resolution.
+ * Reading it costs a volatile read instead of a call to the clock. The time lags the clock by up to the
+ * resolution, plus how late the ticker is woken, so elapsed times are multiples of the tick and regions shorter
+ * than a tick are often 0. Use it for probes of regions that are long compared to the resolution.
+ * <p/>
+ * Get shared instances from TimeFactory.getTime(Duration), their tickers run as long as the JVM and they can not
+ * be shut down. An instance of your own is created with the constructor, its ticker is a daemon thread that runs
+ * until shutdown.
+ */
+public class CachedTime implements Time {
+    private final long resolution;
+
+    private final Thread ticker;
+
+    // true if handed out by TimeFactory to every caller of the resolution
+    private final boolean shared;
+
+    private volatile long now;
+
+    private volatile boolean running = true;
+
+    /**
+     * Constr, starts the ticker
+     *
+     * @param resolution, in nanos between updates of the time
+     */
+    public CachedTime(long resolution) {
+        this(resolution, false);
+    }
+
+    CachedTime(long resolution, boolean shared) {
+        if (resolution <= 0) {
+            throw new IllegalArgumentException("resolution must be positive: " + resolution);
+        }
+        this.resolution = resolution;
+        this.shared = shared;
+        now = System.nanoTime();
+        ticker = new Thread(new Runnable() {
+            public void run() {
+                while (running) {
+                    LockSupport.parkNanos(CachedTime.this.resolution);
+                    now = System.nanoTime();
+                }
+            }
+        }, "jperfprobe-ticker-" + resolution + "ns");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    public long getNanos() {
+        return now;
+    }
+
+    /**
+     * Get the resolution in nanos
+     *
+     * @return nanos between updates
+     */
+    public long getResolution() {
+        return resolution;
+    }
+
+    /**
+     * Stop the ticker, the time stands still after this
+     *
+     * @throws IllegalStateException if the instance is shared by TimeFactory
+     */
+    public void shutdown() {
+        if (shared) {
+            throw new IllegalStateException("a shared time can not be shut down: " + this);
+        }
+        running = false;
+        LockSupport.unpark(ticker);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public String toString() {
+        return "CachedTime, resolution=" + resolution + " ns";
+    }
+}
@@ -0,0 +1,149 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * The measured cost of timing an empty region with start and stop, the bias in every sample. The mean and
+ * variance are of the fastest 90% of the calibration rounds, the slowest are dropped as interrupted.
+ */
+public final class Calibration implements Serializable {
+    /**
+     * A region is reliably measured when it is at least this many times the error that remains in its samples
+     */
+    public static final int RELIABILITY_FACTOR = 10;
+
+    // share of the rounds used, the rest are disturbed by interrupts, gc or preemption
+    private static final double KEPT = 0.9;
+
+    private final double overhead;
+
+    private final double variance;
+
+    private final long min;
+
+    private final long median;
+
+    private final int nSamples;
+
+    private final long timeStamp;
+
+    /**
+     * Constr
+     *
+     * @param elapsed, the elapsed time of each calibration round, it is sorted
+     */
+    Calibration(long[] elapsed) {
+        Arrays.sort(elapsed);
+        int n = Math.max(1, (int) (elapsed.length * KEPT));
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += elapsed[i];
+        }
+        double mean = sum / n;
+        double squares = 0;
+        for (int i = 0; i < n; i++) {
+            double d = elapsed[i] - mean;
+            squares += d * d;
+        }
+        overhead = mean;
+        variance = n > 1 ? squares / (n - 1) : 0;
+        min = elapsed[0];
+        median = elapsed[elapsed.length / 2];
+        nSamples = n;
+        timeStamp = System.currentTimeMillis();
+    }
+
+    /**
+     * Get the mean elapsed time of an empty region, in nanos
+     *
+     * @return overhead
+     */
+    public double getOverhead() {
+        return overhead;
+    }
+
+    public double getVariance() {
+        return variance;
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(variance);
+    }
+
+    public long getMin() {
+        return min;
+    }
+
+    public long getMedian() {
+        return median;
+    }
+
+    /**
+     * Get the # of calibration rounds the overhead and variance are computed from
+     *
+     * @return # of rounds
+     */
+    public int getNSamples() {
+        return nSamples;
+    }
+
+    /**
+     * Get when the calibration was done, in millis since epoch
+     *
+     * @return time stamp
+     */
+    public long getTimeStamp() {
+        return timeStamp;
+    }
+
+    /**
+     * Get the shortest average elapsed time that is measured reliably. Without bias subtraction the overhead
+     * is in every sample, with it the variance of the overhead remains.
+     *
+     * @param biasSubtracted, true if the overhead is subtracted from the samples
+     * @return elapsed time in nanos
+     */
+    public double getMinimumMeasurable(boolean biasSubtracted) {
+        return RELIABILITY_FACTOR * (biasSubtracted ? getStandardDeviation() : overhead);
+    }
+
+    /**
+     * Tell if a region is too short to be measured reliably
+     *
+     * @param average,        elapsed time of the region in nanos, as recorded
+     * @param biasSubtracted, true if the overhead is subtracted from the samples
+     * @return true if the overhead or its variance is too large a part of the elapsed time
+     */
+    public boolean isTooShort(double average, boolean biasSubtracted) {
+        return average < getMinimumMeasurable(biasSubtracted);
+    }
+
+    public String toString() {
+        return "overhead=" + overhead + " , stddev=" + getStandardDeviation() + " , min=" + min + " , median="
+                + median + " , #samples=" + nSamples + " , units=ns";
+    }
+}
@@ -0,0 +1,75 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import java.lang.ref.*;
+import java.util.concurrent.*;
+
+/**
+ * Calibrator repeats the calibration of managers, on one daemon thread shared by all managers. A manager that
+ * is no longer used is not kept alive by its calibration, the task is cancelled when the manager is collected.
+ */
+final class Calibrator implements Runnable {
+    private static final ScheduledExecutorService SCHEDULER =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "jperfprobe-calibrator");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private final WeakReference<ProbeManagerImpl> manager;
+
+    private volatile Future<?> future;
+
+    private Calibrator(ProbeManagerImpl manager) {
+        this.manager = new WeakReference<ProbeManagerImpl>(manager);
+    }
+
+    /**
+     * Calibrate a manager periodically
+     *
+     * @param manager
+     * @param intervalNanos, between the end of a calibration and the start of the next
+     * @return task, cancel it to stop the calibrations
+     */
+    static Future<?> schedule(ProbeManagerImpl manager, long intervalNanos) {
+        Calibrator calibrator = new Calibrator(manager);
+        calibrator.future = SCHEDULER.scheduleWithFixedDelay(calibrator, intervalNanos, intervalNanos,
+                TimeUnit.NANOSECONDS);
+
+        return calibrator.future;
+    }
+
+    public void run() {
+        ProbeManagerImpl pm = manager.get();
+        if (pm == null) {
+            // the future is set before the first run, it is an interval away
+            future.cancel(false);
+            return;
+        }
+        pm.calibrate();
+    }
+}
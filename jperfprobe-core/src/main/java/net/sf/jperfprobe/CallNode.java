@@ -0,0 +1,187 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * CallNode is a call path in the call tree of a manager, merged from the trees of all threads. The total
+ * time of a node includes the time of its children, the self time is the time spent outside them.
+ */
+public final class CallNode implements Serializable {
+    private final String name;
+
+    private final String path;
+
+    private long count;
+
+    private long total;
+
+    private long self;
+
+    private long max;
+
+    // starts that were not in the tree, only counted in the root
+    long dropped;
+
+    private final Map<String, CallNode> children = new LinkedHashMap<String, CallNode>();
+
+    CallNode(String name, String path) {
+        this.name = name;
+        this.path = path;
+    }
+
+    void merge(CallStack.Node node) {
+        count += node.count;
+        total += node.total;
+        self += node.self;
+        max = Math.max(max, node.max);
+        for (CallStack.Node c : node.children) {
+            CallNode child = children.get(c.name);
+            if (child == null) {
+                child = new CallNode(c.name, path.isEmpty() ? c.name : path + "/" + c.name);
+                children.put(c.name, child);
+            }
+            child.merge(c);
+        }
+    }
+
+    void merge(CallNode node) {
+        count += node.count;
+        total += node.total;
+        self += node.self;
+        max = Math.max(max, node.max);
+        for (CallNode c : node.children.values()) {
+            CallNode child = children.get(c.name);
+            if (child == null) {
+                child = new CallNode(c.name, c.path);
+                children.put(c.name, child);
+            }
+            child.merge(c);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the names from the root to this node, separated by /
+     *
+     * @return path
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Get the # of calls of the path
+     *
+     * @return # of calls
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Get the time of the calls, including the time of the children
+     *
+     * @return inclusive time
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Get the time of the calls spent outside the children
+     *
+     * @return exclusive time
+     */
+    public long getSelf() {
+        return self;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getAverage() {
+        return count == 0 ? 0.0 : (double) total / count;
+    }
+
+    /**
+     * Get the # of starts that were not put in the tree because of its bounds, counted in the root
+     *
+     * @return # of starts
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    public Collection<CallNode> getChildren() {
+        return Collections.unmodifiableCollection(children.values());
+    }
+
+    /**
+     * Find a node below this node
+     *
+     * @param names of the path from this node
+     * @return node, null if there is no such path
+     */
+    public CallNode find(String... names) {
+        CallNode n = this;
+        for (int i = 0; i < names.length && n != null; i++) {
+            n = n.children.get(names[i]);
+        }
+
+        return n;
+    }
+
+    /**
+     * Get the tree from this node, indented
+     *
+     * @return tree
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        append(sb, 0);
+
+        return sb.toString();
+    }
+
+    private void append(StringBuilder sb, int indent) {
+        if (!path.isEmpty()) {
+            for (int i = 0; i < indent; i++) {
+                sb.append("  ");
+            }
+            sb.append(name).append(" #calls=").append(count).append(" , total=").append(total).append(" , self=")
+                    .append(self).append(" , max=").append(max).append('\n');
+            indent++;
+        }
+        for (CallNode c : children.values()) {
+            c.append(sb, indent);
+        }
+    }
+}
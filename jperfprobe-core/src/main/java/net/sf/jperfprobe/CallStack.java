@@ -0,0 +1,295 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import java.lang.ref.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * CallStack is the call tree of one thread. A probe started while another probe of the thread is running
+ * becomes its child, each path from the root is a node with the inclusive and the self time of its calls.
+ * Only the thread of the stack writes to it, with ordered writes, other threads read the nodes without locking, so a
+ * tree read while the thread records can be off by the call in progress.
+ * <p/>
+ * The tree is bounded: a probe started deeper than the max depth, or that would be a new node when the tree has
+ * max nodes, is not in the tree, its time is part of the self time of the probe it was started in. Stops are
+ * expected in the reverse order of the starts, a stop of a probe below the top of the stack also ends the
+ * probes above it.
+ */
+final class CallStack {
+    private static final AtomicLongFieldUpdater<CallStack> DROPPED =
+            AtomicLongFieldUpdater.newUpdater(CallStack.class, "dropped");
+
+    private final Node root = new Node(null, "", 0);
+
+    private final int maxDepth;
+
+    private final int maxNodes;
+
+    private Node current = root;
+
+    private int nodes;
+
+    // starts above the current node that are not in the tree
+    private int untracked;
+
+    // starts that were not in the tree
+    volatile long dropped;
+
+    private final Reference<Thread> owner;
+
+    CallStack(int maxDepth, int maxNodes, Thread owner) {
+        this.maxDepth = maxDepth;
+        this.maxNodes = maxNodes;
+        this.owner = new WeakReference<Thread>(owner);
+    }
+
+    /**
+     * Is the thread of the stack alive, a stack of a dead thread is not written any more
+     *
+     * @return true if alive
+     */
+    boolean isAlive() {
+        Thread t = owner.get();
+
+        return t != null && t.isAlive();
+    }
+
+    /**
+     * A probe of the thread is started
+     *
+     * @param name of the probe
+     */
+    void enter(String name) {
+        if (untracked > 0 || current.depth >= maxDepth) {
+            untrack();
+            return;
+        }
+        Node child = current.child(name);
+        if (child == null) {
+            if (nodes >= maxNodes) {
+                untrack();
+                return;
+            }
+            child = current.addChild(name);
+            nodes++;
+        }
+        current = child;
+    }
+
+    private void untrack() {
+        untracked++;
+        DROPPED.lazySet(this, dropped + 1);
+    }
+
+    /**
+     * A probe of the thread is stopped
+     *
+     * @param name    of the probe
+     * @param elapsed time of the call
+     */
+    void exit(String name, long elapsed) {
+        if (untracked > 0) {
+            untracked--;
+            return;
+        }
+        Node n = current;
+        while (n != root && !n.name.equals(name)) {
+            n = n.parent;
+        }
+        if (n == root) {
+            // not started in the tree
+            return;
+        }
+        // the calls above it end without a stop
+        for (Node a = current; a != n; a = a.parent) {
+            a.childTime = 0;
+        }
+        Node.COUNT.lazySet(n, n.count + 1);
+        Node.TOTAL.lazySet(n, n.total + elapsed);
+        Node.SELF.lazySet(n, n.self + Math.max(0, elapsed - n.childTime));
+        if (elapsed > n.max) {
+            Node.MAX.lazySet(n, elapsed);
+        }
+        n.childTime = 0;
+        current = n.parent;
+        current.childTime += elapsed;
+    }
+
+    Node getRoot() {
+        return root;
+    }
+
+    /**
+     * A call path
+     */
+    static final class Node {
+        static final AtomicLongFieldUpdater<Node> COUNT = AtomicLongFieldUpdater.newUpdater(Node.class, "count");
+        static final AtomicLongFieldUpdater<Node> TOTAL = AtomicLongFieldUpdater.newUpdater(Node.class, "total");
+        static final AtomicLongFieldUpdater<Node> SELF = AtomicLongFieldUpdater.newUpdater(Node.class, "self");
+        static final AtomicLongFieldUpdater<Node> MAX = AtomicLongFieldUpdater.newUpdater(Node.class, "max");
+
+        final String name;
+        final Node parent;
+        final int depth;
+
+        // appended by the thread of the stack, the array is replaced when it grows
+        volatile Node[] children = new Node[0];
+
+        // written only by the thread of the stack, ordered so that readers see whole values
+        volatile long count;
+        volatile long total;
+        volatile long self;
+        volatile long max;
+
+        // inclusive time of the children in the running call
+        long childTime;
+
+        Node(Node parent, String name, int depth) {
+            this.parent = parent;
+            this.name = name;
+            this.depth = depth;
+        }
+
+        Node child(String name) {
+            Node[] c = children;
+            for (Node n : c) {
+                if (n.name == name) {
+                    return n;
+                }
+            }
+            for (Node n : c) {
+                if (n.name.equals(name)) {
+                    return n;
+                }
+            }
+
+            return null;
+        }
+
+        Node addChild(String name) {
+            Node child = new Node(this, name, depth + 1);
+            Node[] c = Arrays.copyOf(children, children.length + 1);
+            c[c.length - 1] = child;
+            children = c;
+
+            return child;
+        }
+    }
+
+    /**
+     * The call stacks of all threads recording to a manager
+     */
+    static final class Registry {
+        // new stacks between the folding of the stacks of dead threads
+        private static final int RETIRE_INTERVAL = 64;
+
+        private final int maxDepth;
+
+        private final int maxNodes;
+
+        private final ThreadLocal<CallStack> stacks = new ThreadLocal<CallStack>();
+
+        private final Queue<CallStack> all = new ConcurrentLinkedQueue<CallStack>();
+
+        // the trees of dead threads merged, their calls are part of the tree
+        private final CallNode retired = new CallNode("", "");
+
+        private final AtomicInteger created = new AtomicInteger();
+
+        Registry(int maxDepth, int maxNodes) {
+            if (maxDepth <= 0 || maxNodes <= 0) {
+                throw new IllegalArgumentException("max depth and max nodes must be positive: " + maxDepth + ", "
+                        + maxNodes);
+            }
+            this.maxDepth = maxDepth;
+            this.maxNodes = maxNodes;
+        }
+
+        CallStack get() {
+            CallStack stack = stacks.get();
+            if (stack == null) {
+                stack = new CallStack(maxDepth, maxNodes, Thread.currentThread());
+                stacks.set(stack);
+                all.add(stack);
+                if (created.incrementAndGet() % RETIRE_INTERVAL == 0) {
+                    retire();
+                }
+            }
+
+            return stack;
+        }
+
+        int getMaxDepth() {
+            return maxDepth;
+        }
+
+        int getMaxNodes() {
+            return maxNodes;
+        }
+
+        /**
+         * Fold the trees of dead threads into the retired tree, so that the stacks do not grow with thread churn
+         */
+        private synchronized void retire() {
+            for (Iterator<CallStack> it = all.iterator(); it.hasNext(); ) {
+                CallStack s = it.next();
+                if (!s.isAlive()) {
+                    it.remove();
+                    retired.merge(s.root);
+                    retired.dropped += s.dropped;
+                }
+            }
+        }
+
+        /**
+         * Get the # of stacks that are not folded into the retired tree
+         *
+         * @return # of stacks
+         */
+        int size() {
+            return all.size();
+        }
+
+        /**
+         * Merge the trees of all threads
+         *
+         * @return root of the merged tree
+         */
+        synchronized CallNode merge() {
+            retire();
+            CallNode root = new CallNode("", "");
+            root.merge(retired);
+            root.dropped = retired.dropped;
+            for (CallStack s : all) {
+                root.merge(s.root);
+                root.dropped += s.dropped;
+            }
+
+            return root;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * A Histogram that can be recorded to from many threads at the same time. The counts are striped like a
+ * LongAdder: all threads count in the first stripe until two of them collide, then a colliding thread moves to
+ * the stripe of its thread id, so threads recording the same latencies do not fight over one cache line. A read
+ * sums the stripes. A stripe is a full array of counts, it is only created when a thread collides.
+ */
+class ConcurrentHistogram extends Histogram {
+
+    // most stripes of a histogram
+    private static final int MAX_STRIPES = 16;
+
+    private final AtomicReferenceArray<AtomicLongArray> stripes;
+
+    // # of stripes - 1, the # of stripes is a power of 2
+    private final int mask;
+
+    ConcurrentHistogram(long highestTrackableValue, int significantDigits) {
+        this(highestTrackableValue, significantDigits, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constr
+     *
+     * @param highestTrackableValue
+     * @param significantDigits
+     * @param threads,              # of threads expected to record at the same time, the # of stripes
+     */
+    ConcurrentHistogram(long highestTrackableValue, int significantDigits, int threads) {
+        super(highestTrackableValue, significantDigits);
+        int n = 1;
+        while (n < threads && n < MAX_STRIPES) {
+            n <<= 1;
+        }
+        stripes = new AtomicReferenceArray<AtomicLongArray>(n);
+        mask = n - 1;
+    }
+
+    @Override
+    void increment(int index) {
+        add(index, 1);
+    }
+
+    @Override
+    void add(int index, long count) {
+        int s = mask == 0 ? 0 : (int) ((Thread.currentThread().getId() * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        AtomicLongArray c = stripes.get(s);
+        if (c == null) {
+            c = stripe(0);
+            if (s != 0) {
+                long v = c.get(index);
+                if (c.compareAndSet(index, v, v + count)) {
+                    return;
+                }
+                // collided in the first stripe, count in the stripe of the thread from now on
+                c = stripe(s);
+            }
+        }
+        c.addAndGet(index, count);
+    }
+
+    @Override
+    long getCountAtIndex(int index) {
+        long sum = 0;
+        for (int s = 0; s <= mask; s++) {
+            AtomicLongArray c = stripes.get(s);
+            if (c != null) {
+                sum += c.get(index);
+            }
+        }
+
+        return sum;
+    }
+
+    @Override
+    public void reset() {
+        for (int s = 0; s <= mask; s++) {
+            AtomicLongArray c = stripes.get(s);
+            if (c != null) {
+                for (int i = 0; i < c.length(); i++) {
+                    c.set(i, 0);
+                }
+            }
+        }
+    }
+
+    private AtomicLongArray stripe(int s) {
+        AtomicLongArray c = stripes.get(s);
+        if (c == null) {
+            stripes.compareAndSet(s, null, new AtomicLongArray(getCountsLength()));
+            c = stripes.get(s);
+        }
+
+        return c;
+    }
+}
@@ -0,0 +1,283 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * DecayingReservoir is a bounded sample of the samples of a Result, biased toward the recent ones by forward
+ * decay (Cormode et al, "Forward Decay: A Practical Time Decay Model for Streaming Systems"). Each sample gets
+ * the priority exp(alpha * age of the landmark) / u, with u random in (0, 1], and the samples with the highest
+ * priorities are kept. With alpha 0.015 and 1028 samples the reservoir represents roughly the last 5 minutes.
+ * <p/>
+ * The memory is fixed by the size whatever the throughput. The reservoir is safe to update from many threads,
+ * a sample that can not get in is rejected without taking the lock.
+ */
+public final class DecayingReservoir {
+
+    /**
+     * default # of samples kept
+     */
+    public static final int DEFAULT_SIZE = 1028;
+
+    /**
+     * default decay factor, per second
+     */
+    public static final double DEFAULT_ALPHA = 0.015;
+
+    // the priorities are rescaled at least this often
+    private static final long MAX_RESCALE_NANOS = 3600L * 1000000000L;
+
+    // largest exponent of a weight before a rescale, exp(100) / u stays far below Double.MAX_VALUE (exp(709))
+    private static final double MAX_EXPONENT = 100.0;
+
+    // the priorities are rescaled before they grow out of range, sooner for a higher alpha
+    private final long rescaleNanos;
+
+    private final int size;
+
+    private final double alpha;
+
+    private final Time time;
+
+    // min-heap of the kept samples on priority
+    private final double[] priorities;
+    private final double[] weights;
+    private final long[] values;
+    private int count;
+
+    // lowest kept priority when full, a sample with lower priority is rejected without locking
+    private volatile double minPriority;
+
+    private volatile long landmark;
+
+    /**
+     * Constr
+     *
+     * @param size,  # of samples kept
+     * @param alpha, decay factor per second, higher alpha favours recent samples more
+     * @param time,  clock of the decay
+     */
+    public DecayingReservoir(int size, double alpha, Time time) {
+        if (size < 1) {
+            throw new IllegalArgumentException("size must be at least 1: " + size);
+        }
+        if (alpha < 0) {
+            throw new IllegalArgumentException("alpha can not be negative: " + alpha);
+        }
+        this.size = size;
+        this.alpha = alpha;
+        this.time = time;
+        double maxAge = alpha == 0 ? MAX_RESCALE_NANOS : MAX_EXPONENT / alpha * 1e9;
+        rescaleNanos = Math.max(1, (long) Math.min(maxAge, MAX_RESCALE_NANOS));
+        priorities = new double[size];
+        weights = new double[size];
+        values = new long[size];
+        landmark = time.getNanos();
+    }
+
+    /**
+     * Offer a sample to the reservoir
+     *
+     * @param value
+     */
+    public void update(long value) {
+        long now = time.getNanos();
+        long start = landmark;
+        double u = 1.0 - ThreadLocalRandom.current().nextDouble();
+        double weight = weight(now - start);
+        double priority = weight / u;
+        if (priority <= minPriority && now - start < rescaleNanos) {
+            return;
+        }
+
+        synchronized (this) {
+            if (now - landmark >= rescaleNanos) {
+                rescale(now);
+            }
+            if (start != landmark) {
+                weight = weight(now - landmark);
+                priority = weight / u;
+            }
+            if (count < size) {
+                int i = count++;
+                set(i, priority, weight, value);
+                siftUp(i);
+            } else if (priority > priorities[0]) {
+                set(0, priority, weight, value);
+                siftDown(0);
+            }
+            if (count == size) {
+                minPriority = priorities[0];
+            }
+        }
+    }
+
+    private double weight(long ageNanos) {
+        return Math.exp(alpha * ageNanos / 1e9);
+    }
+
+    // move the landmark to now, scaling the kept priorities and weights so they keep their order
+    private void rescale(long now) {
+        double factor = Math.exp(-alpha * (now - landmark) / 1e9);
+        for (int i = 0; i < count; i++) {
+            priorities[i] *= factor;
+            weights[i] *= factor;
+        }
+        landmark = now;
+        minPriority = count == size ? priorities[0] : 0.0;
+    }
+
+    private void set(int i, double priority, double weight, long value) {
+        priorities[i] = priority;
+        weights[i] = weight;
+        values[i] = value;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (priorities[parent] <= priorities[i]) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        for (; ;) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < count && priorities[left] < priorities[smallest]) {
+                smallest = left;
+            }
+            if (right < count && priorities[right] < priorities[smallest]) {
+                smallest = right;
+            }
+            if (smallest == i) {
+                return;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        double p = priorities[a];
+        priorities[a] = priorities[b];
+        priorities[b] = p;
+        double w = weights[a];
+        weights[a] = weights[b];
+        weights[b] = w;
+        long v = values[a];
+        values[a] = values[b];
+        values[b] = v;
+    }
+
+    /**
+     * Get the kept samples, sorted by value
+     *
+     * @return samples
+     */
+    public synchronized long[] getSamples() {
+        long[] copy = Arrays.copyOf(values, count);
+        Arrays.sort(copy);
+
+        return copy;
+    }
+
+    /**
+     * Get the sample value that the given percentage of the samples are less than or equal to, where each kept
+     * sample counts with its decayed weight
+     *
+     * @param percentile 0.0 - 100.0
+     * @return sample value, 0 if there are no samples
+     */
+    public long getPercentile(double percentile) {
+        long[] sortedValues;
+        double[] sortedWeights;
+        double total = 0;
+        synchronized (this) {
+            if (count == 0) {
+                return 0;
+            }
+            Integer[] order = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    return Long.compare(values[a], values[b]);
+                }
+            });
+            sortedValues = new long[count];
+            sortedWeights = new double[count];
+            for (int i = 0; i < count; i++) {
+                sortedValues[i] = values[order[i]];
+                sortedWeights[i] = weights[order[i]];
+                total += sortedWeights[i];
+            }
+        }
+
+        double wanted = Math.max(0.0, Math.min(percentile, 100.0)) / 100.0 * total;
+        double cumulative = 0;
+        for (int i = 0; i < sortedValues.length; i++) {
+            cumulative += sortedWeights[i];
+            if (cumulative >= wanted) {
+                return sortedValues[i];
+            }
+        }
+
+        return sortedValues[sortedValues.length - 1];
+    }
+
+    /**
+     * Get the # of samples kept
+     *
+     * @return count
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public double getAlpha() {
+        return alpha;
+    }
+
+    /**
+     * Drop all samples and move the landmark to now
+     */
+    public synchronized void clear() {
+        count = 0;
+        minPriority = 0.0;
+        landmark = time.getNanos();
+    }
+}
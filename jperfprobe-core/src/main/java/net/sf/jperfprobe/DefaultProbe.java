@@ -26,6 +26,9 @@ package net.sf.jperfprobe;
 
 import org.slf4j.*;
 
+import java.lang.ref.*;
+import java.util.concurrent.atomic.*;
+
 
 /**
  * DefaultProbe implements a Probe. It is possible to start and stop a probe
@@ -55,6 +58,21 @@ public class DefaultProbe implements Probe {
     // how to get the time
     private Time time = TimeFactory.getTime();
 
+    // calls left until the next timed call when the result is sampled
+    private int untilSampled;
+
+    private static final AtomicLongFieldUpdater<DefaultProbe> SKIPPED =
+            AtomicLongFieldUpdater.newUpdater(DefaultProbe.class, "skippedCalls");
+
+    // true if the current call is not timed
+    private boolean skipping;
+
+    // calls not timed so far, only written by the thread of the probe, summed by the result when it is read
+    volatile long skippedCalls;
+
+    // the thread of the probe, set when the result first counts its skipped calls
+    Reference<Thread> owner;
+
     /**
      * Constructor of probe
      *
@@ -97,14 +115,41 @@ public class DefaultProbe implements Probe {
     public void stop() {
         if (enabled) {
             long ti = this.time.getNanos() - startTime;
-            if (running && ti > 0) {
-                // make sure timeelapsed > 0
+            if (running && ti >= 0) {
+                // make sure timeelapsed >= 0, a coarse time gives 0 for a short region
                 timeElapsed = ti;
                 running = false;
             }
         }
     }
 
+    /**
+     * Count down to the next timed call. Only called by the thread of the probe.
+     *
+     * @param sampling of the result, null if every call is timed
+     * @return true if the call is not timed
+     */
+    boolean skip(Sampling sampling) {
+        if (sampling != null && --untilSampled > 0) {
+            skipping = true;
+            SKIPPED.lazySet(this, skippedCalls + 1);
+            return true;
+        }
+        untilSampled = sampling == null ? 0 : sampling.nextInterval();
+        skipping = false;
+
+        return false;
+    }
+
+    /**
+     * Is the current call not timed
+     *
+     * @return skipping flag
+     */
+    boolean isSkipping() {
+        return skipping;
+    }
+
     /**
      * Is the probe enabled.
      *
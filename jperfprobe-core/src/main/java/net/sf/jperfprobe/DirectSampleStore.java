@@ -0,0 +1,192 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import org.slf4j.*;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * DirectSampleStore keeps the most recent samples in direct ByteBuffers outside the heap, so millions of samples
+ * do not add to the heap or to gc pauses. The samples are split in segments which are allocated when the samples
+ * reach them, a single segment of the full capacity makes a plain ring.
+ * <p/>
+ * Each segment is reserved from the OffHeapBudget when it is allocated, so a log only pays for what is filled. If
+ * the budget is exhausted the samples are dropped until the store is cleared, the statistics of the Result still
+ * count them. The direct memory is freed by gc after the store is released.
+ */
+final class DirectSampleStore implements SampleStore {
+    private static final Logger log = LoggerFactory.getLogger(DirectSampleStore.class);
+
+    /**
+     * # of samples in each segment of a log, 64 KB
+     */
+    static final int LOG_SEGMENT_SIZE = 8192;
+
+    private final int capacity;
+
+    private final int segmentSize;
+
+    private final OffHeapBudget budget;
+
+    private final transient AtomicReferenceArray<ByteBuffer> segments;
+
+    // bytes of the allocated segments, reserved from the budget
+    private long reservedBytes;
+
+    // true when the budget was exhausted, samples are dropped until the store is cleared, read without a lock
+    private volatile boolean overBudget;
+
+    // # of samples added when single threaded
+    private long count;
+
+    // # of samples added when many threads are adding, null if single threaded
+    private final AtomicLong concurrentCount;
+
+    /**
+     * Constr
+     *
+     * @param capacity,    max # of samples kept
+     * @param concurrent,  true if samples will be added from many threads at the same time
+     * @param budget,      budget to reserve the direct memory from
+     * @param segmentSize, # of samples in each segment
+     */
+    DirectSampleStore(int capacity, boolean concurrent, OffHeapBudget budget, int segmentSize) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+        }
+        if (segmentSize < 1) {
+            throw new IllegalArgumentException("segment size must be at least 1: " + segmentSize);
+        }
+        this.capacity = capacity;
+        this.segmentSize = Math.min(segmentSize, capacity);
+        this.budget = budget;
+        this.segments = new AtomicReferenceArray<ByteBuffer>((capacity - 1) / this.segmentSize + 1);
+        this.concurrentCount = concurrent ? new AtomicLong() : null;
+    }
+
+    public void add(long sample) {
+        if (overBudget) {
+            return;
+        }
+        long index = concurrentCount == null ? count++ : concurrentCount.getAndIncrement();
+        int position = (int) (index % capacity);
+        int segment = position / segmentSize;
+        ByteBuffer s = segments.get(segment);
+        if (s == null && (s = allocate(segment)) == null) {
+            return;
+        }
+        s.putLong((position - segment * segmentSize) << 3, sample);
+    }
+
+    // reserve and allocate a segment, null if the budget is exhausted
+    private synchronized ByteBuffer allocate(int segment) {
+        ByteBuffer s = segments.get(segment);
+        if (s != null || overBudget) {
+            return s;
+        }
+        int length = Math.min(segmentSize, capacity - segment * segmentSize);
+        long bytes = (long) length << 3;
+        if (!budget.reserve(bytes)) {
+            overBudget = true;
+            log.warn("off-heap budget of " + budget.getLimit() + " bytes is exhausted, dropping samples of "
+                    + capacity + " sample store");
+            return null;
+        }
+        reservedBytes += bytes;
+        s = ByteBuffer.allocateDirect(length << 3).order(ByteOrder.nativeOrder());
+        segments.set(segment, s);
+
+        return s;
+    }
+
+    public long[] getSamples() {
+        final long[] dest = new long[(int) Math.min(getCount(), capacity)];
+        final int[] offset = new int[1];
+        visit(new SampleVisitor() {
+            public void visit(LongBuffer samples) {
+                int n = Math.min(samples.remaining(), dest.length - offset[0]);
+                samples.get(dest, offset[0], n);
+                offset[0] += n;
+            }
+        });
+
+        // a sample counted when its segment could not be allocated is not kept
+        return offset[0] < dest.length ? Arrays.copyOf(dest, offset[0]) : dest;
+    }
+
+    public void visit(SampleVisitor visitor) {
+        long c = getCount();
+        int n = (int) Math.min(c, capacity);
+        int position = (int) ((c - n) % capacity);
+        while (n > 0) {
+            int segment = position / segmentSize;
+            int offset = position - segment * segmentSize;
+            ByteBuffer s = segments.get(segment);
+            if (s == null) {
+                return;
+            }
+            LongBuffer block = s.asReadOnlyBuffer().order(s.order()).asLongBuffer();
+            int length = Math.min(block.capacity() - offset, n);
+            block.limit(offset + length).position(offset);
+            visitor.visit(block);
+            n -= length;
+            position = (position + length) % capacity;
+        }
+    }
+
+    public long getCount() {
+        return concurrentCount == null ? count : concurrentCount.get();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void clear() {
+        if (concurrentCount == null) {
+            count = 0;
+        } else {
+            concurrentCount.set(0);
+        }
+        overBudget = false;
+    }
+
+    public synchronized void release() {
+        clear();
+        for (int i = 0; i < segments.length(); i++) {
+            segments.set(i, null);
+        }
+        budget.release(reservedBytes);
+        reservedBytes = 0;
+    }
+
+    // the samples are serialized as a heap ring
+    private Object writeReplace() throws ObjectStreamException {
+        return SampleRing.copyOf(getSamples(), capacity, concurrentCount != null);
+    }
+}
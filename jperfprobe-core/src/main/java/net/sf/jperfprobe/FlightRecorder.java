@@ -0,0 +1,238 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * FlightRecorder keeps every raw sample of the last minutes in a fixed size memory-mapped file, used as a
+ * circular log. Each sample is a record of (sequence, timestamp, elapsed, thread id, probe id, flags) written
+ * straight into the mapped file, a thread claims its record with an atomic increment and takes no lock.
+ * The file is in the page cache as soon as a record is written, so it survives a crash of the JVM and can be
+ * read with FlightRecorderReader. Only the record being written at the crash can be torn. Call force to have
+ * the file written to disk, which a crash of the machine needs.
+ * <p/>
+ * Layout: a header, a table of probe names, and capacity records of RECORD_SIZE bytes. The sequence is written
+ * last, a record belongs to its slot if (sequence - 1) modulo the capacity is the slot.
+ */
+public final class FlightRecorder implements Closeable {
+    static final int MAGIC = 0x4A504652;
+
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 64;
+
+    static final int NAMES_SIZE = 64 * 1024;
+
+    static final int RECORD_SIZE = 40;
+
+    static final int FLAG_FAILURE = 1;
+
+    // id of a probe that is left out on purpose, it is not counted as unnamed
+    private static final int NOT_RECORDED = -2;
+
+    // header fields
+    static final int CAPACITY_OFFSET = 8;
+    static final int RECORD_SIZE_OFFSET = 12;
+    static final int BASE_MILLIS_OFFSET = 16;
+    static final int BASE_NANOS_OFFSET = 24;
+    static final int NAMES_USED_OFFSET = 32;
+
+    // record fields
+    static final int SEQUENCE = 0;
+    static final int TIMESTAMP = 8;
+    static final int ELAPSED = 16;
+    static final int THREAD = 24;
+    static final int PROBE = 32;
+    static final int FLAGS = 36;
+
+    private final Path file;
+
+    private final FileChannel channel;
+
+    private final MappedByteBuffer buffer;
+
+    private final int capacity;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    // ids given to probe names, guarded by itself
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+    private int namesUsed;
+
+    private final AtomicLong unnamed = new AtomicLong();
+
+    /**
+     * Constr, creates or overwrites the file
+     *
+     * @param file
+     * @param capacity, # of records, rounded up to a power of 2
+     * @throws IOException
+     */
+    public FlightRecorder(Path file, int capacity) throws IOException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        int powerOf2 = 1;
+        while (powerOf2 < capacity) {
+            powerOf2 <<= 1;
+        }
+        long size = HEADER_SIZE + NAMES_SIZE + (long) powerOf2 * RECORD_SIZE;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("capacity is too large to map: " + capacity);
+        }
+        this.file = file;
+        this.capacity = powerOf2;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(CAPACITY_OFFSET, powerOf2);
+        buffer.putInt(RECORD_SIZE_OFFSET, RECORD_SIZE);
+        buffer.putLong(BASE_MILLIS_OFFSET, System.currentTimeMillis());
+        buffer.putLong(BASE_NANOS_OFFSET, System.nanoTime());
+        buffer.putInt(NAMES_USED_OFFSET, 0);
+    }
+
+    /**
+     * Append a sample of the calling thread
+     *
+     * @param result  the sample is from
+     * @param elapsed time
+     * @param success false if the elapsed time is from a failed call
+     */
+    void record(Result result, long elapsed, boolean success) {
+        int id = result.flightRecorder == this ? result.flightRecorderId : register(result);
+        if (id < 0) {
+            if (id != NOT_RECORDED) {
+                unnamed.incrementAndGet();
+            }
+            return;
+        }
+        long seq = sequence.incrementAndGet();
+        int offset = HEADER_SIZE + NAMES_SIZE + (int) ((seq - 1) & (capacity - 1)) * RECORD_SIZE;
+        buffer.putLong(offset + TIMESTAMP, System.nanoTime());
+        buffer.putLong(offset + ELAPSED, elapsed);
+        buffer.putLong(offset + THREAD, Thread.currentThread().getId());
+        buffer.putInt(offset + PROBE, id);
+        buffer.putInt(offset + FLAGS, success ? 0 : FLAG_FAILURE);
+        buffer.putLong(offset + SEQUENCE, seq);
+    }
+
+    // give the name of a result an id, the same name keeps its id when the results are cleared
+    private int register(Result result) {
+        int id;
+        synchronized (ids) {
+            String name = result.getName();
+            Integer existing = ids.get(name);
+            if (result.calibration) {
+                id = NOT_RECORDED;
+            } else if (existing != null) {
+                id = existing;
+            } else {
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length > Short.MAX_VALUE || namesUsed + 6 + bytes.length > NAMES_SIZE) {
+                    // the name table is full, the samples of the probe are not recorded
+                    id = -1;
+                } else {
+                    id = ids.size();
+                    int offset = HEADER_SIZE + namesUsed;
+                    buffer.putInt(offset, id);
+                    buffer.putShort(offset + 4, (short) bytes.length);
+                    for (int i = 0; i < bytes.length; i++) {
+                        buffer.put(offset + 6 + i, bytes[i]);
+                    }
+                    namesUsed += 6 + bytes.length;
+                    buffer.putInt(NAMES_USED_OFFSET, namesUsed);
+                    ids.put(name, id);
+                }
+            }
+        }
+        // the id is published by the write of the recorder
+        result.flightRecorderId = id;
+        result.flightRecorder = this;
+
+        return id;
+    }
+
+    /**
+     * Get the # of records in the file
+     *
+     * @return # of records
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get the # of samples recorded, the file keeps the last capacity of them
+     *
+     * @return # of samples
+     */
+    public long getRecorded() {
+        return sequence.get();
+    }
+
+    /**
+     * Get the # of samples not recorded because the table of probe names was full
+     *
+     * @return # of samples
+     */
+    public long getUnnamed() {
+        return unnamed.get();
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Write the file to disk
+     */
+    public void force() {
+        buffer.force();
+    }
+
+    /**
+     * Write the file to disk and close it. The mapping is released when it is garbage collected.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    public String toString() {
+        return "FlightRecorder, file=" + file + " , capacity=" + capacity + " , recorded=" + getRecorded();
+    }
+}
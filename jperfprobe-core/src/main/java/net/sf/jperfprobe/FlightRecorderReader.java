@@ -0,0 +1,218 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * FlightRecorderReader decodes the file of a FlightRecorder, also after the JVM that wrote it has crashed.
+ * The records are read oldest first.
+ */
+public class FlightRecorderReader {
+    private final Map<Integer, String> names = new HashMap<Integer, String>();
+
+    private final List<Record> records = new ArrayList<Record>();
+
+    /**
+     * A sample in the file
+     */
+    public static final class Record {
+        private final long sequence;
+        private final long timeMillis;
+        private final String name;
+        private final long elapsed;
+        private final long threadId;
+        private final boolean success;
+
+        Record(long sequence, long timeMillis, String name, long elapsed, long threadId, boolean success) {
+            this.sequence = sequence;
+            this.timeMillis = timeMillis;
+            this.name = name;
+            this.elapsed = elapsed;
+            this.threadId = threadId;
+            this.success = success;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * Get when the sample was recorded, in millis since epoch
+         *
+         * @return time stamp
+         */
+        public long getTimeMillis() {
+            return timeMillis;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getElapsed() {
+            return elapsed;
+        }
+
+        public long getThreadId() {
+            return threadId;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        public String toString() {
+            return "#" + sequence + " " + name + " " + elapsed + " ns, thread=" + threadId + ", at=" + timeMillis
+                    + (success ? "" : ", failed");
+        }
+    }
+
+    /**
+     * Constr, reads the file
+     *
+     * @param file written by a FlightRecorder
+     * @throws IOException if it is not a flight recorder file
+     */
+    public FlightRecorderReader(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            if (channel.size() < FlightRecorder.HEADER_SIZE + FlightRecorder.NAMES_SIZE) {
+                throw new IOException("not a flight recorder file, too short");
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            read(buffer, channel.size());
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void read(ByteBuffer buffer, long size) throws IOException {
+        if (buffer.getInt(0) != FlightRecorder.MAGIC) {
+            throw new IOException("not a flight recorder file");
+        }
+        if (buffer.getInt(4) != FlightRecorder.VERSION) {
+            throw new IOException("unsupported version: " + buffer.getInt(4));
+        }
+        int capacity = buffer.getInt(FlightRecorder.CAPACITY_OFFSET);
+        int recordSize = buffer.getInt(FlightRecorder.RECORD_SIZE_OFFSET);
+        int recordsOffset = FlightRecorder.HEADER_SIZE + FlightRecorder.NAMES_SIZE;
+        if (recordSize != FlightRecorder.RECORD_SIZE || Integer.bitCount(capacity) != 1
+                || recordsOffset + (long) capacity * recordSize > size) {
+            throw new IOException("corrupt flight recorder file, capacity=" + capacity + " , record size="
+                    + recordSize);
+        }
+        long baseMillis = buffer.getLong(FlightRecorder.BASE_MILLIS_OFFSET);
+        long baseNanos = buffer.getLong(FlightRecorder.BASE_NANOS_OFFSET);
+
+        int namesUsed = Math.min(buffer.getInt(FlightRecorder.NAMES_USED_OFFSET), FlightRecorder.NAMES_SIZE);
+        int offset = FlightRecorder.HEADER_SIZE;
+        while (offset + 6 <= FlightRecorder.HEADER_SIZE + namesUsed) {
+            int id = buffer.getInt(offset);
+            int length = buffer.getShort(offset + 4);
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = buffer.get(offset + 6 + i);
+            }
+            names.put(id, new String(bytes, StandardCharsets.UTF_8));
+            offset += 6 + length;
+        }
+
+        // the newest record tells which sequences are still in the file
+        long newest = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            newest = Math.max(newest, buffer.getLong(recordsOffset + slot * recordSize + FlightRecorder.SEQUENCE));
+        }
+        for (int slot = 0; slot < capacity; slot++) {
+            int r = recordsOffset + slot * recordSize;
+            long seq = buffer.getLong(r + FlightRecorder.SEQUENCE);
+            String name = names.get(buffer.getInt(r + FlightRecorder.PROBE));
+            if (seq <= 0 || seq <= newest - capacity || ((seq - 1) & (capacity - 1)) != slot || name == null) {
+                // empty, torn or overwritten
+                continue;
+            }
+            long timeMillis = baseMillis + (buffer.getLong(r + FlightRecorder.TIMESTAMP) - baseNanos) / 1000000;
+            records.add(new Record(seq, timeMillis, name, buffer.getLong(r + FlightRecorder.ELAPSED),
+                    buffer.getLong(r + FlightRecorder.THREAD),
+                    (buffer.getInt(r + FlightRecorder.FLAGS) & FlightRecorder.FLAG_FAILURE) == 0));
+        }
+        Collections.sort(records, new Comparator<Record>() {
+            public int compare(Record r1, Record r2) {
+                return Long.compare(r1.sequence, r2.sequence);
+            }
+        });
+    }
+
+    /**
+     * Get the records in the file, oldest first
+     *
+     * @return records
+     */
+    public List<Record> getRecords() {
+        return Collections.unmodifiableList(records);
+    }
+
+    /**
+     * Get the names of the probes that are recorded
+     *
+     * @return names
+     */
+    public Collection<String> getNames() {
+        return Collections.unmodifiableCollection(names.values());
+    }
+
+    /**
+     * Build a result for each probe from the records in the file. The results keep all their samples.
+     *
+     * @return results by probe name
+     */
+    public Map<String, Result> readResults() {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (Record r : records) {
+            Integer n = counts.get(r.name);
+            counts.put(r.name, n == null ? 1 : n + 1);
+        }
+        Map<String, Result> results = new LinkedHashMap<String, Result>();
+        for (Record r : records) {
+            Result result = results.get(r.name);
+            if (result == null) {
+                result = new Result(0, r.name, false, Histogram.DEFAULT_SIGNIFICANT_DIGITS,
+                        Math.max(Result.DEFAULT_MAXSAMPLES, counts.get(r.name)));
+                results.put(r.name, result);
+            }
+            if (r.success) {
+                result.addSample(r.elapsed);
+            } else {
+                result.addFailure(r.elapsed);
+            }
+        }
+
+        return results;
+    }
+}
@@ -0,0 +1,422 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Histogram is a fixed memory, log-linear bucketed histogram of time samples (the same layout as
+ * HdrHistogram). Values are grouped in buckets where each bucket covers twice the range of the previous,
+ * and every bucket is split in linear sub buckets. The number of sub buckets is given by the significant
+ * digits, so any recorded value can be read back with that precision. Recording is O(1) and does not
+ * allocate, the counts array is created on the first recording.
+ * <p/>
+ * Values above the highest trackable value are recorded as the highest trackable value.
+ */
+public class Histogram implements Serializable, Iterable<Histogram.Bucket> {
+    /**
+     * default number of significant digits
+     */
+    public static final int DEFAULT_SIGNIFICANT_DIGITS = 2;
+
+    /**
+     * default highest trackable value, one hour in nanos
+     */
+    public static final long DEFAULT_HIGHEST_TRACKABLE_VALUE = 3600L * 1000000000L;
+
+    private final long highestTrackableValue;
+
+    private final int significantDigits;
+
+    private final int subBucketHalfCountMagnitude;
+
+    private final int subBucketHalfCount;
+
+    private final long subBucketMask;
+
+    private final int leadingZeroCountBase;
+
+    private final int countsLength;
+
+    private volatile long[] counts;
+
+    /**
+     * Constr with the default highest trackable value and significant digits
+     */
+    public Histogram() {
+        this(DEFAULT_HIGHEST_TRACKABLE_VALUE, DEFAULT_SIGNIFICANT_DIGITS);
+    }
+
+    /**
+     * Constr
+     *
+     * @param highestTrackableValue, highest value to separate from larger values, at least 2
+     * @param significantDigits,     # of significant decimal digits kept for each value, 1-5
+     */
+    public Histogram(long highestTrackableValue, int significantDigits) {
+        if (significantDigits < 1 || significantDigits > 5) {
+            throw new IllegalArgumentException("significantDigits must be between 1 and 5: " + significantDigits);
+        }
+        if (highestTrackableValue < 2) {
+            throw new IllegalArgumentException("highestTrackableValue must be at least 2: " + highestTrackableValue);
+        }
+        this.highestTrackableValue = highestTrackableValue;
+        this.significantDigits = significantDigits;
+
+        long largestValueWithSingleUnitResolution = 2 * (long) Math.pow(10, significantDigits);
+        int subBucketCountMagnitude = (int) Math.ceil(Math.log(largestValueWithSingleUnitResolution) / Math.log(2));
+        subBucketHalfCountMagnitude = subBucketCountMagnitude - 1;
+        int subBucketCount = 1 << subBucketCountMagnitude;
+        subBucketHalfCount = subBucketCount / 2;
+        subBucketMask = subBucketCount - 1;
+        leadingZeroCountBase = 64 - subBucketHalfCountMagnitude - 1;
+
+        // buckets needed to cover the highest trackable value
+        long smallestUntrackableValue = subBucketCount;
+        int bucketCount = 1;
+        while (smallestUntrackableValue <= highestTrackableValue) {
+            if (smallestUntrackableValue > Long.MAX_VALUE / 2) {
+                bucketCount++;
+                break;
+            }
+            smallestUntrackableValue <<= 1;
+            bucketCount++;
+        }
+        countsLength = (bucketCount + 1) * subBucketHalfCount;
+    }
+
+    /**
+     * Record a value
+     *
+     * @param value to record, negative values are recorded as 0
+     */
+    public void recordValue(long value) {
+        increment(countsIndexFor(value));
+    }
+
+    /**
+     * Get the number of recorded values
+     *
+     * @return count
+     */
+    public long getTotalCount() {
+        long total = 0;
+        for (int i = 0; i < countsLength; i++) {
+            total += getCountAtIndex(i);
+        }
+
+        return total;
+    }
+
+    /**
+     * Get the value that the given percentage of the recorded values are less than or equivalent to.
+     *
+     * @param percentile 0.0 - 100.0
+     * @return value at the percentile, 0 if nothing is recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        double requested = Math.min(Math.max(percentile, 0.0), 100.0);
+        long total = getTotalCount();
+        if (total == 0) {
+            return 0;
+        }
+        long countAtPercentile = Math.max(1, (long) ((requested / 100.0) * total + 0.5));
+
+        long totalToCurrent = 0;
+        for (int i = 0; i < countsLength; i++) {
+            totalToCurrent += getCountAtIndex(i);
+            if (totalToCurrent >= countAtPercentile) {
+                return highestEquivalentValue(valueFromIndex(i));
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Get the values at many percentiles in one pass over the counts
+     *
+     * @param percentiles 0.0 - 100.0, in increasing order
+     * @param values      gets the value at each percentile, 0 if nothing is recorded
+     */
+    void getValuesAtPercentiles(double[] percentiles, long[] values) {
+        long total = getTotalCount();
+        int p = 0;
+        long totalToCurrent = 0;
+        for (int i = 0; i < countsLength && p < percentiles.length && total > 0; i++) {
+            totalToCurrent += getCountAtIndex(i);
+            while (p < percentiles.length) {
+                double requested = Math.min(Math.max(percentiles[p], 0.0), 100.0);
+                long countAtPercentile = Math.max(1, (long) ((requested / 100.0) * total + 0.5));
+                if (totalToCurrent < countAtPercentile) {
+                    break;
+                }
+                values[p++] = highestEquivalentValue(valueFromIndex(i));
+            }
+        }
+        while (p < percentiles.length) {
+            values[p++] = 0;
+        }
+    }
+
+    /**
+     * Get the # of recorded values at or below each bound in one pass over the counts, to the precision of the
+     * histogram: a range of equivalent values is counted if its lowest value is at or below the bound.
+     *
+     * @param bounds in increasing order
+     * @param counts gets the cumulative count at each bound
+     * @return # of recorded values in the same pass, never less than the count at a bound
+     */
+    long getCumulativeCounts(long[] bounds, long[] counts) {
+        int b = 0;
+        long cumulative = 0;
+        for (int i = 0; i < countsLength; i++) {
+            if (b < bounds.length) {
+                long low = valueFromIndex(i);
+                while (b < bounds.length && low > bounds[b]) {
+                    counts[b++] = cumulative;
+                }
+            }
+            cumulative += getCountAtIndex(i);
+        }
+        while (b < bounds.length) {
+            counts[b++] = cumulative;
+        }
+
+        return cumulative;
+    }
+
+    /**
+     * Get the highest recorded value, to the precision of the histogram
+     *
+     * @return max, 0 if nothing is recorded
+     */
+    public long getMaxValue() {
+        for (int i = countsLength - 1; i >= 0; i--) {
+            if (getCountAtIndex(i) > 0) {
+                return highestEquivalentValue(valueFromIndex(i));
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Add all values recorded in another histogram with the same layout, the other histogram is not changed.
+     *
+     * @param other histogram with the same highest trackable value and significant digits
+     */
+    public void add(Histogram other) {
+        if (other.countsLength != countsLength || other.subBucketHalfCount != subBucketHalfCount) {
+            throw new IllegalArgumentException("can not add a histogram with another layout");
+        }
+        for (int i = 0; i < countsLength; i++) {
+            long count = other.getCountAtIndex(i);
+            if (count > 0) {
+                add(i, count);
+            }
+        }
+    }
+
+    /**
+     * Remove all recorded values
+     */
+    public void reset() {
+        long[] c = counts;
+        if (c != null) {
+            Arrays.fill(c, 0);
+        }
+    }
+
+    public int getSignificantDigits() {
+        return significantDigits;
+    }
+
+    public long getHighestTrackableValue() {
+        return highestTrackableValue;
+    }
+
+    /**
+     * Iterate over the buckets holding recorded values, in increasing value order.
+     *
+     * @return iterator of non empty buckets
+     */
+    public Iterator<Bucket> iterator() {
+        return new Iterator<Bucket>() {
+            private int next = nextNonEmpty(0);
+
+            public boolean hasNext() {
+                return next < countsLength;
+            }
+
+            public Bucket next() {
+                if (next >= countsLength) {
+                    throw new NoSuchElementException();
+                }
+                long low = valueFromIndex(next);
+                Bucket bucket = new Bucket(low, highestEquivalentValue(low), getCountAtIndex(next));
+                next = nextNonEmpty(next + 1);
+
+                return bucket;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private int nextNonEmpty(int from) {
+        int i = from;
+        while (i < countsLength && getCountAtIndex(i) == 0) {
+            i++;
+        }
+
+        return i;
+    }
+
+    /**
+     * Add one to the count at index
+     *
+     * @param index
+     */
+    void increment(int index) {
+        counts()[index]++;
+    }
+
+    /**
+     * Add to the count at index
+     *
+     * @param index
+     * @param count to add
+     */
+    void add(int index, long count) {
+        counts()[index] += count;
+    }
+
+    /**
+     * Get the count at index
+     *
+     * @param index
+     * @return count
+     */
+    long getCountAtIndex(int index) {
+        long[] c = counts;
+
+        return c == null ? 0 : c[index];
+    }
+
+    /**
+     * Get the counts array, it is created on first use
+     *
+     * @return counts
+     */
+    private long[] counts() {
+        long[] c = counts;
+        if (c == null) {
+            c = new long[countsLength];
+            counts = c;
+        }
+
+        return c;
+    }
+
+    int getCountsLength() {
+        return countsLength;
+    }
+
+    final int countsIndexFor(long value) {
+        long v = value < 0 ? 0 : (value > highestTrackableValue ? highestTrackableValue : value);
+        int bucketIndex = leadingZeroCountBase - Long.numberOfLeadingZeros(v | subBucketMask);
+        int subBucketIndex = (int) (v >>> bucketIndex);
+
+        return ((bucketIndex + 1) << subBucketHalfCountMagnitude) + (subBucketIndex - subBucketHalfCount);
+    }
+
+    final long valueFromIndex(int index) {
+        int bucketIndex = (index >> subBucketHalfCountMagnitude) - 1;
+        int subBucketIndex = (index & (subBucketHalfCount - 1)) + subBucketHalfCount;
+        if (bucketIndex < 0) {
+            subBucketIndex -= subBucketHalfCount;
+            bucketIndex = 0;
+        }
+
+        return ((long) subBucketIndex) << bucketIndex;
+    }
+
+    final long highestEquivalentValue(long value) {
+        int bucketIndex = leadingZeroCountBase - Long.numberOfLeadingZeros(value | subBucketMask);
+        long lowest = (value >>> bucketIndex) << bucketIndex;
+
+        return lowest + (1L << bucketIndex) - 1;
+    }
+
+    /**
+     * A range of equivalent values and the number of values recorded in it.
+     */
+    public static final class Bucket {
+        private final long lowValue;
+        private final long highValue;
+        private final long count;
+
+        Bucket(long lowValue, long highValue, long count) {
+            this.lowValue = lowValue;
+            this.highValue = highValue;
+            this.count = count;
+        }
+
+        /**
+         * Get the lowest value in the bucket
+         *
+         * @return low value
+         */
+        public long getLowValue() {
+            return lowValue;
+        }
+
+        /**
+         * Get the highest value in the bucket
+         *
+         * @return high value
+         */
+        public long getHighValue() {
+            return highValue;
+        }
+
+        /**
+         * Get the # of values recorded in the bucket
+         *
+         * @return count
+         */
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + lowValue + ".." + highValue + "]=" + count;
+        }
+    }
+}
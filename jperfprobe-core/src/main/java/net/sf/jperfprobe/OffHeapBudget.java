@@ -0,0 +1,88 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import java.io.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * OffHeapBudget bounds the direct memory reserved by the off-heap sample stores of a ProbeManager.
+ */
+final class OffHeapBudget implements Serializable {
+
+    /**
+     * default budget, 64 MB
+     */
+    static final long DEFAULT_LIMIT = 64L * 1024 * 1024;
+
+    private volatile long limit;
+
+    private final AtomicLong reserved = new AtomicLong();
+
+    OffHeapBudget(long limit) {
+        setLimit(limit);
+    }
+
+    /**
+     * Reserve bytes, fails if the budget would be exceeded
+     *
+     * @param bytes
+     * @return true if reserved
+     */
+    boolean reserve(long bytes) {
+        for (; ;) {
+            long current = reserved.get();
+            if (current + bytes > limit) {
+                return false;
+            }
+            if (reserved.compareAndSet(current, current + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    void release(long bytes) {
+        reserved.addAndGet(-bytes);
+    }
+
+    /**
+     * Set the budget, already reserved bytes are kept even if they exceed the new limit.
+     *
+     * @param limit bytes
+     */
+    void setLimit(long limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("off-heap budget can not be negative: " + limit);
+        }
+        this.limit = limit;
+    }
+
+    long getLimit() {
+        return limit;
+    }
+
+    long getReserved() {
+        return reserved.get();
+    }
+}
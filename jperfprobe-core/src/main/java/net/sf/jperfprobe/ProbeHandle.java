@@ -0,0 +1,296 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import java.util.concurrent.*;
+
+/**
+ * A ProbeHandle is a probe name resolved to its result once. Starting and stopping through the handle does no
+ * name lookup, it only finds the calling threads probe and reads the time. Get the handle once and keep it:
+ * <pre>
+ * private static final ProbeHandle QUERY = StaticProbeManager.handle("db.query");
+ * ...
+ * QUERY.start();
+ * runQuery();
+ * QUERY.stop();
+ * </pre>
+ * A region can also be timed with a scope, the probe is then stopped even when an exception is thrown. A scope
+ * is a success unless it is marked as failed, a failed scope is added to the failures of the result:
+ * <pre>
+ * try (ProbeHandle.Scope s = QUERY.time()) {
+ *     try {
+ *         runQuery();
+ *     } catch (SQLException e) {
+ *         s.failed();
+ *         throw e;
+ *     }
+ * }
+ * </pre>
+ * or with run and call, that mark the region as failed when it throws:
+ * <pre>
+ * List&lt;Row&gt; rows = QUERY.call(() -&gt; runQuery());
+ * </pre>
+ */
+public final class ProbeHandle {
+
+    private final ProbeManagerImpl manager;
+
+    private final String name;
+
+    // the result samples are added to, the manager binds a new one when results are cleared
+    private volatile Result result;
+
+    // a scope for each thread, reused for every timed region
+    private final ThreadLocal<Scope> scopes = new ThreadLocal<Scope>();
+
+    // true if the results of the handle are created concurrent
+    private final boolean concurrent;
+
+    ProbeHandle(ProbeManagerImpl manager, Result result, boolean concurrent) {
+        this.manager = manager;
+        this.name = result.getName();
+        this.result = result;
+        this.concurrent = concurrent;
+    }
+
+    /**
+     * Start the calling threads probe.
+     */
+    public void start() {
+        manager.start(result);
+    }
+
+    /**
+     * Stop the calling threads probe and add the elapsed time to the result.
+     */
+    public void stop() {
+        manager.stop(result);
+    }
+
+    /**
+     * Begin timing a call, the start time is kept by the caller and passed to end. Nothing is kept for the
+     * thread, so this suits virtual threads. The result must be concurrent, get the handle with
+     * handle(name, true):
+     * <pre>
+     * long begin = handle.begin();
+     * try {
+     *     runQuery();
+     * } finally {
+     *     handle.end(begin);
+     * }
+     * </pre>
+     *
+     * @return start time, ProbeManagerImpl.NOT_TIMED if the call is not timed
+     */
+    public long begin() {
+        return manager.begin(result);
+    }
+
+    /**
+     * End timing a call, and add the elapsed time as a sample
+     *
+     * @param begin start time from begin
+     */
+    public void end(long begin) {
+        manager.end(result, begin, true);
+    }
+
+    /**
+     * End timing a call, and add the elapsed time as a sample or as a failure
+     *
+     * @param begin   start time from begin
+     * @param success false to add the elapsed time to the failures
+     */
+    public void end(long begin, boolean success) {
+        manager.end(result, begin, success);
+    }
+
+    /**
+     * Start a span, the token can be stopped from any thread with stopSpan
+     *
+     * @return token of the span, 0 if the call is not timed or too many spans are running
+     */
+    public long startSpan() {
+        return manager.startSpan(result);
+    }
+
+    /**
+     * Stop a span from any thread, and add its elapsed time to the result it was started for
+     *
+     * @param token from startSpan
+     * @return false if the token is not a running span
+     */
+    public boolean stopSpan(long token) {
+        return manager.stopSpan(token, true);
+    }
+
+    /**
+     * Start timing a region in the calling thread. The returned scope must be closed, preferably by
+     * try-with-resources. The scope object is reused by the thread, do not keep it after it is closed.
+     * <p/>
+     * The region is a success unless scope.failed() is called before the scope is closed, also when it returns
+     * early. An exception thrown out of the region is only a failure if it is caught and marked, or use run and
+     * call.
+     *
+     * @return open scope
+     */
+    public Scope time() {
+        Scope scope = scopes.get();
+        if (scope == null) {
+            scope = new Scope();
+            scopes.set(scope);
+        } else if (scope.open) {
+            // nested timing of the same probe in the same thread, the inner scope can not reuse the outer
+            scope = new Scope();
+        }
+        scope.open(result);
+
+        return scope;
+    }
+
+    /**
+     * Time a region with a scope, the region is a failure if it throws
+     *
+     * @param region to time
+     */
+    public void run(Runnable region) {
+        try (Scope scope = time()) {
+            try {
+                region.run();
+            } catch (Throwable t) {
+                scope.failed();
+                throw t;
+            }
+        }
+    }
+
+    /**
+     * Time a region that returns a value with a scope, the region is a failure if it throws
+     *
+     * @param region to time
+     * @return the value of the region
+     * @throws Exception thrown by the region
+     */
+    public <T> T call(Callable<T> region) throws Exception {
+        try (Scope scope = time()) {
+            try {
+                return region.call();
+            } catch (Throwable t) {
+                scope.failed();
+                throw t;
+            }
+        }
+    }
+
+    /**
+     * Get the name of the probe
+     *
+     * @return name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the result the handle adds samples to
+     *
+     * @return result
+     */
+    public Result getResult() {
+        return result;
+    }
+
+    boolean isConcurrent() {
+        return concurrent;
+    }
+
+    void bind(Result result) {
+        this.result = result;
+    }
+
+    @Override
+    public String toString() {
+        return "probe handle=" + name;
+    }
+
+    /**
+     * A timed region, closing the scope stops the probe and adds the elapsed time to the result: to the failures if
+     * failed() was called, else to the samples.
+     */
+    public final class Scope implements AutoCloseable {
+        private Result scopeResult;
+        private Time time;
+        private long startTime;
+        private boolean open;
+        private boolean enabled;
+        private boolean failed;
+
+        private Scope() {
+        }
+
+        private void open(Result r) {
+            scopeResult = r;
+            // the scope keeps its own start time, a nested scope does not disturb the threads probe
+            Probe probe = manager.getProbeInstance(r);
+            enabled = probe.isEnabled() && !r.skip(probe);
+            failed = false;
+            open = true;
+            if (enabled) {
+                time = manager.getTime(r);
+                manager.enter(r);
+                startTime = time.getNanos();
+            }
+        }
+
+        /**
+         * Mark the region as failed, the elapsed time is then added to the failures when the scope is closed.
+         */
+        public void failed() {
+            failed = true;
+        }
+
+        /**
+         * Mark the region as successful again after failed(), a region is a success unless it is marked as failed.
+         */
+        public void success() {
+            failed = false;
+        }
+
+        /**
+         * Stop the probe and add the elapsed time to the samples, or to the failures when the scope is marked as
+         * failed. Closing a closed scope does nothing.
+         */
+        public void close() {
+            if (!open) {
+                return;
+            }
+            open = false;
+            if (enabled) {
+                long elapsed = time.getNanos() - startTime;
+                manager.exit(scopeResult, elapsed);
+                manager.add(scopeResult, elapsed, !failed);
+            }
+        }
+    }
+}
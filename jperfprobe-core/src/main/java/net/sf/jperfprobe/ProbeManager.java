@@ -1,5 +1,9 @@
 package net.sf.jperfprobe;
 
+import javax.management.*;
+import java.io.*;
+import java.nio.file.*;
+import java.time.*;
 import java.util.*;
 
 /**
@@ -64,6 +68,25 @@ public interface ProbeManager {
      */
     void stop(String probeName);
 
+    /**
+     * Get a handle for a probe. The name is looked up once, starting and stopping through the handle
+     * goes straight to the result. There is only one handle for each name.
+     *
+     * @param probeName name of existing or new probe
+     * @return handle
+     */
+    ProbeHandle handle(String probeName);
+
+    /**
+     * Get a handle for a probe, with a concurrent result if the probe is new. A handle used with begin and end
+     * needs a concurrent result.
+     *
+     * @param probeName  name of existing or new probe
+     * @param concurrent true to create the result of a new probe concurrent
+     * @return handle
+     */
+    ProbeHandle handle(String probeName, boolean concurrent);
+
     /**
      * Add a sample from a probe. The probe does not need to be managed by ProbeManager
      *
@@ -128,6 +151,336 @@ public interface ProbeManager {
      */
     void setFirstSamplesToSkip(int _firstSamplesToSkip);
 
+    /**
+     * Make new results concurrent, so samples can be added to the same result from many threads
+     * at the same time. Existing results are not changed.
+     *
+     * @param concurrent
+     */
+    void setConcurrentResults(boolean concurrent);
+
+    /**
+     * Are new results concurrent
+     *
+     * @return
+     */
+    boolean isConcurrentResults();
+
+    /**
+     * Set the number of significant digits in the histograms of new results, 0 turns the histogram off.
+     *
+     * @param digits 0-5
+     */
+    void setSignificantDigits(int digits);
+
+    /**
+     * Get the number of significant digits in the histograms of new results
+     *
+     * @return
+     */
+    int getSignificantDigits();
+
+    /**
+     * Set the # of most recent samples new results keep, 0 keeps statistics only.
+     *
+     * @param capacity # of samples
+     */
+    void setSampleCapacity(int capacity);
+
+    /**
+     * Get the # of most recent samples new results keep
+     *
+     * @return
+     */
+    int getSampleCapacity();
+
+    /**
+     * Set the # of most recent samples a named probe keeps, 0 keeps statistics only.
+     *
+     * @param probeName
+     * @param capacity  # of samples
+     */
+    void setSampleCapacity(String probeName, int capacity);
+
+    /**
+     * Set where new results keep their samples, on the heap or off-heap in direct memory.
+     *
+     * @param storage
+     */
+    void setSampleStorage(SampleStorage storage);
+
+    SampleStorage getSampleStorage();
+
+    /**
+     * Set the factory of the quantile sketches that estimate the percentiles of new results.
+     *
+     * @param factory, null to use the histogram
+     */
+    void setQuantileSketchFactory(QuantileSketch.Factory factory);
+
+    QuantileSketch.Factory getQuantileSketchFactory();
+
+    /**
+     * Time only some of the calls of a named probe, the calls that are not timed are only counted.
+     *
+     * @param probeName
+     * @param sampling,  null to time every call
+     */
+    void setSampling(String probeName, Sampling sampling);
+
+    Sampling getSampling(String probeName);
+
+    /**
+     * Take a snapshot of a named probe since its last snapshot or clear, and start a new interval without
+     * pausing the threads that record to it.
+     *
+     * @param probeName
+     * @return snapshot of the interval
+     */
+    ResultSnapshot snapshotAndReset(String probeName);
+
+    /**
+     * Take a snapshot of all probes since their last snapshot or clear, and start a new interval without
+     * pausing the threads that record to them.
+     *
+     * @return snapshots of the intervals
+     */
+    List<ResultSnapshot> snapshotAndReset();
+
+    /**
+     * Keep statistics of recent time buckets in new results, so the last minutes can be read with getWindow.
+     *
+     * @param bucketWidth, width of each bucket
+     * @param buckets,     # of buckets, 0 to keep no buckets
+     */
+    void setTimeWindows(Duration bucketWidth, int buckets);
+
+    Duration getWindowBucketWidth();
+
+    int getWindowBuckets();
+
+    /**
+     * Keep a reservoir of samples biased toward the recent ones in new results, besides the most recent samples.
+     *
+     * @param size,  # of samples in the reservoir, 0 to keep no reservoir
+     * @param alpha, decay factor per second
+     */
+    void setDecayingReservoir(int size, double alpha);
+
+    int getReservoirSize();
+
+    double getReservoirAlpha();
+
+    /**
+     * Hand the samples to a background aggregator thread instead of adding them from the recording thread.
+     *
+     * @param capacity, # of samples in the ring of each thread, 0 to stop asynchronous recording
+     * @param policy,   what to do with a sample when the ring is full
+     */
+    void setAsyncRecording(int capacity, BackpressurePolicy policy);
+
+    boolean isAsyncRecording();
+
+    /**
+     * Register the manager in the platform MBean server, with an attribute for each probe.
+     *
+     * @param name, null for a name made from the identity of the manager
+     * @return the name it is registered with
+     * @throws JMException
+     */
+    ObjectName registerMBean(ObjectName name) throws JMException;
+
+    /**
+     * Unregister the manager from the platform MBean server, if it is registered
+     *
+     * @throws JMException
+     */
+    void unregisterMBean() throws JMException;
+
+    /**
+     * Begin timing a call of a named probe, the start time is kept by the caller and passed to end. No state is
+     * kept for the thread, for use from virtual threads.
+     *
+     * @param probeName
+     * @return start time, ProbeManagerImpl.NOT_TIMED if the call is not timed
+     */
+    long begin(String probeName);
+
+    /**
+     * End timing a call of a named probe, and add the elapsed time as a sample
+     *
+     * @param probeName
+     * @param begin     start time from begin
+     */
+    void end(String probeName, long begin);
+
+    /**
+     * End timing a call of a named probe, and add the elapsed time as a sample or as a failure
+     *
+     * @param probeName
+     * @param begin     start time from begin
+     * @param success   false to add the elapsed time to the failures
+     */
+    void end(String probeName, long begin, boolean success);
+
+    /**
+     * Start a span of a named probe, the token can be stopped from any thread with stopSpan.
+     *
+     * @param probeName
+     * @return token of the span, 0 if the call is not timed or too many spans are running
+     */
+    long startSpan(String probeName);
+
+    /**
+     * Stop a span from any thread, and add its elapsed time as a sample
+     *
+     * @param token from startSpan
+     * @return false if the token is not a running span
+     */
+    boolean stopSpan(long token);
+
+    /**
+     * Stop a span from any thread, and add its elapsed time as a sample or as a failure
+     *
+     * @param token   from startSpan
+     * @param success false to add the elapsed time to the failures
+     * @return false if the token is not a running span
+     */
+    boolean stopSpan(long token, boolean success);
+
+    /**
+     * Set the # of spans that can run at the same time, and how long a span can run before it is taken as leaked.
+     *
+     * @param capacity, # of spans
+     * @param timeout,  null or zero to never take a span as leaked
+     */
+    void setSpans(int capacity, Duration timeout);
+
+    /**
+     * Free the spans that have run longer than the span timeout
+     *
+     * @return # of leaked spans found
+     */
+    int sweepSpans();
+
+    /**
+     * Get the # of spans that were never stopped
+     *
+     * @return # of spans
+     */
+    long getLeakedSpans();
+
+    /**
+     * Get the # of spans that were not started because too many spans were running
+     *
+     * @return # of spans
+     */
+    long getSpanOverflows();
+
+    int getRunningSpans();
+
+    /**
+     * Keep a call tree for each thread, a probe started while another probe of the thread is running is a child
+     * of it.
+     *
+     * @param maxDepth, deepest level of the tree, 0 to keep no call trees
+     * @param maxNodes, most nodes in the tree of a thread
+     */
+    void setCallTree(int maxDepth, int maxNodes);
+
+    boolean isCallTree();
+
+    /**
+     * Get the call tree, merged from the trees of all threads
+     *
+     * @return root of the tree, null if there are no call trees
+     */
+    CallNode getCallTree();
+
+    /**
+     * Log every raw sample the manager times to a memory-mapped circular file, that survives a crash of the JVM.
+     *
+     * @param file,     created or overwritten, null to stop the flight recorder
+     * @param capacity, # of samples kept
+     * @throws IOException
+     */
+    void setFlightRecorder(Path file, int capacity) throws IOException;
+
+    FlightRecorder getFlightRecorder();
+
+    /**
+     * Add all samples that are handed to the aggregator so far to their results.
+     */
+    void flush();
+
+    /**
+     * Get the # of samples dropped by asynchronous recording because a ring was full
+     *
+     * @return # of dropped samples
+     */
+    long getDroppedSamples();
+
+    /**
+     * Measure the overhead of timing an empty region with start and stop. The calibration replaces the
+     * previous one.
+     *
+     * @return calibration
+     */
+    Calibration calibrate();
+
+    Calibration getCalibration();
+
+    /**
+     * Subtract the calibrated overhead from every sample added from now on.
+     *
+     * @param subtract
+     */
+    void setBiasSubtraction(boolean subtract);
+
+    boolean isBiasSubtraction();
+
+    /**
+     * Set how often the manager is calibrated again
+     *
+     * @param interval, null or zero to calibrate only on demand
+     */
+    void setCalibrationInterval(Duration interval);
+
+    Duration getCalibrationInterval();
+
+    /**
+     * Tell if the average of a named probe is too short to be measured reliably
+     *
+     * @param probeName
+     * @return true if the probe has samples and they are too short
+     */
+    boolean isTooShort(String probeName);
+
+    /**
+     * Get the statistics of a named probe within a duration back from now
+     *
+     * @param probeName
+     * @param duration  of the window
+     * @return statistics of the window
+     */
+    Window getWindow(String probeName, Duration duration);
+
+    /**
+     * Set the max # of bytes of direct memory the off-heap samples can reserve.
+     *
+     * @param bytes
+     */
+    void setOffHeapBudget(long bytes);
+
+    long getOffHeapBudget();
+
+    /**
+     * Get the # of bytes of direct memory reserved by off-heap samples
+     *
+     * @return bytes
+     */
+    long getOffHeapReserved();
+
     /**
      * Get the current presentation for the manager
      *
@@ -149,6 +502,22 @@ public interface ProbeManager {
      */
     Time getTime();
 
+    /**
+     * Set the Time implementation of a named probe, before the probe is used.
+     *
+     * @param probeName
+     * @param tim,      null to use the time of the manager
+     */
+    void setTime(String probeName, Time tim);
+
+    /**
+     * Get the Time implementation of a named probe
+     *
+     * @param probeName
+     * @return time of the probe, or of the manager if the probe has none of its own
+     */
+    Time getTime(String probeName);
+
     /**
      * Get result as a string
      *
@@ -157,6 +526,14 @@ public interface ProbeManager {
      */
     String toString(String probe);
 
+    /**
+     * Write the samples of all probes to a file in the compact format of SampleWriter
+     *
+     * @param file, created or truncated
+     * @throws IOException
+     */
+    void writeSamples(Path file) throws IOException;
+
     /**
      * Get all samples from a probe, as a string newline delimited
      *
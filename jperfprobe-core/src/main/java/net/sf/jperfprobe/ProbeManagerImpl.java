@@ -25,9 +25,14 @@ package net.sf.jperfprobe;
 
 import org.slf4j.*;
 
+import javax.management.*;
 import java.io.*;
+import java.lang.management.*;
+import java.nio.file.*;
+import java.time.*;
 import java.util.*;
-import java.util.concurrent.locks.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 /**
  * The ProbeManager is the probe factory. It makes it possible start start and stop a probe.
@@ -37,6 +42,8 @@ import java.util.concurrent.locks.*;
  * 2. Start probes multithreaded from same scope, via probe name<br>
  * 3. Start in one scope and stop in another scope singlethreaded via probe name<br>
  * 4. Start in one scope and stop in another scope multithreaded via probe instance<br>
+ * 5. Start a span in one thread and stop it in any thread via its token, see startSpan<br>
+ * 6. Begin and end in the same scope, keeping the start time on the stack of the caller, see begin<br>
  */
 
 public final class ProbeManagerImpl implements Serializable, ProbeManager {
@@ -81,16 +88,101 @@ public final class ProbeManagerImpl implements Serializable, ProbeManager {
         */
     }
 
+    /**
+     * A suggested interval for setCalibrationInterval, a new manager is only calibrated when it is created
+     */
+    public static final Duration DEFAULT_CALIBRATION_INTERVAL = Duration.ofMinutes(1);
+
+    // # of empty regions timed by a calibration, after as many to warm up
+    static final int CALIBRATION_ROUNDS = 5000;
+
+    private static final String CALIBRATION_PROBE = "jperfprobe.calibration";
+
     private Presentation presentation = Presentation.NANOS;
 
     private int firstSamplesToSkip;
 
-    // map containing all created results
-    private final Map<String, Result> resultMap = new HashMap<String, Result>();
+    // create results that can be recorded to from many threads at the same time
+    private volatile boolean concurrentResults;
+
+    // precision of the histograms in new results
+    private volatile int significantDigits = Histogram.DEFAULT_SIGNIFICANT_DIGITS;
+
+    // # of most recent samples kept by new results
+    private volatile int sampleCapacity = Result.DEFAULT_MAXSAMPLES;
+
+    // where new results keep their samples
+    private volatile SampleStorage sampleStorage = SampleStorage.HEAP;
+
+    // creates the quantile sketch of new results, null if the percentiles come from the histogram
+    private volatile QuantileSketch.Factory quantileSketchFactory;
+
+    // time buckets kept by new results, no buckets if windowBuckets is 0
+    private volatile Duration windowBucketWidth = Duration.ofMinutes(1);
+    private volatile int windowBuckets;
+
+    // decaying reservoir kept by new results, no reservoir if reservoirSize is 0
+    private volatile int reservoirSize;
+    private volatile double reservoirAlpha = DecayingReservoir.DEFAULT_ALPHA;
+
+    // hands the samples to a background aggregator, null if samples are added by the recording thread
+    private transient volatile AsyncRecorder asyncRecorder;
+
+    // name the manager is registered with in the platform MBean server, null if it is not registered
+    private transient ObjectName mbeanName;
+
+    /**
+     * Start time returned by begin for a call that is not timed, end ignores it
+     */
+    public static final long NOT_TIMED = Long.MIN_VALUE;
+
+    /**
+     * # of spans that can run at the same time, unless set with setSpans
+     */
+    public static final int DEFAULT_SPAN_CAPACITY = 4096;
+
+    /**
+     * A span running longer is taken as leaked, unless set with setSpans
+     */
+    public static final Duration DEFAULT_SPAN_TIMEOUT = Duration.ofMinutes(10);
+
+    // running spans, created by the first span
+    private transient volatile SpanTable spans;
+
+    private int spanCapacity = DEFAULT_SPAN_CAPACITY;
+
+    private Duration spanTimeout = DEFAULT_SPAN_TIMEOUT;
+
+    // call trees of the threads, null if probes are not put in a call tree
+    private transient volatile CallStack.Registry callTrees;
+
+    // log of every raw sample, null if not kept
+    private transient volatile FlightRecorder flightRecorder;
+
+    // samples dropped by asynchronous recording
+    private final AtomicLong droppedSamples = new AtomicLong();
 
-    private final ReentrantReadWriteLock rmapRwl = new ReentrantReadWriteLock();
-    private final Lock rLock = rmapRwl.readLock();
-    private final Lock wLock = rmapRwl.writeLock();
+    // overhead of an empty start and stop, from the latest calibration
+    private volatile Calibration calibration;
+
+    private volatile boolean biasSubtraction;
+
+    // subtracted from every sample, 0 without bias subtraction
+    private volatile long bias;
+
+    // repeats the calibration, null if it is only done on demand
+    private transient Future<?> calibrationTask;
+
+    private Duration calibrationInterval;
+
+    // bounds the direct memory of all off-heap samples of this manager
+    private final OffHeapBudget offHeapBudget = new OffHeapBudget(OffHeapBudget.DEFAULT_LIMIT);
+
+    // map containing all created results, lookup of an existing result takes no lock.
+    private final ConcurrentMap<String, Result> resultMap = new ConcurrentHashMap<String, Result>();
+
+    // handles given out, they are bound to a new result when the results are cleared
+    private final ConcurrentMap<String, ProbeHandle> handleMap = new ConcurrentHashMap<String, ProbeHandle>();
 
 
     private Time time = TimeFactory.getTime();
@@ -99,6 +191,7 @@ public final class ProbeManagerImpl implements Serializable, ProbeManager {
      * Constructor of probe
      */
     public ProbeManagerImpl() {
+        calibrate();
     }
 
 
@@ -113,6 +206,7 @@ public final class ProbeManagerImpl implements Serializable, ProbeManager {
         this.firstSamplesToSkip = firstSamplesToSkip;
         this.presentation = presentation;
         this.time = time;
+        calibrate();
     }
 
     /**
@@ -134,14 +228,39 @@ public final class ProbeManagerImpl implements Serializable, ProbeManager {
      * @return Result
      */
     public Result getResult(String probeName) {
-        Result result;
+        return getResult(probeName, false);
+    }
 
-        synchronized (resultMap) {
-            result = resultMap.get(probeName);
+    /**
+     * Get a result for a given probe
+     *
+     * @param probeName
+     * @param concurrent, true to create the result concurrent even if new results are not
+     * @return Result, an existing result is returned as it is
+     */
+    Result getResult(String probeName, boolean concurrent) {
+        Result result = resultMap.get(probeName);
 
+        if (result == null) {
+            // only one result is registered per name, the thread losing the race uses the winners result
+            Result newResult = new Result(firstSamplesToSkip, probeName, concurrent || concurrentResults,
+                    significantDigits, sampleCapacity, sampleStorage, offHeapBudget);
+            QuantileSketch.Factory factory = quantileSketchFactory;
+            if (factory != null) {
+                newResult.setQuantileSketch(factory.create());
+            }
+            int buckets = windowBuckets;
+            if (buckets > 0) {
+                newResult.setTimeWindows(new TimeWindows(time, windowBucketWidth.toNanos(), buckets,
+                        newResult.isConcurrent(), significantDigits));
+            }
+            int size = reservoirSize;
+            if (size > 0) {
+                newResult.setReservoir(new DecayingReservoir(size, reservoirAlpha, time));
+            }
+            result = resultMap.putIfAbsent(probeName, newResult);
             if (result == null) {
-                result = new Result(firstSamplesToSkip, probeName);
-                resultMap.put(probeName, result);
+                result = newResult;
             }
         }
 
@@ -149,7 +268,18 @@ public final class ProbeManagerImpl implements Serializable, ProbeManager {
     }
 
     /**
-     * Get all the results
+     * Get the result for a given probe, without creating it
+     *
+     * @param probeName
+     * @return result, null if there is no probe with the name
+     */
+    Result findResult(String probeName) {
+        return resultMap.get(probeName);
+    }
+
+    /**
+     * Get all the results. The collection is a live view, it is safe to iterate while other threads
+     * register new probes.
      *
      * @return
      */
@@ -165,16 +295,21 @@ public final class ProbeManagerImpl implements Serializable, ProbeManager {
      * @return probe, null if it cant look it up
      */
     public Probe getProbeInstance(String probeName) {
-        Result result = getResult(probeName);
-
-        Probe probe;
-        synchronized (result) {
-            probe = result.getProbe();
+        return getProbeInstance(getResult(probeName));
+    }
 
-            if (probe == null) {
-                probe = new DefaultProbe(probeName, time);
-                result.addprobe(probe);
-            }
+    /**
+     * Get the calling threads probe in a result, it is created if it is non existent.
+     *
+     * @param result
+     * @return probe
+     */
+    Probe getProbeInstance(Result result) {
+        // the probe belongs to the calling thread, no other thread can create it
+        Probe probe = result.getProbe();
+        if (probe == null) {
+            probe = new DefaultProbe(result.getName(), getTime(result));
+            result.addprobe(probe);
         }
 
         return probe;
@@ -186,8 +321,21 @@ public final class ProbeManagerImpl implements Serializable, ProbeManager {
      * @param probeName name of existing or new probe.
      */
     public Probe start(String probeName) {
-        Probe p = getProbeInstance(probeName);
-        p.start();
+        return start(getResult(probeName));
+    }
+
+    /**
+     * Start the calling threads probe in a result, unless the call is skipped by sampling
+     *
+     * @param result
+     * @return probe
+     */
+    Probe start(Result result) {
+        Probe p = getProbeInstance(result);
+        if (!result.skip(p)) {
+            p.start();
+            enter(result);
+        }
 
         return p;
     }
@@ -197,7 +345,7 @@ public final class ProbeManagerImpl implements Serializable, ProbeManager {
         Probe probe = result.getSingleProbe();
 
         if (probe == null) {
-            probe = new DefaultProbe(probeName, time);
+            probe = new DefaultProbe(probeName, getTime(result));
             result.setSingleProbe(probe);
         }
 
@@ -212,20 +360,329 @@ public final class ProbeManagerImpl implements Serializable, ProbeManager {
      * @param probeName name of probe to stop
      */
     public void stop(String probeName) {
-        Result result = getResult(probeName);
+        stop(getResult(probeName));
+    }
 
+    /**
+     * Stop the single probe or the calling threads probe in a result, and add the sample to the result.
+     *
+     * @param result
+     */
+    void stop(Result result) {
         Probe probe = result.getSingleProbe();
-        synchronized (result) {
-            if (probe == null) {
-                probe = result.getProbe();
-                if (probe == null) {
-                    return;
-                }
+        if (probe == null) {
+            // a thread private probe, nothing to lock until the sample is added
+            probe = result.getProbe();
+            if (probe != null && !(probe instanceof DefaultProbe && ((DefaultProbe) probe).isSkipping())) {
+                probe.stop();
+                exit(result, probe.getElapsed());
+                add(result, probe.getElapsed(), true);
             }
+            return;
+        }
+
+        synchronized (result) {
             probe.stop();
-            result.addSample(probe.getElapsed());
+            long elapsed = unbiased(probe.getElapsed());
+            FlightRecorder recorder = flightRecorder;
+            if (recorder != null) {
+                recorder.record(result, elapsed, true);
+            }
+            result.addSample(elapsed);
+        }
+    }
+
+    /**
+     * Begin timing a call of a named probe. The start time is returned to the caller, who keeps it on the stack
+     * and passes it to end. No probe is kept for the thread, no thread local is read and no lock is taken, so
+     * millions of short lived threads, e.g. virtual threads, can time the same probe without leaving anything
+     * behind. The result must be concurrent, so it is updated without a monitor that would pin a virtual thread.
+     * A new probe gets a concurrent result, a probe that exists with a result that is not concurrent is not
+     * timed. The samples are added by the calling thread, also with asynchronous recording, which keeps a ring
+     * for each thread. Calls timed this way are not put in the call trees.
+     *
+     * @param probeName
+     * @return start time, NOT_TIMED if the probe is disabled, the call is skipped by sampling or the result is
+     * not concurrent
+     */
+    public long begin(String probeName) {
+        return begin(getResult(probeName, true));
+    }
+
+    long begin(Result result) {
+        if (!result.isConcurrent()) {
+            if (!result.notConcurrentWarned) {
+                result.notConcurrentWarned = true;
+                log.warn("probe " + result.getName() + " is not concurrent, it is not timed by begin and end");
+            }
+            return NOT_TIMED;
+        }
+        if (!result.isEnabled() || result.skipCall()) {
+            return NOT_TIMED;
+        }
+
+        return getTime(result).getNanos();
+    }
+
+    /**
+     * End timing a call of a named probe, and add the elapsed time as a sample
+     *
+     * @param probeName
+     * @param begin     start time from begin
+     */
+    public void end(String probeName, long begin) {
+        end(getResult(probeName, true), begin, true);
+    }
+
+    /**
+     * End timing a call of a named probe, and add the elapsed time as a sample or as a failure
+     *
+     * @param probeName
+     * @param begin     start time from begin
+     * @param success   false to add the elapsed time to the failures
+     */
+    public void end(String probeName, long begin, boolean success) {
+        end(getResult(probeName, true), begin, success);
+    }
+
+    void end(Result result, long begin, boolean success) {
+        if (begin == NOT_TIMED || !result.isConcurrent()) {
+            return;
+        }
+        long elapsed = unbiased(getTime(result).getNanos() - begin);
+        FlightRecorder recorder = flightRecorder;
+        if (recorder != null) {
+            recorder.record(result, elapsed, success);
+        }
+        // not offered to the asynchronous recorder, that would give each thread a ring
+        addTo(result, elapsed, success);
+    }
+
+    /**
+     * Start a span of a named probe. The returned token can be handed to other threads, executors or
+     * CompletableFuture stages, and stopped from any thread with stopSpan. A span is a slot in a table that is
+     * allocated once, starting and stopping it creates no objects. A span that is never stopped is freed and
+     * counted in getLeakedSpans when it has run longer than the span timeout.
+     *
+     * @param probeName
+     * @return token of the span, 0 if the probe is disabled, the call is skipped by sampling or too many spans
+     * are running, stopping it does nothing
+     */
+    public long startSpan(String probeName) {
+        return startSpan(getResult(probeName));
+    }
+
+    long startSpan(Result result) {
+        if (!result.isEnabled() || result.skipCall()) {
+            return SpanTable.NO_TOKEN;
+        }
+        SpanTable table = spans;
+        if (table == null) {
+            table = createSpans();
         }
 
+        return table.start(result, getTime(result));
+    }
+
+    private synchronized SpanTable createSpans() {
+        if (spans == null) {
+            spans = new SpanTable(spanCapacity, spanTimeout.toNanos());
+        }
+
+        return spans;
+    }
+
+    /**
+     * Stop a span from any thread, and add its elapsed time as a sample
+     *
+     * @param token from startSpan
+     * @return false if the token is not a running span, e.g. it is stopped already
+     */
+    public boolean stopSpan(long token) {
+        return stopSpan(token, true);
+    }
+
+    /**
+     * Stop a span from any thread, and add its elapsed time as a sample or as a failure
+     *
+     * @param token   from startSpan
+     * @param success false to add the elapsed time to the failures
+     * @return false if the token is not a running span, e.g. it is stopped already
+     */
+    public boolean stopSpan(long token, boolean success) {
+        SpanTable table = spans;
+
+        return table != null && table.stop(token, this, success);
+    }
+
+    /**
+     * Set the # of spans that can run at the same time, and how long a span can run before it is taken as leaked.
+     * The spans running when this is called can not be stopped.
+     *
+     * @param capacity, # of spans, rounded up to a power of 2
+     * @param timeout,  null or zero to never take a span as leaked
+     */
+    public synchronized void setSpans(int capacity, Duration timeout) {
+        spanTimeout = timeout == null ? Duration.ZERO : timeout;
+        spanCapacity = capacity;
+        spans = new SpanTable(capacity, spanTimeout.toNanos());
+    }
+
+    /**
+     * Free the spans that have run longer than the span timeout, this is also done each time the spans have
+     * gone once round the table
+     *
+     * @return # of leaked spans found
+     */
+    public int sweepSpans() {
+        SpanTable table = spans;
+
+        return table == null ? 0 : table.sweep();
+    }
+
+    /**
+     * Get the # of spans that were never stopped, found by the sweeps
+     *
+     * @return # of spans
+     */
+    public long getLeakedSpans() {
+        SpanTable table = spans;
+
+        return table == null ? 0 : table.getLeaked();
+    }
+
+    /**
+     * Get the # of spans that were not started because too many spans were running
+     *
+     * @return # of spans
+     */
+    public long getSpanOverflows() {
+        SpanTable table = spans;
+
+        return table == null ? 0 : table.getOverflows();
+    }
+
+    /**
+     * Get the # of running spans
+     *
+     * @return # of spans
+     */
+    public int getRunningSpans() {
+        SpanTable table = spans;
+
+        return table == null ? 0 : table.getRunning();
+    }
+
+    /**
+     * Put a probe the calling thread starts in its call tree, if there are call trees
+     *
+     * @param result of the probe
+     */
+    void enter(Result result) {
+        CallStack.Registry trees = callTrees;
+        if (trees != null && !result.calibration) {
+            trees.get().enter(result.getName());
+        }
+    }
+
+    /**
+     * Add the time of a probe the calling thread stops to its call tree, if there are call trees
+     *
+     * @param result  of the probe
+     * @param elapsed time
+     */
+    void exit(Result result, long elapsed) {
+        CallStack.Registry trees = callTrees;
+        if (trees != null && !result.calibration) {
+            trees.get().exit(result.getName(), unbiased(elapsed));
+        }
+    }
+
+    /**
+     * Add an elapsed time measured by the calling thread to a result, as a sample or as a failure. With
+     * asynchronous recording the sample is handed to the aggregator.
+     *
+     * @param result  to add elapsed time to
+     * @param elapsed time
+     * @param success false if the elapsed time is from a failed call
+     */
+    void add(Result result, long elapsed, boolean success) {
+        elapsed = unbiased(elapsed);
+        FlightRecorder recorder = flightRecorder;
+        if (recorder != null) {
+            recorder.record(result, elapsed, success);
+        }
+        AsyncRecorder async = asyncRecorder;
+        if (async == null || result.calibration || !async.offer(result, elapsed, success)) {
+            record(result, elapsed, success);
+        }
+    }
+
+    /**
+     * Add an elapsed time to a result now, from any thread
+     *
+     * @param result  to add elapsed time to
+     * @param elapsed time
+     * @param success false if the elapsed time is from a failed call
+     */
+    void record(Result result, long elapsed, boolean success) {
+        if (result.isConcurrent()) {
+            addTo(result, elapsed, success);
+        } else {
+            synchronized (result) {
+                addTo(result, elapsed, success);
+            }
+        }
+    }
+
+    private long unbiased(long elapsed) {
+        long b = bias;
+        if (b != 0) {
+            elapsed = elapsed > b ? elapsed - b : 0;
+        }
+
+        return elapsed;
+    }
+
+    private static void addTo(Result result, long elapsed, boolean success) {
+        if (success) {
+            result.addSample(elapsed);
+        } else {
+            result.addFailure(elapsed);
+        }
+    }
+
+    /**
+     * Get a handle for a probe. The name is looked up once, starting and stopping through the handle
+     * goes straight to the result. There is only one handle for each name.
+     *
+     * @param probeName name of existing or new probe
+     * @return handle
+     */
+    public ProbeHandle handle(String probeName) {
+        return handle(probeName, false);
+    }
+
+    /**
+     * Get a handle for a probe, as handle(String), with a concurrent result if the probe is new. A handle used
+     * with begin and end needs a concurrent result.
+     *
+     * @param probeName  name of existing or new probe
+     * @param concurrent true to create the result of a new probe concurrent, and again when results are cleared
+     * @return handle
+     */
+    public ProbeHandle handle(String probeName, boolean concurrent) {
+        ProbeHandle handle = handleMap.get(probeName);
+
+        if (handle == null) {
+            ProbeHandle newHandle = new ProbeHandle(this, getResult(probeName, concurrent), concurrent);
+            handle = handleMap.putIfAbsent(probeName, newHandle);
+            if (handle == null) {
+                handle = newHandle;
+            }
+        }
+
+        return handle;
     }
 
     /**
@@ -234,8 +691,8 @@ public final class ProbeManagerImpl implements Serializable, ProbeManager {
      * @param p
      */
     public void addSampleFromProbe(Probe p) {
-        Result r = getResult(p.getName());
-        r.addSample(p.getElapsed());
+        // the sample can come from any thread, a single threaded result must be locked
+        add(getResult(p.getName()), p.getElapsed(), true);
     }
 
     /**
@@ -253,9 +710,62 @@ public final class ProbeManagerImpl implements Serializable, ProbeManager {
     public void clear() {
         for (Result r : resultMap.values()) {
             r.clear();
+            r.releaseSamples();
         }
         // should we really do this, the results could stay
         resultMap.clear();
+
+        CallStack.Registry trees = callTrees;
+        if (trees != null) {
+            callTrees = new CallStack.Registry(trees.getMaxDepth(), trees.getMaxNodes());
+        }
+
+        // handles live on, so they are bound to new results
+        for (ProbeHandle h : handleMap.values()) {
+            h.bind(getResult(h.getName(), h.isConcurrent()));
+        }
+    }
+
+    /**
+     * Time only some of the calls of a named probe, e.g. Sampling.everyNth(100). The calls that are not timed
+     * do not read the time, they are only counted. Can be changed while the probe is in use.
+     *
+     * @param probeName
+     * @param sampling,  null to time every call
+     */
+    public void setSampling(String probeName, Sampling sampling) {
+        getResult(probeName).setSampling(sampling);
+    }
+
+    public Sampling getSampling(String probeName) {
+        return getResult(probeName).getSampling();
+    }
+
+    /**
+     * Take a snapshot of a named probe since its last snapshot or clear, and start a new interval without
+     * pausing the threads that record to it.
+     *
+     * @param probeName
+     * @return snapshot of the interval
+     */
+    public ResultSnapshot snapshotAndReset(String probeName) {
+        return getResult(probeName).snapshotAndReset();
+    }
+
+    /**
+     * Take a snapshot of all probes since their last snapshot or clear, and start a new interval without
+     * pausing the threads that record to them. Each probe is swapped on its own, the intervals of different
+     * probes are not cut at the exact same instant.
+     *
+     * @return snapshots of the intervals
+     */
+    public List<ResultSnapshot> snapshotAndReset() {
+        List<ResultSnapshot> snapshots = new ArrayList<ResultSnapshot>();
+        for (Result r : resultMap.values()) {
+            snapshots.add(r.snapshotAndReset());
+        }
+
+        return snapshots;
     }
 
     /**
@@ -302,6 +812,408 @@ public final class ProbeManagerImpl implements Serializable, ProbeManager {
         return firstSamplesToSkip;
     }
 
+    /**
+     * Make new results concurrent. A concurrent result can take samples from many threads at the same
+     * time, without locking and without the threads sharing a cache line. Existing results are not changed.
+     *
+     * @param concurrent
+     */
+    public void setConcurrentResults(boolean concurrent) {
+        concurrentResults = concurrent;
+    }
+
+    public boolean isConcurrentResults() {
+        return concurrentResults;
+    }
+
+    /**
+     * Set the number of significant digits in the histograms of new results, 0 turns the histogram off.
+     * Existing results are not changed.
+     *
+     * @param digits 0-5
+     */
+    public void setSignificantDigits(int digits) {
+        if (digits < 0 || digits > 5) {
+            throw new IllegalArgumentException("significant digits must be between 0 and 5: " + digits);
+        }
+        significantDigits = digits;
+    }
+
+    public int getSignificantDigits() {
+        return significantDigits;
+    }
+
+    /**
+     * Set the # of most recent samples new results keep, 0 keeps statistics only. Existing results are not
+     * changed.
+     *
+     * @param capacity # of samples
+     */
+    public void setSampleCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("sample capacity can not be negative: " + capacity);
+        }
+        sampleCapacity = capacity;
+    }
+
+    public int getSampleCapacity() {
+        return sampleCapacity;
+    }
+
+    /**
+     * Set the # of most recent samples a named probe keeps, 0 keeps statistics only. The samples kept so far
+     * are dropped.
+     *
+     * @param probeName
+     * @param capacity  # of samples
+     */
+    public void setSampleCapacity(String probeName, int capacity) {
+        getResult(probeName).setSampleCapacity(capacity);
+    }
+
+    /**
+     * Set where new results keep their samples, on the heap or off-heap in direct memory. Existing results are
+     * not changed.
+     *
+     * @param storage
+     */
+    public void setSampleStorage(SampleStorage storage) {
+        if (storage == null) {
+            throw new IllegalArgumentException("sample storage can not be null");
+        }
+        sampleStorage = storage;
+    }
+
+    public SampleStorage getSampleStorage() {
+        return sampleStorage;
+    }
+
+    /**
+     * Set the factory of the quantile sketches that estimate the percentiles of new results, e.g.
+     * TDigest.factory(100). Existing results are not changed.
+     *
+     * @param factory, null to use the histogram
+     */
+    public void setQuantileSketchFactory(QuantileSketch.Factory factory) {
+        quantileSketchFactory = factory;
+    }
+
+    public QuantileSketch.Factory getQuantileSketchFactory() {
+        return quantileSketchFactory;
+    }
+
+    /**
+     * Keep statistics of recent time buckets in new results, so the last minutes can be read with getWindow.
+     * E.g. 15 buckets of 1 minute gives windows up to 15 minutes. Each sample then costs a read of the time.
+     * Existing results are not changed.
+     *
+     * @param bucketWidth, width of each bucket
+     * @param buckets,     # of buckets, 0 to keep no buckets
+     */
+    public void setTimeWindows(Duration bucketWidth, int buckets) {
+        if (buckets < 0) {
+            throw new IllegalArgumentException("# of buckets can not be negative: " + buckets);
+        }
+        if (bucketWidth.isNegative() || bucketWidth.isZero()) {
+            throw new IllegalArgumentException("bucket width must be positive: " + bucketWidth);
+        }
+        windowBucketWidth = bucketWidth;
+        windowBuckets = buckets;
+    }
+
+    public Duration getWindowBucketWidth() {
+        return windowBucketWidth;
+    }
+
+    public int getWindowBuckets() {
+        return windowBuckets;
+    }
+
+    /**
+     * Keep a reservoir of samples biased toward the recent ones in new results, besides the most recent samples.
+     * E.g. DecayingReservoir.DEFAULT_SIZE and DEFAULT_ALPHA. Existing results are not changed.
+     *
+     * @param size,  # of samples in the reservoir, 0 to keep no reservoir
+     * @param alpha, decay factor per second
+     */
+    public void setDecayingReservoir(int size, double alpha) {
+        if (size < 0) {
+            throw new IllegalArgumentException("reservoir size can not be negative: " + size);
+        }
+        if (alpha < 0) {
+            throw new IllegalArgumentException("alpha can not be negative: " + alpha);
+        }
+        reservoirAlpha = alpha;
+        reservoirSize = size;
+    }
+
+    public int getReservoirSize() {
+        return reservoirSize;
+    }
+
+    public double getReservoirAlpha() {
+        return reservoirAlpha;
+    }
+
+    /**
+     * Hand the samples of stop, handles and scopes to a background aggregator thread instead of adding them from
+     * the recording thread. Each recording thread gets a ring buffer of the given capacity, the policy tells
+     * what to do when it is full. Call flush to have all samples added, e.g. before reading results in a test.
+     *
+     * @param capacity, # of samples in the ring of each thread, 0 to stop asynchronous recording
+     * @param policy,   what to do with a sample when the ring is full
+     */
+    public synchronized void setAsyncRecording(int capacity, BackpressurePolicy policy) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity can not be negative: " + capacity);
+        }
+        AsyncRecorder old = asyncRecorder;
+        asyncRecorder = capacity == 0 ? null : new AsyncRecorder(this, capacity, policy, droppedSamples);
+        if (old != null) {
+            old.shutdown();
+        }
+    }
+
+    public boolean isAsyncRecording() {
+        return asyncRecorder != null;
+    }
+
+    /**
+     * Register the manager in the platform MBean server, as a ProbeManagerMBean with an attribute for each probe.
+     * The attributes are snapshots taken when they are read, a registered manager costs nothing until then.
+     *
+     * @param name, null for net.sf.jperfprobe:type=ProbeManager,name= and the identity hash of the manager
+     * @return the name it is registered with
+     * @throws JMException
+     */
+    public synchronized ObjectName registerMBean(ObjectName name) throws JMException {
+        if (name == null) {
+            name = new ObjectName("net.sf.jperfprobe:type=ProbeManager,name="
+                    + Integer.toHexString(System.identityHashCode(this)));
+        }
+        unregisterMBean();
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new ProbeManagerMBean(this), name);
+        mbeanName = name;
+
+        return name;
+    }
+
+    /**
+     * Unregister the manager from the platform MBean server, if it is registered
+     *
+     * @throws JMException
+     */
+    public synchronized void unregisterMBean() throws JMException {
+        if (mbeanName != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+            mbeanName = null;
+        }
+    }
+
+    /**
+     * Keep a call tree for each thread: a probe started while another probe of the thread is running is a child
+     * of it, and the time of each call path is kept with the time spent in its children and outside them. The
+     * flat results are kept as before. Probes started by name, handles and scopes are put in the tree, single
+     * probes are not. Setting the call tree starts a new tree.
+     *
+     * @param maxDepth, deepest level of the tree, 0 to keep no call trees
+     * @param maxNodes, most nodes in the tree of a thread
+     */
+    public void setCallTree(int maxDepth, int maxNodes) {
+        callTrees = maxDepth == 0 ? null : new CallStack.Registry(maxDepth, maxNodes);
+    }
+
+    public boolean isCallTree() {
+        return callTrees != null;
+    }
+
+    /**
+     * Get the call tree, merged from the trees of all threads
+     *
+     * @return root of the tree, its children are the probes started outside other probes, null if there are no
+     *         call trees
+     */
+    public CallNode getCallTree() {
+        CallStack.Registry trees = callTrees;
+
+        return trees == null ? null : trees.merge();
+    }
+
+    /**
+     * Log every raw sample the manager times to a memory-mapped circular file, that keeps the last capacity
+     * samples and survives a crash of the JVM. Read it with FlightRecorderReader.
+     *
+     * @param file,     created or overwritten, null to stop the flight recorder
+     * @param capacity, # of samples kept
+     * @throws IOException
+     */
+    public synchronized void setFlightRecorder(Path file, int capacity) throws IOException {
+        FlightRecorder old = flightRecorder;
+        flightRecorder = file == null ? null : new FlightRecorder(file, capacity);
+        if (old != null) {
+            old.close();
+        }
+    }
+
+    /**
+     * Get the flight recorder
+     *
+     * @return flight recorder, null if there is none
+     */
+    public FlightRecorder getFlightRecorder() {
+        return flightRecorder;
+    }
+
+    /**
+     * Add all samples that are handed to the aggregator so far to their results. Does nothing without
+     * asynchronous recording.
+     */
+    public void flush() {
+        AsyncRecorder async = asyncRecorder;
+        if (async != null) {
+            async.flush();
+        }
+    }
+
+    /**
+     * Get the # of samples dropped by asynchronous recording because a ring was full
+     *
+     * @return # of dropped samples
+     */
+    public long getDroppedSamples() {
+        return droppedSamples.get();
+    }
+
+    /**
+     * Measure the overhead of timing an empty region with start and stop by name, with the time implementation
+     * of the manager and in the calling thread. The region is timed by the same start and stop as any probe, but
+     * the calibration samples are kept out of the call trees, the flight recording and the asynchronous recording,
+     * so a calibration does not take the room of real samples. The calibration replaces the previous one, and the
+     * bias that is subtracted if bias subtraction is on. Handles and scopes skip the name lookup, their overhead is
+     * a little lower.
+     *
+     * @return calibration
+     */
+    public Calibration calibrate() {
+        // a result of its own, it is not among the results of the manager
+        ConcurrentMap<String, Result> map = new ConcurrentHashMap<String, Result>();
+        Result calibrationResult = new Result(0, CALIBRATION_PROBE);
+        calibrationResult.calibration = true;
+        map.put(CALIBRATION_PROBE, calibrationResult);
+        long[] elapsed = new long[CALIBRATION_ROUNDS];
+
+        // the lookup by name and the real start and stop, the first half warms up
+        for (int i = -CALIBRATION_ROUNDS; i < CALIBRATION_ROUNDS; i++) {
+            Probe probe = start(map.get(CALIBRATION_PROBE));
+            stop(map.get(CALIBRATION_PROBE));
+            if (i >= 0) {
+                elapsed[i] = probe.getElapsed();
+            }
+        }
+
+        Calibration c = new Calibration(elapsed);
+        install(c, biasSubtraction);
+
+        return c;
+    }
+
+    private synchronized void install(Calibration c, boolean subtract) {
+        calibration = c;
+        biasSubtraction = subtract;
+        bias = subtract ? Math.round(c.getOverhead()) : 0;
+    }
+
+    /**
+     * Get the latest calibration
+     *
+     * @return calibration
+     */
+    public Calibration getCalibration() {
+        return calibration;
+    }
+
+    /**
+     * Subtract the calibrated overhead from every sample added from now on. A sample shorter than the overhead
+     * is recorded as 0.
+     *
+     * @param subtract
+     */
+    public synchronized void setBiasSubtraction(boolean subtract) {
+        install(calibration, subtract);
+    }
+
+    public boolean isBiasSubtraction() {
+        return biasSubtraction;
+    }
+
+    /**
+     * Set how often the manager is calibrated again, on a shared daemon thread. A new manager is calibrated when
+     * it is created and then only on demand.
+     *
+     * @param interval, null or zero to calibrate only on demand
+     */
+    public synchronized void setCalibrationInterval(Duration interval) {
+        if (calibrationTask != null) {
+            calibrationTask.cancel(false);
+            calibrationTask = null;
+        }
+        calibrationInterval = interval;
+        if (interval != null && !interval.isZero() && !interval.isNegative()) {
+            calibrationTask = Calibrator.schedule(this, interval.toNanos());
+        }
+    }
+
+    public synchronized Duration getCalibrationInterval() {
+        return calibrationInterval;
+    }
+
+    /**
+     * Tell if the average of a named probe is too short to be measured reliably, compared to the calibrated
+     * overhead, or its variance when the overhead is subtracted
+     *
+     * @param probeName
+     * @return true if the probe has samples and they are too short
+     */
+    public boolean isTooShort(String probeName) {
+        Result result = getResult(probeName);
+
+        return result.getNSamples() > 0 && calibration.isTooShort(result.getAverage(), biasSubtraction);
+    }
+
+    /**
+     * Get the statistics of a named probe within a duration back from now
+     *
+     * @param probeName
+     * @param duration  of the window
+     * @return statistics of the window
+     */
+    public Window getWindow(String probeName, Duration duration) {
+        return getResult(probeName).getWindow(duration);
+    }
+
+    /**
+     * Set the max # of bytes of direct memory the off-heap samples can reserve. Results that can not reserve
+     * their samples keep statistics only.
+     *
+     * @param bytes
+     */
+    public void setOffHeapBudget(long bytes) {
+        offHeapBudget.setLimit(bytes);
+    }
+
+    public long getOffHeapBudget() {
+        return offHeapBudget.getLimit();
+    }
+
+    /**
+     * Get the # of bytes of direct memory reserved by off-heap samples
+     *
+     * @return bytes
+     */
+    public long getOffHeapReserved() {
+        return offHeapBudget.getReserved();
+    }
+
     /**
      * Set how many samples to skip in the calculation of statistics. If set to ie. 5, the first 5 samples will
      * not be taken into account when calculating max/min/n#samples and average.
@@ -328,12 +1240,40 @@ public final class ProbeManagerImpl implements Serializable, ProbeManager {
      */
     public void setTime(Time tim) {
         time = tim;
+        calibrate();
     }
 
     public Time getTime() {
         return this.time;
     }
 
+    /**
+     * Set the Time implementation of a named probe, e.g. a coarse TimeFactory.getTime(Duration) for a probe
+     * of long regions. Set it before the probe is used, threads that have used the probe keep their time.
+     *
+     * @param probeName
+     * @param tim,      null to use the time of the manager
+     */
+    public void setTime(String probeName, Time tim) {
+        getResult(probeName).setTime(tim);
+    }
+
+    /**
+     * Get the Time implementation of a named probe
+     *
+     * @param probeName
+     * @return time of the probe, or of the manager if the probe has none of its own
+     */
+    public Time getTime(String probeName) {
+        return getTime(getResult(probeName));
+    }
+
+    Time getTime(Result result) {
+        Time t = result.getTime();
+
+        return t != null ? t : time;
+    }
+
     /**
      * Get result as a string
      *
@@ -342,11 +1282,32 @@ public final class ProbeManagerImpl implements Serializable, ProbeManager {
      */
     public String toString(String probe) {
         Result p = getResult(probe);
+        double factor = presentation.getTimeFactor();
 
         return "probe name=" + probe + ", #samples=" + p.getNSamples() + ", total=" + p.getTotal()
-                / presentation.getTimeFactor() + " , average=" + p.getAverage() / presentation.getTimeFactor()
-                + " , max=" + p.getMax() / presentation.getTimeFactor() + "  , min=" + p.getMin()
-                / presentation.getTimeFactor() + " , units=" + presentation;
+                / factor + " , average=" + p.getAverage() / factor
+                + " , max=" + p.getMax() / factor + "  , min=" + p.getMin()
+                / factor + " , p50=" + p.getP50() / factor + " , p90=" + p.getP90() / factor
+                + " , p99=" + p.getP99() / factor + " , p99.9=" + p.getP999() / factor
+                + (p.getFailures().getNSamples() > 0 ? " , #failures=" + p.getFailures().getNSamples() : "")
+                + " , units=" + presentation + (isTooShort(probe) ? " , too short to measure" : "");
+    }
+
+    /**
+     * Write the samples of all probes to a file in the compact format of SampleWriter
+     *
+     * @param file, created or truncated
+     * @throws IOException
+     */
+    public void writeSamples(Path file) throws IOException {
+        SampleWriter writer = new SampleWriter(file);
+        try {
+            for (Result r : resultMap.values()) {
+                writer.write(r);
+            }
+        } finally {
+            writer.close();
+        }
     }
 
     /**
@@ -365,9 +1326,9 @@ public final class ProbeManagerImpl implements Serializable, ProbeManager {
      * @return probename
      */
     public String[] getNames() {
+        // the key set can grow while it is copied, let toArray size the array
         Set<String> names = resultMap.keySet();
-        String[] ret = new String[names.size()];
 
-        return names.toArray(ret);
+        return names.toArray(new String[0]);
     }
 }
\ No newline at end of file
@@ -0,0 +1,180 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import javax.management.*;
+import javax.management.openmbean.*;
+import java.util.*;
+
+/**
+ * ProbeManagerMBean exposes the probes of a manager over JMX, as one dynamic MBean. Each probe is an attribute
+ * with a snapshot of its statistics, taken when the attribute is read, so a probe costs nothing until someone
+ * reads it. The operations enable, disable and clear all probes, or one probe given by name.
+ */
+public class ProbeManagerMBean implements DynamicMBean {
+    /**
+     * Attribute with the names of all probes
+     */
+    public static final String NAMES = "Names";
+
+    static final String[] ITEMS = {"nSamples", "invocations", "total", "average", "min", "max", "stdev", "p50",
+            "p90", "p99", "p999", "failures", "startMillis"};
+
+    private static final OpenType<?>[] ITEM_TYPES = {SimpleType.INTEGER, SimpleType.LONG, SimpleType.LONG,
+            SimpleType.DOUBLE, SimpleType.DOUBLE, SimpleType.DOUBLE, SimpleType.DOUBLE, SimpleType.LONG,
+            SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.INTEGER, SimpleType.LONG};
+
+    static final CompositeType SNAPSHOT_TYPE;
+
+    static {
+        try {
+            SNAPSHOT_TYPE = new CompositeType("ProbeSnapshot", "statistics of a probe", ITEMS, ITEMS, ITEM_TYPES);
+        } catch (OpenDataException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final MBeanOperationInfo[] OPERATIONS = {
+            operation("enable", "enable all probes"),
+            operation("disable", "disable all probes"),
+            operation("clear", "clear all probes"),
+            operation("enable", "enable a probe", "probeName"),
+            operation("disable", "disable a probe", "probeName"),
+            operation("clear", "clear a probe", "probeName")};
+
+    private final ProbeManagerImpl manager;
+
+    /**
+     * Constr
+     *
+     * @param manager to expose
+     */
+    public ProbeManagerMBean(ProbeManagerImpl manager) {
+        this.manager = manager;
+    }
+
+    private static MBeanOperationInfo operation(String name, String description, String... parameters) {
+        MBeanParameterInfo[] signature = new MBeanParameterInfo[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            signature[i] = new MBeanParameterInfo(parameters[i], String.class.getName(), "name of the probe");
+        }
+
+        return new MBeanOperationInfo(name, description, signature, "void", MBeanOperationInfo.ACTION);
+    }
+
+    /**
+     * Describe the attributes, one for each probe that exists now
+     *
+     * @return info
+     */
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+        attributes.add(new MBeanAttributeInfo(NAMES, String[].class.getName(), "names of all probes", true,
+                false, false));
+        String[] names = manager.getNames();
+        Arrays.sort(names);
+        for (String name : names) {
+            attributes.add(new OpenMBeanAttributeInfoSupport(name, "statistics of " + name, SNAPSHOT_TYPE, true,
+                    false, false));
+        }
+
+        return new MBeanInfo(getClass().getName(), "probes of a jperfprobe manager",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, OPERATIONS, null);
+    }
+
+    public Object getAttribute(String attribute) throws AttributeNotFoundException, MBeanException {
+        if (NAMES.equals(attribute)) {
+            return manager.getNames();
+        }
+        // look the result up without creating it
+        Result result = manager.findResult(attribute);
+        if (result == null) {
+            throw new AttributeNotFoundException("no probe named " + attribute);
+        }
+        try {
+            return toCompositeData(result.snapshot(false));
+        } catch (OpenDataException e) {
+            throw new MBeanException(e);
+        }
+    }
+
+    static CompositeData toCompositeData(ResultSnapshot s) throws OpenDataException {
+        Object[] values = {s.getNSamples(), s.getInvocations(), s.getTotal(), s.getAverage(), s.getMin(),
+                s.getMax(), s.getStdev(), s.getP50(), s.getP90(), s.getP99(), s.getP999(),
+                s.getFailures().getNSamples(), s.getStartMillis()};
+
+        return new CompositeDataSupport(SNAPSHOT_TYPE, ITEMS, values);
+    }
+
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (JMException e) {
+                // left out, as the contract of getAttributes says
+            }
+        }
+
+        return list;
+    }
+
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("probe attributes are read only: " + attribute.getName());
+    }
+
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        int n = params == null ? 0 : params.length;
+        if (n == 0) {
+            if ("enable".equals(actionName)) {
+                manager.enable();
+                return null;
+            } else if ("disable".equals(actionName)) {
+                manager.disable();
+                return null;
+            } else if ("clear".equals(actionName)) {
+                manager.clear();
+                return null;
+            }
+        } else if (n == 1 && params[0] instanceof String) {
+            String probeName = (String) params[0];
+            if ("enable".equals(actionName)) {
+                manager.enable(probeName);
+                return null;
+            } else if ("disable".equals(actionName)) {
+                manager.disable(probeName);
+                return null;
+            } else if ("clear".equals(actionName)) {
+                manager.clear(probeName);
+                return null;
+            }
+        }
+        throw new ReflectionException(new NoSuchMethodException(actionName + "/" + n),
+                "no such operation: " + actionName);
+    }
+}
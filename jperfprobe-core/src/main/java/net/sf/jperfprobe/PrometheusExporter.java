@@ -0,0 +1,381 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import com.sun.net.httpserver.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.*;
+
+/**
+ * PrometheusExporter serves the results of a manager in the Prometheus text format, from the HTTP server of
+ * the JDK. All probes are one metric family with the probe name as a label:
+ * <pre>
+ * jperfprobe_duration_seconds{probe="query",quantile="0.99"} 0.001250000
+ * jperfprobe_duration_seconds_sum{probe="query"} 12.500000000
+ * jperfprobe_duration_seconds_count{probe="query"} 10000
+ * </pre>
+ * as a summary with quantiles, or as a histogram with buckets, plus the max and the # of failures of each
+ * probe. A scrape is rendered into a byte buffer that is kept for the next scrape, numbers are written digit
+ * by digit and the times as fixed point seconds, so a scrape of many probes creates almost no garbage.
+ */
+public class PrometheusExporter implements HttpHandler {
+    /**
+     * Quantiles of the summary, unless others are set
+     */
+    public static final double[] DEFAULT_QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final ProbeManager manager;
+
+    private final String prefix;
+
+    // quantiles of the summary as percentiles, and as label values
+    private double[] percentiles;
+    private byte[][] quantileLabels;
+
+    // upper bounds of the histogram buckets in nanos, and as label values, null for a summary
+    private long[] bounds;
+    private byte[][] boundLabels;
+
+    // reused by each scrape
+    private final Text text = new Text();
+    private long[] values = new long[0];
+
+    private HttpServer server;
+
+    /**
+     * Constr, a summary with the default quantiles
+     *
+     * @param manager to export
+     */
+    public PrometheusExporter(ProbeManager manager) {
+        this(manager, "jperfprobe");
+    }
+
+    /**
+     * Constr, a summary with the default quantiles
+     *
+     * @param manager to export
+     * @param prefix  of the metric names
+     */
+    public PrometheusExporter(ProbeManager manager, String prefix) {
+        this.manager = manager;
+        this.prefix = prefix;
+        setSummary(DEFAULT_QUANTILES);
+    }
+
+    /**
+     * Export the probes as summaries
+     *
+     * @param quantiles 0.0 - 1.0
+     */
+    public synchronized void setSummary(double... quantiles) {
+        double[] sorted = quantiles.clone();
+        Arrays.sort(sorted);
+        percentiles = new double[sorted.length];
+        quantileLabels = new byte[sorted.length][];
+        for (int i = 0; i < sorted.length; i++) {
+            if (sorted[i] < 0 || sorted[i] > 1) {
+                throw new IllegalArgumentException("quantile must be between 0 and 1: " + sorted[i]);
+            }
+            percentiles[i] = sorted[i] * 100.0;
+            quantileLabels[i] = ascii(Double.toString(sorted[i]));
+        }
+        values = new long[Math.max(sorted.length, values.length)];
+        bounds = null;
+        boundLabels = null;
+    }
+
+    /**
+     * Export the probes as histograms, the counts come from the histograms of the results
+     *
+     * @param boundsNanos upper bounds of the buckets in nanos, +Inf is added
+     */
+    public synchronized void setHistogram(long... boundsNanos) {
+        long[] sorted = boundsNanos.clone();
+        Arrays.sort(sorted);
+        boundLabels = new byte[sorted.length][];
+        Text label = new Text();
+        for (int i = 0; i < sorted.length; i++) {
+            label.reset();
+            label.seconds(sorted[i]);
+            boundLabels[i] = Arrays.copyOf(label.bytes, label.size);
+        }
+        bounds = sorted;
+        values = new long[Math.max(sorted.length, values.length)];
+    }
+
+    /**
+     * Start serving /metrics
+     *
+     * @param address to listen to, port 0 for any free port
+     * @return the address it listens to
+     * @throws IOException
+     */
+    public synchronized InetSocketAddress start(InetSocketAddress address) throws IOException {
+        stop();
+        server = HttpServer.create(address, 0);
+        server.createContext("/metrics", this);
+        server.start();
+
+        return server.getAddress();
+    }
+
+    /**
+     * Stop serving
+     */
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            synchronized (this) {
+                render();
+                exchange.sendResponseHeaders(200, text.size);
+                OutputStream out = exchange.getResponseBody();
+                out.write(text.bytes, 0, text.size);
+                out.close();
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Render the results and write them to a stream
+     *
+     * @param out
+     * @return # of bytes written
+     * @throws IOException
+     */
+    public synchronized int writeTo(OutputStream out) throws IOException {
+        render();
+        out.write(text.bytes, 0, text.size);
+
+        return text.size;
+    }
+
+    // render all results into the text buffer, each family is a pass over the results
+    void render() {
+        Text t = text;
+        t.reset();
+        Collection<Result> results = manager.getResults();
+
+        String duration = prefix + "_duration_seconds";
+        t.ascii("# HELP ").ascii(duration).ascii(" Elapsed time of the probes\n");
+        t.ascii("# TYPE ").ascii(duration).ascii(bounds == null ? " summary\n" : " histogram\n");
+        for (Result r : results) {
+            // read once, the count must be the same in +Inf and _count
+            long n;
+            if (bounds == null) {
+                n = r.getNSamples();
+                r.getPercentiles(percentiles, values);
+                for (int i = 0; i < percentiles.length; i++) {
+                    t.ascii(duration).ascii("{probe=\"").escaped(r.getName()).ascii("\",quantile=\"")
+                            .bytes(quantileLabels[i]).ascii("\"} ").seconds(values[i]).newline();
+                }
+            } else {
+                Histogram h = r.getHistogram();
+                if (h != null) {
+                    // the total of the same pass, a sample may be in the statistics and not yet in the histogram
+                    n = h.getCumulativeCounts(bounds, values);
+                } else {
+                    Arrays.fill(values, 0);
+                    n = r.getNSamples();
+                }
+                for (int i = 0; i < bounds.length; i++) {
+                    t.ascii(duration).ascii("_bucket{probe=\"").escaped(r.getName()).ascii("\",le=\"")
+                            .bytes(boundLabels[i]).ascii("\"} ").number(values[i]).newline();
+                }
+                t.ascii(duration).ascii("_bucket{probe=\"").escaped(r.getName()).ascii("\",le=\"+Inf\"} ")
+                        .number(n).newline();
+            }
+            t.ascii(duration).ascii("_sum{probe=\"").escaped(r.getName()).ascii("\"} ").seconds(r.getTotal())
+                    .newline();
+            t.ascii(duration).ascii("_count{probe=\"").escaped(r.getName()).ascii("\"} ").number(n).newline();
+        }
+
+        String max = prefix + "_duration_max_seconds";
+        t.ascii("# HELP ").ascii(max).ascii(" Longest elapsed time of the probes\n");
+        t.ascii("# TYPE ").ascii(max).ascii(" gauge\n");
+        for (Result r : results) {
+            t.ascii(max).ascii("{probe=\"").escaped(r.getName()).ascii("\"} ").seconds((long) r.getMax())
+                    .newline();
+        }
+
+        String failures = prefix + "_failures_total";
+        t.ascii("# HELP ").ascii(failures).ascii(" Failed calls of the probes\n");
+        t.ascii("# TYPE ").ascii(failures).ascii(" counter\n");
+        for (Result r : results) {
+            t.ascii(failures).ascii("{probe=\"").escaped(r.getName()).ascii("\"} ")
+                    .number(r.getFailures().getNSamples()).newline();
+        }
+    }
+
+    /**
+     * Get the rendered text of the last scrape
+     *
+     * @return text
+     */
+    synchronized String getText() {
+        return new String(text.bytes, 0, text.size, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * A growing byte buffer that numbers and strings are written into without creating objects
+     */
+    static final class Text {
+        private static final long NANOS_PER_SECOND = 1000000000L;
+
+        byte[] bytes = new byte[64 * 1024];
+
+        int size;
+
+        private final byte[] digits = new byte[20];
+
+        void reset() {
+            size = 0;
+        }
+
+        private void ensure(int n) {
+            if (size + n > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + n));
+            }
+        }
+
+        Text ascii(String s) {
+            int n = s.length();
+            ensure(n);
+            for (int i = 0; i < n; i++) {
+                bytes[size++] = (byte) s.charAt(i);
+            }
+
+            return this;
+        }
+
+        Text bytes(byte[] b) {
+            ensure(b.length);
+            System.arraycopy(b, 0, bytes, size, b.length);
+            size += b.length;
+
+            return this;
+        }
+
+        Text newline() {
+            ensure(1);
+            bytes[size++] = '\n';
+
+            return this;
+        }
+
+        // a label value: backslash, quote and newline escaped, UTF-8 encoded
+        Text escaped(String s) {
+            int n = s.length();
+            // at most 4 bytes for each char
+            ensure(4 * n);
+            for (int i = 0; i < n; i++) {
+                char c = s.charAt(i);
+                if (c == '\\' || c == '"') {
+                    bytes[size++] = '\\';
+                    bytes[size++] = (byte) c;
+                } else if (c == '\n') {
+                    bytes[size++] = '\\';
+                    bytes[size++] = 'n';
+                } else if (c < 0x80) {
+                    bytes[size++] = (byte) c;
+                } else if (c < 0x800) {
+                    bytes[size++] = (byte) (0xC0 | (c >> 6));
+                    bytes[size++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    bytes[size++] = (byte) (0xF0 | (cp >> 18));
+                    bytes[size++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    bytes[size++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    bytes[size++] = (byte) (0x80 | (cp & 0x3F));
+                } else {
+                    bytes[size++] = (byte) (0xE0 | (c >> 12));
+                    bytes[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    bytes[size++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+
+            return this;
+        }
+
+        Text number(long value) {
+            ensure(20);
+            if (value < 0) {
+                bytes[size++] = '-';
+                if (value == Long.MIN_VALUE) {
+                    return ascii("9223372036854775808");
+                }
+                value = -value;
+            }
+            int n = 0;
+            do {
+                digits[n++] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value != 0);
+            while (n > 0) {
+                bytes[size++] = digits[--n];
+            }
+
+            return this;
+        }
+
+        // nanos as seconds with 9 decimals, exact
+        Text seconds(long nanos) {
+            if (nanos < 0) {
+                ensure(1);
+                bytes[size++] = '-';
+                if (nanos == Long.MIN_VALUE) {
+                    return ascii("9223372036.854775808");
+                }
+                nanos = -nanos;
+            }
+            number(nanos / NANOS_PER_SECOND);
+            ensure(10);
+            bytes[size++] = '.';
+            long fraction = nanos % NANOS_PER_SECOND;
+            for (long d = NANOS_PER_SECOND / 10; d > 0; d /= 10) {
+                bytes[size++] = (byte) ('0' + fraction / d % 10);
+            }
+
+            return this;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+/**
+ * QuantileSketch estimates quantiles of an unbounded stream of samples in constant memory. Sketches of the same
+ * kind can be merged, so results of many threads or nodes can be combined.
+ */
+public interface QuantileSketch {
+
+    /**
+     * Add a sample
+     *
+     * @param value
+     */
+    void add(long value);
+
+    /**
+     * Add all samples of another sketch of the same kind, the other sketch is not changed.
+     *
+     * @param other
+     * @throws IllegalArgumentException if the other sketch is of another kind
+     */
+    void merge(QuantileSketch other);
+
+    /**
+     * Get the estimated sample value that the given percentage of the samples are less than or equal to
+     *
+     * @param percentile 0.0 - 100.0
+     * @return sample value, 0 if there are no samples
+     */
+    long getValueAtPercentile(double percentile);
+
+    /**
+     * Get the # of samples added
+     *
+     * @return count
+     */
+    long getCount();
+
+    /**
+     * Forget all samples
+     */
+    void reset();
+
+    /**
+     * Creates a new empty sketch for each Result
+     */
+    interface Factory {
+        QuantileSketch create();
+    }
+}
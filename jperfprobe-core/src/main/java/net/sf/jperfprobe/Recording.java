@@ -0,0 +1,81 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import java.io.*;
+
+/**
+ * Recording holds the interval statistics of a Result: the statistics and histogram of the samples and the
+ * statistics of the failures. A Result records to one Recording and swaps in a fresh one to take a snapshot.
+ */
+final class Recording implements Serializable {
+
+    final Accumulator statistics;
+
+    final Accumulator failures;
+
+    // null if no histogram
+    final Histogram histogram;
+
+    // when the recording started, in millis since 1970
+    volatile long startMillis;
+
+    /**
+     * Constr
+     *
+     * @param concurrent,        true if samples will be added from many threads at the same time
+     * @param significantDigits, precision of the histogram, 0 means no histogram
+     */
+    Recording(boolean concurrent, int significantDigits) {
+        statistics = Accumulator.create(concurrent);
+        failures = Accumulator.create(concurrent);
+        if (significantDigits == 0) {
+            histogram = null;
+        } else if (concurrent) {
+            histogram = new ConcurrentHistogram(Histogram.DEFAULT_HIGHEST_TRACKABLE_VALUE, significantDigits);
+        } else {
+            histogram = new Histogram(Histogram.DEFAULT_HIGHEST_TRACKABLE_VALUE, significantDigits);
+        }
+        startMillis = System.currentTimeMillis();
+    }
+
+    void add(long time) {
+        statistics.add(time);
+        if (histogram != null) {
+            histogram.recordValue(time);
+        }
+    }
+
+    /**
+     * Reset for reuse, the histogram counts are kept
+     */
+    void clear() {
+        statistics.clear();
+        failures.clear();
+        if (histogram != null) {
+            histogram.reset();
+        }
+        startMillis = System.currentTimeMillis();
+    }
+}
@@ -27,48 +27,106 @@ package net.sf.jperfprobe;
 import org.slf4j.*;
 
 import java.io.*;
+import java.time.*;
+import java.lang.ref.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 
 /**
  * Class Result.
  * A Result contains the statistics. All calculations are done in this class.
- * There can be multiple probes in a Result identified by the Probes threadname.
+ * There can be multiple probes in a Result, one for each thread. A probe belongs to the thread itself and not to
+ * the thread name, and it goes away with the thread. Calls timed with begin and end keep no probe at all.
+ * A concurrent Result can be recorded to from many threads at the same time, the statistics are then kept
+ * in striped cells which are merged when they are read.
+ * Every sample is also recorded in a log-linear histogram, so percentiles are based on all samples and not only
+ * the last stored ones. A QuantileSketch can be set to estimate the percentiles instead.
  *
  * @author Tor-Erik Larsen
  *         Date: 01.feb.2007
  *         Time: 10:48:56
  */
-public class Result implements Serializable {
+public class Result implements Serializable, Statistics {
     final Logger log = LoggerFactory.getLogger(Result.class);
 
     private int samplesToSkip;
 
-    private int currentSamplesSkip;
+    // # of samples skipped so far, only updated until samplesToSkip is reached
+    private final AtomicInteger currentSamplesSkip = new AtomicInteger();
     /**
      * default maximum number of samples stored in a probe.
      */
-    static int DEFAULT_MAXSAMPLES = 300;
-    // list of the last max samples, the oldest samples will be removed.
-    private long[] samples = new long[DEFAULT_MAXSAMPLES];
+    static final int DEFAULT_MAXSAMPLES = 300;
 
-    final transient private Map<String, Probe> probeMap = new HashMap<String, Probe>();
+    // the last samples, the oldest samples will be removed. null when no samples are kept
+    private volatile SampleStore samples;
 
-    // current number of samples in this probe.
-    private int nSamples;
+    private final boolean concurrent;
 
-    // index of the current sample
-    private int sampleIndex;
+    // where the samples are kept, and the budget of off-heap samples
+    private final SampleStorage sampleStorage;
+    private final OffHeapBudget offHeapBudget;
 
-    // maximum registered time sample in probe.
-    private double max;
+    // the probe of each thread, replaced when the result is cleared
+    private transient volatile ThreadLocal<Probe> probes = new ThreadLocal<Probe>();
 
-    // minimum registered time sample in probe.
-    private double min;
+    // all probes with live threads, only used to enable and disable. Entries of dead threads are dropped by gc.
+    final transient private Map<Thread, Probe> probeMap = new WeakHashMap<Thread, Probe>();
 
-    // average time calculated in this probe, based on all recorded samples, even the discarded ones,
-    // more than DEFAULT_MAXSAMPLES.
-    private double average;
+    // false after disable, read by the calls that keep no probe
+    private volatile boolean enabled = true;
+
+    // true when begin has warned that this result is not concurrent
+    transient volatile boolean notConcurrentWarned;
+
+    // true for the private result a manager is calibrated with, it is kept out of the call trees, the flight
+    // recorder and the asynchronous recording
+    transient boolean calibration;
+
+    // statistics and histogram of all samples since the last snapshot or clear, even the ones discarded from
+    // samples. Swapped with the spare to take a snapshot.
+    private volatile Recording recording;
+
+    // the recording to swap in at the next snapshot, reset and ready
+    private Recording spare;
+
+    // lets a snapshot wait for the threads still adding to the swapped out recording
+    private final transient WriterReaderPhaser phaser;
+
+    private final int significantDigits;
+
+    // estimates the percentiles instead of the histogram, null if not used
+    private volatile QuantileSketch quantileSketch;
+
+    // statistics of recent time buckets, null if not kept
+    private transient volatile TimeWindows timeWindows;
+
+    // sample biased toward recent samples, null if not kept
+    private transient volatile DecayingReservoir reservoir;
+
+    // which calls are timed, null if every call is timed
+    private volatile Sampling sampling;
+
+    // the probes that have skipped calls, each counts its own
+    private final transient Queue<DefaultProbe> skippers = new ConcurrentLinkedQueue<DefaultProbe>();
+
+    // calls skipped by the probes of dead threads, guarded by skippers
+    private long retiredSkips;
+
+    // calls that keep no probe skipped so far
+    private final LongAdder skippedCalls = new LongAdder();
+
+    // # of skipped calls when the interval started
+    private volatile long unsampledBase;
+
+    // time of the probes of this result, null if they use the time of the manager
+    private transient volatile Time time;
+
+    // id of the probe name in a flight recorder, valid when flightRecorder is the recorder
+    transient int flightRecorderId;
+    transient volatile FlightRecorder flightRecorder;
 
     // name of Result.
     private final String name;
@@ -77,48 +135,154 @@ public class Result implements Serializable {
 
     private Probe singleProbe;
 
-    private long total;
-
-    private double squareSum;
-
 
     Result(String name) {
-        this.name = name;
+        this(0, name);
     }
 
     Result(int nSkip, String name) {
+        this(nSkip, name, false);
+    }
+
+    Result(int nSkip, String name, boolean concurrent) {
+        this(nSkip, name, concurrent, Histogram.DEFAULT_SIGNIFICANT_DIGITS, DEFAULT_MAXSAMPLES);
+    }
+
+    /**
+     * Constr
+     *
+     * @param nSkip,             samples to skip before recording
+     * @param name,              name of result
+     * @param concurrent,        true if samples will be added from many threads at the same time
+     * @param significantDigits, precision of the histogram, 0 means no histogram
+     * @param sampleCapacity,    # of most recent samples to keep, 0 keeps statistics only
+     */
+    Result(int nSkip, String name, boolean concurrent, int significantDigits, int sampleCapacity) {
+        this(nSkip, name, concurrent, significantDigits, sampleCapacity, SampleStorage.HEAP, null);
+    }
+
+    /**
+     * Constr
+     *
+     * @param nSkip,             samples to skip before recording
+     * @param name,              name of result
+     * @param concurrent,        true if samples will be added from many threads at the same time
+     * @param significantDigits, precision of the histogram, 0 means no histogram
+     * @param sampleCapacity,    # of most recent samples to keep, 0 keeps statistics only
+     * @param sampleStorage,     where the samples are kept
+     * @param offHeapBudget,     budget of off-heap samples, only used by off-heap storage
+     */
+    Result(int nSkip, String name, boolean concurrent, int significantDigits, int sampleCapacity,
+           SampleStorage sampleStorage, OffHeapBudget offHeapBudget) {
+        if (sampleStorage != SampleStorage.HEAP && offHeapBudget == null) {
+            throw new IllegalArgumentException("off-heap sample storage needs a budget");
+        }
         this.samplesToSkip = nSkip;
         this.name = name;
+        this.concurrent = concurrent;
+        this.sampleStorage = sampleStorage;
+        this.offHeapBudget = offHeapBudget;
+        this.significantDigits = significantDigits;
+        this.recording = new Recording(concurrent, significantDigits);
+        this.phaser = new WriterReaderPhaser();
+        setSampleCapacity(sampleCapacity);
+    }
+
+    /**
+     * Is this a Result where many threads can add samples at the same time
+     *
+     * @return concurrent flag
+     */
+    public boolean isConcurrent() {
+        return concurrent;
     }
 
+    /**
+     * Get the most recent samples, oldest first. At most sample capacity samples are kept.
+     *
+     * @return samples
+     */
     public long[] getSamples() {
-        long[] dest = new long[sampleIndex];
-        System.arraycopy(samples, 0, dest, 0, sampleIndex);
+        SampleStore s = samples;
 
-        return dest;
+        return s == null ? new long[0] : s.getSamples();
     }
 
-    public int getNSamples() {
-        return nSamples;
+    /**
+     * Set the # of most recent samples to keep. The samples kept so far are dropped, and the buffer for the new
+     * capacity is allocated when the next sample is added. A capacity of 0 keeps statistics only.
+     *
+     * @param capacity # of samples
+     */
+    public void setSampleCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("sample capacity can not be negative: " + capacity);
+        }
+        SampleStore old = samples;
+        samples = capacity == 0 ? null : sampleStorage.create(capacity, concurrent, offHeapBudget);
+        if (old != null) {
+            old.release();
+        }
     }
 
-    /*
-    int getSampleIndex() {
-        return sampleIndex;
+    /**
+     * Get where the samples are kept
+     *
+     * @return storage
+     */
+    public SampleStorage getSampleStorage() {
+        return sampleStorage;
+    }
+
+    /**
+     * Hand the most recent samples to a visitor in blocks, oldest first. The samples are not copied, so this
+     * is the way to read large off-heap stores.
+     *
+     * @param visitor
+     */
+    public void visitSamples(SampleVisitor visitor) {
+        SampleStore s = samples;
+        if (s != null) {
+            s.visit(visitor);
+        }
+    }
+
+    /**
+     * Forget the samples and give back their storage, it is allocated again if more samples are added.
+     */
+    void releaseSamples() {
+        SampleStore s = samples;
+        if (s != null) {
+            s.release();
+        }
+    }
+
+    /**
+     * Get the max # of samples kept
+     *
+     * @return capacity
+     */
+    public int getSampleCapacity() {
+        SampleStore s = samples;
+
+        return s == null ? 0 : s.getCapacity();
+    }
+
+    public int getNSamples() {
+        return recording.statistics.getNSamples();
     }
-    */
 
     public double getMax() {
-        return max;
+        return recording.statistics.getMax();
     }
 
     public double getMin() {
-        return min;
+        return recording.statistics.getMin();
 
     }
 
     public double getAverage() {
-        return average;
+        return recording.statistics.getAverage();
     }
 
     /**
@@ -127,10 +291,151 @@ public class Result implements Serializable {
      * @return
      */
     public double getStdev() {
-        double nMinus1 = (nSamples <= 1) ? 1 : nSamples - 1;
-        double numerator = squareSum - ((total * total) / nSamples);
+        return recording.statistics.getStdev();
+    }
+
+    /**
+     * Get the histogram of all samples since the last snapshot or clear
+     *
+     * @return histogram, null if the result has no histogram
+     */
+    public Histogram getHistogram() {
+        return recording.histogram;
+    }
+
+    /**
+     * Set a sketch to estimate the percentiles from the next sample on, instead of the histogram. The sketch
+     * must be safe to add to from many threads if the result is concurrent.
+     *
+     * @param sketch, null to go back to the histogram
+     */
+    public void setQuantileSketch(QuantileSketch sketch) {
+        quantileSketch = sketch;
+    }
+
+    /**
+     * Get the sketch that estimates the percentiles, it can be merged with the sketches of other results.
+     *
+     * @return sketch, null if the percentiles come from the histogram
+     */
+    public QuantileSketch getQuantileSketch() {
+        return quantileSketch;
+    }
+
+    /**
+     * Keep statistics of recent time buckets, so getWindow can be used.
+     *
+     * @param windows, null to stop keeping them
+     */
+    void setTimeWindows(TimeWindows windows) {
+        timeWindows = windows;
+    }
+
+    TimeWindows getTimeWindows() {
+        return timeWindows;
+    }
+
+    /**
+     * Get the statistics of the samples added within a duration back from now, e.g. the last minute. The window
+     * is made of whole time buckets, so it covers between duration - bucket width and duration.
+     *
+     * @param duration of the window, at most the history kept
+     * @return statistics of the window
+     * @throws IllegalStateException if the result keeps no time windows
+     */
+    public Window getWindow(Duration duration) {
+        TimeWindows windows = timeWindows;
+        if (windows == null) {
+            throw new IllegalStateException("no time windows are kept for " + name);
+        }
+
+        return windows.getWindow(duration);
+    }
+
+    /**
+     * Keep a decaying reservoir of the samples besides the most recent samples.
+     *
+     * @param reservoir, null to stop keeping it
+     */
+    void setReservoir(DecayingReservoir reservoir) {
+        this.reservoir = reservoir;
+    }
+
+    /**
+     * Get the reservoir of samples biased toward recent samples
+     *
+     * @return reservoir, null if the result keeps no reservoir
+     */
+    public DecayingReservoir getReservoir() {
+        return reservoir;
+    }
+
+    /**
+     * Get the sample value that the given percentage of the samples are less than or equal to. The value comes
+     * from the quantile sketch if there is one, else it has the precision of the histogram and is never larger
+     * than max. The sketch covers all samples since it was set or the result was cleared, it is not reset by
+     * snapshotAndReset, so its value is not limited by the max of the current interval.
+     *
+     * @param percentile 0.0 - 100.0
+     * @return sample value, 0 if there are no samples or no histogram
+     */
+    public long getPercentile(double percentile) {
+        QuantileSketch sketch = quantileSketch;
+        if (sketch != null) {
+            return sketch.getValueAtPercentile(percentile);
+        }
+        Recording r = recording;
+        if (r.histogram == null) {
+            return 0;
+        }
+
+        return Math.min(r.histogram.getValueAtPercentile(percentile), (long) r.statistics.getMax());
+    }
+
+    /**
+     * Get the values at many percentiles, with one pass over the histogram
+     *
+     * @param percentiles 0.0 - 100.0, in increasing order
+     * @param values      gets the value at each percentile
+     */
+    void getPercentiles(double[] percentiles, long[] values) {
+        QuantileSketch sketch = quantileSketch;
+        Recording r = recording;
+        long max = (long) r.statistics.getMax();
+        if (sketch != null) {
+            // the sketch is cumulative, the max of the interval does not bound it
+            for (int i = 0; i < percentiles.length; i++) {
+                values[i] = sketch.getValueAtPercentile(percentiles[i]);
+            }
+        } else if (r.histogram != null) {
+            r.histogram.getValuesAtPercentiles(percentiles, values);
+            for (int i = 0; i < percentiles.length; i++) {
+                values[i] = Math.min(values[i], max);
+            }
+        } else {
+            Arrays.fill(values, 0, percentiles.length, 0);
+        }
+    }
+
+    /**
+     * Get the median
+     *
+     * @return 50th percentile
+     */
+    public long getP50() {
+        return getPercentile(50.0);
+    }
+
+    public long getP90() {
+        return getPercentile(90.0);
+    }
+
+    public long getP99() {
+        return getPercentile(99.0);
+    }
 
-        return java.lang.Math.sqrt(numerator / nMinus1);
+    public long getP999() {
+        return getPercentile(99.9);
     }
 
     /**
@@ -138,7 +443,7 @@ public class Result implements Serializable {
      * @return
      */
     Probe getProbe() {
-        return probeMap.get(Thread.currentThread().getName());
+        return probes.get();
     }
 
 
@@ -148,8 +453,9 @@ public class Result implements Serializable {
      * @param probe
      */
     void addprobe(Probe probe) {
+        probes.set(probe);
         synchronized (probeMap) {
-            probeMap.put(Thread.currentThread().getName(), probe);
+            probeMap.put(Thread.currentThread(), probe);
         }
     }
 
@@ -157,26 +463,71 @@ public class Result implements Serializable {
      * Clear the map of probes and all values (max, min, samples, average...) all the probes will be removed
      */
     public void clear() {
-        probeMap.clear();
-        max = 0.0;
-        min = 0.0;
-        sampleIndex = 0;
-        nSamples = 0;
-        average = 0.0;
-        samples = new long[DEFAULT_MAXSAMPLES];
-        total = 0;
-
+        // the probes of other threads can not be removed from their thread locals, forget them all instead
+        probes = new ThreadLocal<Probe>();
+        synchronized (probeMap) {
+            probeMap.clear();
+        }
+        SampleStore s = samples;
+        if (s != null) {
+            s.clear();
+        }
+        // cleared under the lock, else a snapshot could swap it in again while it is cleared
+        synchronized (phaser) {
+            swapRecording().clear();
+            // the probes are forgotten, their counts are kept
+            synchronized (skippers) {
+                for (DefaultProbe p : skippers) {
+                    retiredSkips += p.skippedCalls;
+                }
+                skippers.clear();
+            }
+            unsampledBase = getSkippedCalls();
+        }
+        QuantileSketch sketch = quantileSketch;
+        if (sketch != null) {
+            sketch.reset();
+        }
+        TimeWindows windows = timeWindows;
+        if (windows != null) {
+            windows.clear();
+        }
+        DecayingReservoir r = reservoir;
+        if (r != null) {
+            r.clear();
+        }
     }
 
     public void disable() {
-        for (Probe p : probeMap.values()) {
-            p.disable();
+        enabled = false;
+        synchronized (probeMap) {
+            for (Probe p : probeMap.values()) {
+                p.disable();
+            }
         }
     }
 
     public void enable() {
-        for (Probe p : probeMap.values()) {
-            p.enable();
+        enabled = true;
+        synchronized (probeMap) {
+            for (Probe p : probeMap.values()) {
+                p.enable();
+            }
+        }
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Get the # of threads with a probe in this result
+     *
+     * @return # of probes
+     */
+    int getProbeCount() {
+        synchronized (probeMap) {
+            return probeMap.size();
         }
     }
 
@@ -197,30 +548,233 @@ public class Result implements Serializable {
      * @param time sample to add
      */
     public void addSample(long time) {
-        if (currentSamplesSkip < samplesToSkip) {
-            currentSamplesSkip++;
-        } else {
-            lastSample = time;
-            if (sampleIndex >= DEFAULT_MAXSAMPLES) {
-                // rollover
-                sampleIndex = 0;
-            }
+        // the counter is only written while skipping, after that it is a read of an unchanging value
+        if (currentSamplesSkip.get() < samplesToSkip && currentSamplesSkip.getAndIncrement() < samplesToSkip) {
+            return;
+        }
 
-            samples[sampleIndex++] = time;
-            total += time;
-            average = (average * (double) nSamples + (double) time) / (double) ++nSamples;
-            squareSum += time * time;
+        lastSample = time;
+        SampleStore s = samples;
+        if (s != null) {
+            s.add(time);
+        }
+        int token = phaser.enter();
+        try {
+            recording.add(time);
+        } finally {
+            phaser.exit(token);
+        }
+        QuantileSketch sketch = quantileSketch;
+        if (sketch != null) {
+            sketch.add(time);
+        }
+        TimeWindows windows = timeWindows;
+        if (windows != null) {
+            windows.add(time);
+        }
+        DecayingReservoir r = reservoir;
+        if (r != null) {
+            r.update(time);
+        }
+    }
 
-            if (time > max) {
-                max = time;
-            }
-            if (nSamples > 1) {
-                if (time < min) {
-                    min = time;
+    /**
+     * Add the elapsed time of a failed call. Failures are not part of the samples and their statistics.
+     *
+     * @param time elapsed time of the failed call
+     */
+    public void addFailure(long time) {
+        int token = phaser.enter();
+        try {
+            recording.failures.add(time);
+        } finally {
+            phaser.exit(token);
+        }
+    }
+
+    /**
+     * Get the statistics of the failed calls since the last snapshot or clear
+     *
+     * @return failure statistics
+     */
+    public Statistics getFailures() {
+        return recording.failures;
+    }
+
+    /**
+     * Time only some of the calls. The calls that are not timed are counted in getInvocations, the statistics
+     * are those of the timed calls. Can be changed while the probe is in use.
+     *
+     * @param sampling, null to time every call
+     */
+    public void setSampling(Sampling sampling) {
+        this.sampling = sampling;
+    }
+
+    public Sampling getSampling() {
+        return sampling;
+    }
+
+    /**
+     * Set the time of the probes of this result. Probes that a thread has already used keep their time.
+     *
+     * @param time, null to use the time of the manager
+     */
+    public void setTime(Time time) {
+        this.time = time;
+    }
+
+    public Time getTime() {
+        return time;
+    }
+
+    /**
+     * Tell if the call the probe of the calling thread is starting should not be timed, a skipped call is counted in
+     * the probe and summed when the result is read.
+     *
+     * @param probe of the calling thread
+     * @return true if the call is not timed
+     */
+    boolean skip(Probe probe) {
+        Sampling s = sampling;
+        if (!(probe instanceof DefaultProbe)) {
+            return false;
+        }
+        DefaultProbe p = (DefaultProbe) probe;
+        if (s == null && !p.isSkipping()) {
+            return false;
+        }
+        if (!p.skip(s)) {
+            return false;
+        }
+        if (p.owner == null) {
+            p.owner = new WeakReference<Thread>(Thread.currentThread());
+            skippers.add(p);
+        }
+
+        return true;
+    }
+
+    /**
+     * Tell if a call that keeps no probe is skipped by sampling, a skipped call is counted as unsampled
+     *
+     * @return true if the call is not timed
+     */
+    boolean skipCall() {
+        Sampling s = sampling;
+        if (s == null || s.sample()) {
+            return false;
+        }
+        skippedCalls.increment();
+
+        return true;
+    }
+
+    /**
+     * Get the # of calls skipped by sampling since the result was created. The counts of the probes of dead
+     * threads are folded into one, so the probes are not kept.
+     *
+     * @return # of calls
+     */
+    private long getSkippedCalls() {
+        long total = skippedCalls.sum();
+        synchronized (skippers) {
+            for (Iterator<DefaultProbe> it = skippers.iterator(); it.hasNext(); ) {
+                DefaultProbe p = it.next();
+                Thread t = p.owner.get();
+                if (t == null || !t.isAlive()) {
+                    retiredSkips += p.skippedCalls;
+                    it.remove();
+                } else {
+                    total += p.skippedCalls;
                 }
+            }
+
+            return total + retiredSkips;
+        }
+    }
+
+    /**
+     * Get the # of calls since the last snapshot or clear, the timed calls, the failed calls and the calls
+     * skipped by sampling.
+     *
+     * @return # of calls
+     */
+    public long getInvocations() {
+        Recording r = recording;
+
+        return (long) r.statistics.getNSamples() + r.failures.getNSamples() + getSkippedCalls() - unsampledBase;
+    }
+
+    /**
+     * Take a snapshot of the statistics since the last snapshot or clear, and start a new interval. Recording
+     * goes on into a fresh recording while the snapshot is taken, so no sample is lost or counted twice, and
+     * the threads that add samples never wait. The most recent samples, the quantile sketch, the time windows
+     * and the reservoir are not reset.
+     *
+     * @return snapshot of the interval
+     */
+    public ResultSnapshot snapshotAndReset() {
+        synchronized (phaser) {
+            Recording previous = swapRecording();
+            long now = System.currentTimeMillis();
+            long skipped = getSkippedCalls();
+            ResultSnapshot snapshot = new ResultSnapshot(name, previous, now, getSamples(), skipped - unsampledBase);
+            unsampledBase = skipped;
+            previous.clear();
+
+            return snapshot;
+        }
+    }
+
+    /**
+     * Take a snapshot of the statistics since the last snapshot or clear, without starting a new interval. Every
+     * value in the snapshot is from the same moment: a single threaded result is locked while it is copied, the
+     * cells of a concurrent result are read again if a sample is added while they are copied.
+     *
+     * @return snapshot
+     */
+    public ResultSnapshot snapshot() {
+        return snapshot(true);
+    }
+
+    /**
+     * Take a snapshot without a reset
+     *
+     * @param withSamples, false to leave the samples out of the snapshot
+     * @return snapshot
+     */
+    ResultSnapshot snapshot(boolean withSamples) {
+        long[] copy = withSamples ? getSamples() : new long[0];
+        long unsampled = getSkippedCalls() - unsampledBase;
+        if (concurrent) {
+            return new ResultSnapshot(name, recording, System.currentTimeMillis(), copy, unsampled);
+        }
+        // the manager adds to a single threaded result with the result locked
+        synchronized (this) {
+            return new ResultSnapshot(name, recording, System.currentTimeMillis(), copy, unsampled);
+        }
+    }
+
+    /**
+     * Swap in the spare recording, and wait until no thread adds to the swapped out one.
+     *
+     * @return the swapped out recording, it must be cleared before it is swapped in again
+     */
+    private Recording swapRecording() {
+        synchronized (phaser) {
+            Recording next = spare;
+            if (next == null) {
+                next = new Recording(concurrent, significantDigits);
             } else {
-                min = time;
+                next.startMillis = System.currentTimeMillis();
             }
+            Recording previous = recording;
+            recording = next;
+            phaser.flipPhase();
+            spare = previous;
+
+            return previous;
         }
     }
 
@@ -247,7 +801,7 @@ public class Result implements Serializable {
     }
 
     public long getTotal() {
-        return total;
+        return recording.statistics.getTotal();
     }
 
     /**
@@ -257,6 +811,7 @@ public class Result implements Serializable {
      */
     @Override
     public String toString() {
-        return "probe name=" + name + ", #samples=" + nSamples + " , average=" + average + " , stdev=" + getStdev() + " ,max=" + max + " , min=" + min;
+        return "probe name=" + name + ", #samples=" + getNSamples() + " , average=" + getAverage() + " , stdev="
+                + getStdev() + " ,max=" + getMax() + " , min=" + getMin();
     }
 }
@@ -0,0 +1,234 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import java.io.*;
+
+/**
+ * ResultSnapshot holds the statistics of a Result over one interval, from the previous snapshot or clear up
+ * to this snapshot. It does not change once it is taken.
+ */
+public final class ResultSnapshot implements Statistics, Serializable {
+
+    private final String name;
+
+    private final long startMillis;
+
+    private final long endMillis;
+
+    private final Frozen statistics;
+
+    private final Frozen failures;
+
+    // null if the result has no histogram
+    private final Histogram histogram;
+
+    private final long[] samples;
+
+    private final long unsampled;
+
+    ResultSnapshot(String name, Recording recording, long endMillis, long[] samples, long unsampled) {
+        this.name = name;
+        this.startMillis = recording.startMillis;
+        this.endMillis = endMillis;
+        this.statistics = recording.statistics.freeze();
+        this.failures = recording.failures.freeze();
+        this.histogram = recording.histogram == null ? null : copy(recording.histogram);
+        this.samples = samples;
+        this.unsampled = unsampled;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the start of the interval
+     *
+     * @return millis since 1970
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * Get the end of the interval
+     *
+     * @return millis since 1970
+     */
+    public long getEndMillis() {
+        return endMillis;
+    }
+
+    public int getNSamples() {
+        return statistics.getNSamples();
+    }
+
+    public long getTotal() {
+        return statistics.getTotal();
+    }
+
+    public double getAverage() {
+        return statistics.getAverage();
+    }
+
+    public double getMax() {
+        return statistics.getMax();
+    }
+
+    public double getMin() {
+        return statistics.getMin();
+    }
+
+    public double getStdev() {
+        return statistics.getStdev();
+    }
+
+    /**
+     * Get the # of calls in the interval, the timed calls, the failed calls and the calls skipped by sampling
+     *
+     * @return # of calls
+     */
+    public long getInvocations() {
+        return (long) statistics.getNSamples() + failures.getNSamples() + unsampled;
+    }
+
+    /**
+     * Get the statistics of the failed calls in the interval
+     *
+     * @return failure statistics
+     */
+    public Statistics getFailures() {
+        return failures;
+    }
+
+    /**
+     * Get the histogram of the samples in the interval. It is a copy, changing it does not change the snapshot.
+     *
+     * @return histogram, null if the result has no histogram
+     */
+    public Histogram getHistogram() {
+        return histogram == null ? null : copy(histogram);
+    }
+
+    private static Histogram copy(Histogram h) {
+        Histogram copy = new Histogram(h.getHighestTrackableValue(), h.getSignificantDigits());
+        copy.add(h);
+
+        return copy;
+    }
+
+    /**
+     * Get the sample value that the given percentage of the samples in the interval are less than or equal to
+     *
+     * @param percentile 0.0 - 100.0
+     * @return sample value, 0 if there are no samples or no histogram
+     */
+    public long getPercentile(double percentile) {
+        if (histogram == null) {
+            return 0;
+        }
+
+        return Math.min(histogram.getValueAtPercentile(percentile), (long) getMax());
+    }
+
+    public long getP50() {
+        return getPercentile(50.0);
+    }
+
+    public long getP90() {
+        return getPercentile(90.0);
+    }
+
+    public long getP99() {
+        return getPercentile(99.0);
+    }
+
+    public long getP999() {
+        return getPercentile(99.9);
+    }
+
+    /**
+     * Get the most recent samples of the result when the snapshot was taken, oldest first. The samples are
+     * not limited to the interval.
+     *
+     * @return samples
+     */
+    public long[] getSamples() {
+        return samples.clone();
+    }
+
+    public String toString() {
+        return "probe name=" + name + ", #samples=" + getNSamples() + " , average=" + getAverage() + " , max="
+                + getMax() + " , min=" + getMin() + " , p99=" + getP99() + " , interval=" + (endMillis - startMillis)
+                + "ms";
+    }
+
+    // a copy of statistics
+    static final class Frozen implements Statistics, Serializable {
+        private final int nSamples;
+        private final long total;
+        private final double average;
+        private final double max;
+        private final double min;
+        private final double stdev;
+
+        Frozen(Statistics s) {
+            this(s.getNSamples(), s.getTotal(), s.getAverage(), s.getMax(), s.getMin(), s.getStdev());
+        }
+
+        Frozen(int nSamples, long total, double average, double max, double min, double stdev) {
+            this.nSamples = nSamples;
+            this.total = total;
+            this.average = average;
+            this.max = max;
+            this.min = min;
+            this.stdev = stdev;
+        }
+
+        public int getNSamples() {
+            return nSamples;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        public double getAverage() {
+            return average;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getStdev() {
+            return stdev;
+        }
+    }
+}
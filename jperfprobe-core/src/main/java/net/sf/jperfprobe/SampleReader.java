@@ -0,0 +1,244 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+
+/**
+ * SampleReader streams the samples written by SampleWriter, a buffer at a time, so files larger than the
+ * heap can be read. Move to a probe with nextProbe, then read its samples with nextSample:
+ * <pre>
+ * while (reader.nextProbe()) {
+ *     while (reader.nextSample()) {
+ *         use(reader.getName(), reader.getSample());
+ *     }
+ * }
+ * </pre>
+ */
+public class SampleReader implements Closeable {
+    // most samples kept by a result that is read
+    static final int MAX_RESULT_SAMPLES = 1 << 20;
+
+    private final ReadableByteChannel channel;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(SampleWriter.BUFFER_SIZE);
+
+    private boolean eof;
+
+    private boolean ended;
+
+    private String name;
+
+    private boolean timestamps;
+
+    private long scale;
+
+    private long count;
+
+    private long read;
+
+    private long value;
+
+    private long sample;
+
+    private long timestamp;
+
+    /**
+     * Constr
+     *
+     * @param file
+     * @throws IOException
+     */
+    public SampleReader(Path file) throws IOException {
+        this(FileChannel.open(file, StandardOpenOption.READ));
+    }
+
+    /**
+     * Constr, reading from the current position of a channel. The channel is closed with the reader.
+     *
+     * @param channel
+     * @throws IOException if it is not a sample file
+     */
+    public SampleReader(ReadableByteChannel channel) throws IOException {
+        this.channel = channel;
+        buffer.flip();
+        ensure(5);
+        if (buffer.getInt() != SampleWriter.MAGIC) {
+            throw new IOException("not a sample file");
+        }
+        byte version = buffer.get();
+        if (version != SampleWriter.VERSION) {
+            throw new IOException("unsupported version: " + version);
+        }
+    }
+
+    /**
+     * Move to the next probe, the samples left of the current probe are skipped
+     *
+     * @return false if there are no more probes
+     * @throws IOException
+     */
+    public boolean nextProbe() throws IOException {
+        while (nextSample()) {
+            // skip
+        }
+        if (ended) {
+            return false;
+        }
+        byte tag = get();
+        if (tag == SampleWriter.TAG_END) {
+            ended = true;
+            name = null;
+            return false;
+        }
+        if (tag != SampleWriter.TAG_PROBE) {
+            throw new IOException("corrupt sample file, unknown tag: " + tag);
+        }
+        byte[] bytes = new byte[(int) getVarint()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = get();
+        }
+        name = new String(bytes, StandardCharsets.UTF_8);
+        timestamps = (get() & SampleWriter.FLAG_TIMESTAMPS) != 0;
+        scale = getVarint();
+        count = getVarint();
+        read = 0;
+        value = 0;
+        timestamp = 0;
+
+        return true;
+    }
+
+    /**
+     * Move to the next sample of the current probe
+     *
+     * @return false if there are no more samples in the probe
+     * @throws IOException
+     */
+    public boolean nextSample() throws IOException {
+        if (read == count) {
+            return false;
+        }
+        value += SampleWriter.unzigzag(getVarint());
+        sample = value * scale;
+        if (timestamps) {
+            timestamp += SampleWriter.unzigzag(getVarint());
+        }
+        read++;
+
+        return true;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the # of samples of the current probe
+     *
+     * @return # of samples
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public boolean hasTimestamps() {
+        return timestamps;
+    }
+
+    public long getSample() {
+        return sample;
+    }
+
+    /**
+     * Get the timestamp of the current sample
+     *
+     * @return timestamp, 0 if the probe has none
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Read the samples left of the current probe into a new result. The statistics are of all the samples, the
+     * result keeps at most MAX_RESULT_SAMPLES of them.
+     *
+     * @return result
+     * @throws IOException
+     */
+    public Result readResult() throws IOException {
+        Result result = new Result(0, name, false, Histogram.DEFAULT_SIGNIFICANT_DIGITS,
+                (int) Math.max(Result.DEFAULT_MAXSAMPLES, Math.min(count - read, MAX_RESULT_SAMPLES)));
+        while (nextSample()) {
+            result.addSample(sample);
+        }
+
+        return result;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private long getVarint() throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = get();
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new IOException("corrupt sample file, varint too long");
+    }
+
+    private byte get() throws IOException {
+        if (!buffer.hasRemaining()) {
+            ensure(1);
+        }
+
+        return buffer.get();
+    }
+
+    // have at least n bytes in the buffer
+    private void ensure(int n) throws IOException {
+        if (buffer.remaining() >= n) {
+            return;
+        }
+        buffer.compact();
+        while (buffer.position() < n && !eof) {
+            if (channel.read(buffer) < 0) {
+                eof = true;
+            }
+        }
+        buffer.flip();
+        if (buffer.remaining() < n) {
+            throw new EOFException("sample file ends early");
+        }
+    }
+}
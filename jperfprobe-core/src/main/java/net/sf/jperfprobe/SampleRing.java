@@ -0,0 +1,151 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import java.io.*;
+import java.nio.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * SampleRing keeps the most recent samples of a Result, the oldest samples are overwritten. The buffer is
+ * allocated when the first sample is added, so a result that is never used costs no sample memory.
+ */
+final class SampleRing implements SampleStore {
+
+    private final int capacity;
+
+    private volatile long[] samples;
+
+    // # of samples added when single threaded
+    private long count;
+
+    // # of samples added when many threads are adding, null if single threaded
+    private final AtomicLong concurrentCount;
+
+    /**
+     * Constr
+     *
+     * @param capacity,   max # of samples kept
+     * @param concurrent, true if samples will be added from many threads at the same time
+     */
+    SampleRing(int capacity, boolean concurrent) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+        }
+        this.capacity = capacity;
+        this.concurrentCount = concurrent ? new AtomicLong() : null;
+    }
+
+    /**
+     * Create a ring holding samples, oldest first
+     *
+     * @param samples
+     * @param capacity
+     * @param concurrent
+     * @return ring
+     */
+    static SampleRing copyOf(long[] samples, int capacity, boolean concurrent) {
+        SampleRing ring = new SampleRing(capacity, concurrent);
+        for (long sample : samples) {
+            ring.add(sample);
+        }
+
+        return ring;
+    }
+
+    public void add(long time) {
+        long[] s = samples;
+        if (s == null) {
+            s = allocate();
+        }
+        if (concurrentCount == null) {
+            s[(int) (count++ % capacity)] = time;
+        } else {
+            // each thread claims its own slot, the index wraps around and can never pass the end of samples
+            s[(int) (concurrentCount.getAndIncrement() % capacity)] = time;
+        }
+    }
+
+    private synchronized long[] allocate() {
+        if (samples == null) {
+            samples = new long[capacity];
+        }
+
+        return samples;
+    }
+
+    public long[] getSamples() {
+        long[] s = samples;
+        long c = getCount();
+        int n = (int) Math.min(c, capacity);
+        long[] dest = new long[n];
+        if (s == null || n == 0) {
+            return dest;
+        }
+
+        int oldest = (int) ((c - n) % capacity);
+        int firstPart = Math.min(n, capacity - oldest);
+        System.arraycopy(s, oldest, dest, 0, firstPart);
+        System.arraycopy(s, 0, dest, firstPart, n - firstPart);
+
+        return dest;
+    }
+
+    public void visit(SampleVisitor visitor) {
+        long[] s = samples;
+        long c = getCount();
+        int n = (int) Math.min(c, capacity);
+        if (s == null || n == 0) {
+            return;
+        }
+
+        int oldest = (int) ((c - n) % capacity);
+        int firstPart = Math.min(n, capacity - oldest);
+        visitor.visit(LongBuffer.wrap(s, oldest, firstPart).asReadOnlyBuffer());
+        if (n > firstPart) {
+            visitor.visit(LongBuffer.wrap(s, 0, n - firstPart).asReadOnlyBuffer());
+        }
+    }
+
+    public long getCount() {
+        return concurrentCount == null ? count : concurrentCount.get();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void clear() {
+        if (concurrentCount == null) {
+            count = 0;
+        } else {
+            concurrentCount.set(0);
+        }
+    }
+
+    public synchronized void release() {
+        clear();
+        samples = null;
+    }
+}
@@ -0,0 +1,60 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+/**
+ * SampleStorage selects where a Result keeps its most recent samples.
+ */
+public enum SampleStorage {
+
+    /**
+     * A long[] on the heap, allocated when the first sample is added
+     */
+    HEAP {
+        SampleStore create(int capacity, boolean concurrent, OffHeapBudget budget) {
+            return new SampleRing(capacity, concurrent);
+        }
+    },
+
+    /**
+     * A direct ByteBuffer outside the heap, allocated with the full capacity when the first sample is added
+     */
+    DIRECT_RING {
+        SampleStore create(int capacity, boolean concurrent, OffHeapBudget budget) {
+            return new DirectSampleStore(capacity, concurrent, budget, capacity);
+        }
+    },
+
+    /**
+     * Direct ByteBuffer segments outside the heap, a new segment is allocated and reserved from the budget when the
+     * samples reach it. Suits large capacities that are seldom filled.
+     */
+    DIRECT_LOG {
+        SampleStore create(int capacity, boolean concurrent, OffHeapBudget budget) {
+            return new DirectSampleStore(capacity, concurrent, budget, DirectSampleStore.LOG_SEGMENT_SIZE);
+        }
+    };
+
+    abstract SampleStore create(int capacity, boolean concurrent, OffHeapBudget budget);
+}
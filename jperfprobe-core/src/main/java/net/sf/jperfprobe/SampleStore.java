@@ -0,0 +1,78 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import java.io.*;
+
+/**
+ * SampleStore keeps the most recent samples of a Result, the oldest samples are overwritten. Storage is allocated
+ * when the first sample is added.
+ */
+interface SampleStore extends Serializable {
+
+    /**
+     * Add a sample, the oldest sample is overwritten when the store is full.
+     *
+     * @param sample
+     */
+    void add(long sample);
+
+    /**
+     * Get a copy of the kept samples, oldest first
+     *
+     * @return samples
+     */
+    long[] getSamples();
+
+    /**
+     * Hand the kept samples to a visitor in blocks, oldest first, without copying them.
+     *
+     * @param visitor
+     */
+    void visit(SampleVisitor visitor);
+
+    /**
+     * Get the # of samples added since the store was created or cleared
+     *
+     * @return count
+     */
+    long getCount();
+
+    /**
+     * Get the max # of samples kept
+     *
+     * @return capacity
+     */
+    int getCapacity();
+
+    /**
+     * Forget all samples, the storage is kept for reuse.
+     */
+    void clear();
+
+    /**
+     * Forget all samples and give back the storage, it is allocated again if more samples are added.
+     */
+    void release();
+}
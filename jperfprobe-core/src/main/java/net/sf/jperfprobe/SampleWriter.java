@@ -0,0 +1,242 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+
+/**
+ * SampleWriter writes samples in a compact binary format, read them back with SampleReader.
+ * <p/>
+ * The file starts with the magic "JPPS" and a version byte, then a block for each probe:
+ * <pre>
+ * tag (1), name length (varint), name (UTF-8), flags (1), scale (varint), count (varint),
+ * count times: sample delta (zigzag varint) [timestamp delta (zigzag varint)]
+ * </pre>
+ * and ends with tag 0. The samples are divided by the scale, the greatest common divisor of the samples, so
+ * samples from a coarse clock are stored as ticks. Each sample is stored as the difference to the previous,
+ * zigzag encoded so small negative differences are small numbers, in 7 bit groups. A writer with a resolution
+ * rounds the samples to it first, which is lossy but makes nanosecond samples as small as ticks.
+ * <p/>
+ * Compared to a long[] samples from a millisecond clock, or rounded to a resolution, are 5 times smaller or more.
+ * Exact nanosecond latencies are only about 2.3 times smaller, their low bits are noise that no lossless format
+ * can leave out.
+ */
+public class SampleWriter implements Closeable {
+    static final int MAGIC = 0x4A505053;
+
+    static final byte VERSION = 1;
+
+    static final byte TAG_END = 0;
+
+    static final byte TAG_PROBE = 1;
+
+    static final int FLAG_TIMESTAMPS = 1;
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    // the longest varint
+    private static final int MAX_VARINT = 10;
+
+    private final FileChannel channel;
+
+    private final long resolution;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    private long bytesWritten;
+
+    private boolean closed;
+
+    /**
+     * Constr, creates or truncates a file
+     *
+     * @param file
+     * @throws IOException
+     */
+    public SampleWriter(Path file) throws IOException {
+        this(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE), 1);
+    }
+
+    /**
+     * Constr, writing from the current position of a channel. The channel is closed with the writer.
+     *
+     * @param channel
+     * @param resolution, in nanos the samples are rounded to, 1 to store them exactly
+     * @throws IOException
+     */
+    public SampleWriter(FileChannel channel, long resolution) throws IOException {
+        if (resolution <= 0) {
+            throw new IllegalArgumentException("resolution must be positive: " + resolution);
+        }
+        this.channel = channel;
+        this.resolution = resolution;
+        buffer.putInt(MAGIC);
+        buffer.put(VERSION);
+    }
+
+    /**
+     * Write the samples of a result, oldest first
+     *
+     * @param result
+     * @throws IOException
+     */
+    public void write(Result result) throws IOException {
+        write(result.getName(), result.getSamples(), null);
+    }
+
+    /**
+     * Write the samples of a probe
+     *
+     * @param name       of the probe
+     * @param samples
+     * @param timestamps of the samples, null if none
+     * @throws IOException
+     */
+    public void write(String name, long[] samples, long[] timestamps) throws IOException {
+        if (closed) {
+            throw new IOException("writer is closed");
+        }
+        if (timestamps != null && timestamps.length != samples.length) {
+            throw new IllegalArgumentException("a timestamp is needed for each sample: " + timestamps.length
+                    + " != " + samples.length);
+        }
+        long scale = 0;
+        for (long s : samples) {
+            scale = gcd(scale, round(s));
+        }
+        if (scale == 0) {
+            scale = 1;
+        }
+
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        ensure(1 + MAX_VARINT);
+        buffer.put(TAG_PROBE);
+        putVarint(bytes.length);
+        for (byte b : bytes) {
+            ensure(1);
+            buffer.put(b);
+        }
+        ensure(1 + 2 * MAX_VARINT);
+        buffer.put((byte) (timestamps != null ? FLAG_TIMESTAMPS : 0));
+        putVarint(scale);
+        putVarint(samples.length);
+
+        long previous = 0;
+        long previousTimestamp = 0;
+        for (int i = 0; i < samples.length; i++) {
+            ensure(2 * MAX_VARINT);
+            long value = round(samples[i]) / scale;
+            putVarint(zigzag(value - previous));
+            previous = value;
+            if (timestamps != null) {
+                putVarint(zigzag(timestamps[i] - previousTimestamp));
+                previousTimestamp = timestamps[i];
+            }
+        }
+    }
+
+    /**
+     * Write the buffered bytes to the channel
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            bytesWritten += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Get the # of bytes written to the channel so far
+     *
+     * @return bytes
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Write the end of the file and close the channel
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            ensure(1);
+            buffer.put(TAG_END);
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private long round(long sample) {
+        return resolution == 1 ? sample : Math.floorDiv(sample + resolution / 2, resolution) * resolution;
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void putVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static long gcd(long a, long b) {
+        a = Math.abs(a);
+        b = Math.abs(b);
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+
+        return a;
+    }
+}
@@ -0,0 +1,120 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import java.io.*;
+import java.util.concurrent.*;
+
+/**
+ * Sampling tells which calls of a probe are timed. The calls that are not timed do not read the time at all, they
+ * are only counted, so very hot probes can be kept on. Each thread counts down to its next timed call, a skipped
+ * call is counted in the result when it is made.
+ */
+public final class Sampling implements Serializable {
+
+    // 0 if the calls are sampled by probability
+    private final int every;
+
+    private final double probability;
+
+    private Sampling(int every, double probability) {
+        this.every = every;
+        this.probability = probability;
+    }
+
+    /**
+     * Time one call out of every n calls
+     *
+     * @param n, 1 times every call
+     * @return sampling
+     */
+    public static Sampling everyNth(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("n must be at least 1: " + n);
+        }
+
+        return new Sampling(n, 1.0 / n);
+    }
+
+    /**
+     * Time each call with the given probability
+     *
+     * @param p, 0 - 1, 1 times every call
+     * @return sampling
+     */
+    public static Sampling probability(double p) {
+        if (!(p > 0.0 && p <= 1.0)) {
+            throw new IllegalArgumentException("probability must be above 0 and at most 1: " + p);
+        }
+
+        return new Sampling(0, p);
+    }
+
+    /**
+     * Get the share of the calls that are timed
+     *
+     * @return probability
+     */
+    public double getProbability() {
+        return probability;
+    }
+
+    /**
+     * Get the # of calls from a timed call to the next timed call. For a probability the interval is geometric,
+     * which gives each call the same chance without drawing a random number for every call.
+     *
+     * @return interval, at least 1
+     */
+    int nextInterval() {
+        if (every > 0) {
+            return every;
+        }
+        if (probability >= 1.0) {
+            return 1;
+        }
+        double u = 1.0 - ThreadLocalRandom.current().nextDouble();
+        double interval = 1 + Math.floor(Math.log(u) / Math.log(1.0 - probability));
+
+        return interval >= Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) interval;
+    }
+
+    /**
+     * Tell if a call is timed, for calls that keep no count between them. Each call is drawn on its own with the
+     * same share of timed calls.
+     *
+     * @return true if the call is timed
+     */
+    boolean sample() {
+        if (every > 0) {
+            return every == 1 || ThreadLocalRandom.current().nextInt(every) == 0;
+        }
+
+        return probability >= 1.0 || ThreadLocalRandom.current().nextDouble() < probability;
+    }
+
+    @Override
+    public String toString() {
+        return every > 0 ? "sampling 1 in " + every : "sampling probability " + probability;
+    }
+}
@@ -0,0 +1,100 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+/**
+ * Accumulator for one recording thread at a time, the values are plain fields.
+ */
+final class SimpleAccumulator extends Accumulator {
+
+    // current number of samples.
+    private int nSamples;
+
+    // maximum registered time sample.
+    private double max;
+
+    // minimum registered time sample.
+    private double min;
+
+    // average time calculated from all samples, even the discarded ones.
+    private double average;
+
+    private long total;
+
+    private double squareSum;
+
+    void add(long time) {
+        total += time;
+        average = (average * (double) nSamples + (double) time) / (double) ++nSamples;
+        squareSum += time * time;
+
+        if (time > max) {
+            max = time;
+        }
+        if (nSamples > 1) {
+            if (time < min) {
+                min = time;
+            }
+        } else {
+            min = time;
+        }
+    }
+
+    void clear() {
+        max = 0.0;
+        min = 0.0;
+        nSamples = 0;
+        average = 0.0;
+        total = 0;
+        squareSum = 0.0;
+    }
+
+    public int getNSamples() {
+        return nSamples;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public double getAverage() {
+        return average;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    double getSquareSum() {
+        return squareSum;
+    }
+
+    public double getStdev() {
+        return stdev(nSamples, total, squareSum);
+    }
+}
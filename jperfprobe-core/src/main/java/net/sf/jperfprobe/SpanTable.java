@@ -0,0 +1,223 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import org.slf4j.*;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * SpanTable holds the running spans of a manager, a span is started in one thread and can be stopped in any
+ * other. The table is allocated once, a span is a slot in it and its token is a long of the slot index and the
+ * generation of the slot, so starting and stopping a span creates no objects. A token that is stopped twice,
+ * or after its slot is reused, has an old generation and is ignored.
+ * <p/>
+ * Each slot has a state of generation << 2 | FREE, CLAIMED or RUNNING. A slot is claimed with a CAS, its fields
+ * are written, then it is RUNNING and the token is given out. A stop frees the slot with a CAS that also steps
+ * the generation. A span that runs longer than the timeout is taken as leaked, the sweep frees its slot and
+ * counts it. The sweep is done each time the claims have gone once round the table.
+ */
+final class SpanTable {
+    private static final Logger log = LoggerFactory.getLogger(SpanTable.class);
+
+    /**
+     * A token that is no span, returned when the table is full
+     */
+    static final long NO_TOKEN = 0;
+
+    private static final int FREE = 0;
+    private static final int CLAIMED = 1;
+    private static final int RUNNING = 3;
+    private static final int STATE_BITS = 2;
+
+    // slots tried by a start before it gives up
+    private static final int MAX_PROBES = 64;
+
+    private final int mask;
+
+    private final long timeoutNanos;
+
+    private final AtomicLongArray states;
+
+    private final long[] startTimes;
+
+    private final Result[] results;
+
+    private final Time[] times;
+
+    private final AtomicInteger cursor = new AtomicInteger();
+
+    private final AtomicLong leaked = new AtomicLong();
+
+    private final AtomicLong overflows = new AtomicLong();
+
+    /**
+     * Constr
+     *
+     * @param capacity,     # of spans running at the same time, rounded up to a power of 2
+     * @param timeoutNanos, a span running longer is leaked, 0 to never sweep
+     */
+    SpanTable(int capacity, long timeoutNanos) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30: " + capacity);
+        }
+        int powerOf2 = 1;
+        while (powerOf2 < capacity) {
+            powerOf2 <<= 1;
+        }
+        mask = powerOf2 - 1;
+        this.timeoutNanos = timeoutNanos;
+        states = new AtomicLongArray(powerOf2);
+        // generation 1, a token is never 0
+        for (int i = 0; i < powerOf2; i++) {
+            states.set(i, 1L << STATE_BITS);
+        }
+        startTimes = new long[powerOf2];
+        results = new Result[powerOf2];
+        times = new Time[powerOf2];
+    }
+
+    /**
+     * Start a span
+     *
+     * @param result the span is added to
+     * @param time   of the span
+     * @return token, NO_TOKEN if the table is full
+     */
+    long start(Result result, Time time) {
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int c = cursor.getAndIncrement();
+            int slot = c & mask;
+            if (slot == 0 && timeoutNanos > 0 && c != 0) {
+                sweep();
+            }
+            long s = states.get(slot);
+            if ((s & RUNNING) == FREE && states.compareAndSet(slot, s, s | CLAIMED)) {
+                results[slot] = result;
+                times[slot] = time;
+                startTimes[slot] = time.getNanos();
+                states.set(slot, s | RUNNING);
+
+                return (s >>> STATE_BITS) << 32 | slot;
+            }
+        }
+        overflows.incrementAndGet();
+
+        return NO_TOKEN;
+    }
+
+    /**
+     * Stop a span and get its elapsed time
+     *
+     * @param token   of the span
+     * @param manager to add the sample to
+     * @param success false to add it as a failure
+     * @return false if the token is not a running span
+     */
+    boolean stop(long token, ProbeManagerImpl manager, boolean success) {
+        long slot = token & 0xFFFFFFFFL;
+        if (token == NO_TOKEN || slot > mask) {
+            return false;
+        }
+        int i = (int) slot;
+        long s = states.get(i);
+        if ((s & RUNNING) != RUNNING || (int) (s >>> STATE_BITS) != (int) (token >>> 32)) {
+            // stopped, leaked or another generation
+            return false;
+        }
+        // the fields are read before the slot is freed, it can be claimed again right after
+        Result result = results[i];
+        long elapsed = times[i].getNanos() - startTimes[i];
+        if (!states.compareAndSet(i, s, next(s))) {
+            return false;
+        }
+        manager.add(result, elapsed, success);
+
+        return true;
+    }
+
+    // free with the next generation
+    private static long next(long running) {
+        return ((running >>> STATE_BITS) + 1) << STATE_BITS;
+    }
+
+    /**
+     * Free the slots of spans running longer than the timeout
+     *
+     * @return # of leaked spans found
+     */
+    int sweep() {
+        if (timeoutNanos <= 0) {
+            return 0;
+        }
+        int found = 0;
+        String example = null;
+        for (int i = 0; i <= mask; i++) {
+            long s = states.get(i);
+            if ((s & RUNNING) == RUNNING && times[i].getNanos() - startTimes[i] > timeoutNanos) {
+                Result r = results[i];
+                if (states.compareAndSet(i, s, next(s))) {
+                    found++;
+                    if (example == null && r != null) {
+                        example = r.getName();
+                    }
+                }
+            }
+        }
+        if (found > 0) {
+            leaked.addAndGet(found);
+            log.warn(found + " spans were never stopped, e.g. of probe " + example);
+        }
+
+        return found;
+    }
+
+    int getCapacity() {
+        return mask + 1;
+    }
+
+    long getLeaked() {
+        return leaked.get();
+    }
+
+    long getOverflows() {
+        return overflows.get();
+    }
+
+    /**
+     * Get the # of running spans
+     *
+     * @return # of spans
+     */
+    int getRunning() {
+        int n = 0;
+        for (int i = 0; i <= mask; i++) {
+            if ((states.get(i) & RUNNING) == RUNNING) {
+                n++;
+            }
+        }
+
+        return n;
+    }
+}
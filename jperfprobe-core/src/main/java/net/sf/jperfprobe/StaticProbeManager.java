@@ -26,7 +26,13 @@ package net.sf.jperfprobe;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Collection;
+import java.util.List;
 
 /**
  * The ProbeManager is the probe factory. It makes it possible start start and stop a probe.
@@ -41,8 +47,22 @@ import java.util.Collection;
 public final class StaticProbeManager {
     final Logger log = LoggerFactory.getLogger(StaticProbeManager.class);
 
+    /**
+     * Name of the static manager in the platform MBean server
+     */
+    public static final String MBEAN_NAME = "net.sf.jperfprobe:type=ProbeManager,name=static";
+
     private static ProbeManager probeManager = new ProbeManagerImpl();
 
+    static {
+        // the probes are visible in jconsole without code changes
+        try {
+            probeManager.registerMBean(new ObjectName(MBEAN_NAME));
+        } catch (JMException e) {
+            LoggerFactory.getLogger(StaticProbeManager.class).warn("could not register " + MBEAN_NAME, e);
+        }
+    }
+
     private StaticProbeManager() {
     }
 
@@ -110,6 +130,29 @@ public final class StaticProbeManager {
         probeManager.stop(probeName);
     }
 
+    /**
+     * Get a handle for a probe. The name is looked up once, starting and stopping through the handle
+     * goes straight to the result.
+     *
+     * @param probeName name of existing or new probe
+     * @return handle
+     */
+    public static ProbeHandle handle(String probeName) {
+        return probeManager.handle(probeName);
+    }
+
+    /**
+     * Get a handle for a probe, with a concurrent result if the probe is new. A handle used with begin and end
+     * needs a concurrent result.
+     *
+     * @param probeName  name of existing or new probe
+     * @param concurrent true to create the result of a new probe concurrent
+     * @return handle
+     */
+    public static ProbeHandle handle(String probeName, boolean concurrent) {
+        return probeManager.handle(probeName, concurrent);
+    }
+
     /**
      * Add a sample from a probe. The probe does not need to be managed by ProbeManager
      *
@@ -163,6 +206,399 @@ public final class StaticProbeManager {
         probeManager.setFirstSamplesToSkip(_firstSamplesToSkip);
     }
 
+    /**
+     * Make new results concurrent, so samples can be added to the same result from many threads
+     * at the same time. Existing results are not changed.
+     *
+     * @param concurrent
+     */
+    public static void setConcurrentResults(boolean concurrent) {
+        probeManager.setConcurrentResults(concurrent);
+    }
+
+    public static boolean isConcurrentResults() {
+        return probeManager.isConcurrentResults();
+    }
+
+    /**
+     * Set the number of significant digits in the histograms of new results, 0 turns the histogram off.
+     *
+     * @param digits 0-5
+     */
+    public static void setSignificantDigits(int digits) {
+        probeManager.setSignificantDigits(digits);
+    }
+
+    public static int getSignificantDigits() {
+        return probeManager.getSignificantDigits();
+    }
+
+    /**
+     * Set the # of most recent samples new results keep, 0 keeps statistics only.
+     *
+     * @param capacity # of samples
+     */
+    public static void setSampleCapacity(int capacity) {
+        probeManager.setSampleCapacity(capacity);
+    }
+
+    public static int getSampleCapacity() {
+        return probeManager.getSampleCapacity();
+    }
+
+    /**
+     * Set the # of most recent samples a named probe keeps, 0 keeps statistics only.
+     *
+     * @param probeName
+     * @param capacity  # of samples
+     */
+    public static void setSampleCapacity(String probeName, int capacity) {
+        probeManager.setSampleCapacity(probeName, capacity);
+    }
+
+    /**
+     * Set where new results keep their samples, on the heap or off-heap in direct memory.
+     *
+     * @param storage
+     */
+    public static void setSampleStorage(SampleStorage storage) {
+        probeManager.setSampleStorage(storage);
+    }
+
+    public static SampleStorage getSampleStorage() {
+        return probeManager.getSampleStorage();
+    }
+
+    /**
+     * Set the factory of the quantile sketches that estimate the percentiles of new results.
+     *
+     * @param factory, null to use the histogram
+     */
+    public static void setQuantileSketchFactory(QuantileSketch.Factory factory) {
+        probeManager.setQuantileSketchFactory(factory);
+    }
+
+    public static QuantileSketch.Factory getQuantileSketchFactory() {
+        return probeManager.getQuantileSketchFactory();
+    }
+
+    /**
+     * Time only some of the calls of a named probe, the calls that are not timed are only counted.
+     *
+     * @param probeName
+     * @param sampling,  null to time every call
+     */
+    public static void setSampling(String probeName, Sampling sampling) {
+        probeManager.setSampling(probeName, sampling);
+    }
+
+    public static Sampling getSampling(String probeName) {
+        return probeManager.getSampling(probeName);
+    }
+
+    /**
+     * Take a snapshot of a named probe since its last snapshot or clear, and start a new interval without
+     * pausing the threads that record to it.
+     *
+     * @param probeName
+     * @return snapshot of the interval
+     */
+    public static ResultSnapshot snapshotAndReset(String probeName) {
+        return probeManager.snapshotAndReset(probeName);
+    }
+
+    /**
+     * Take a snapshot of all probes since their last snapshot or clear, and start a new interval without
+     * pausing the threads that record to them.
+     *
+     * @return snapshots of the intervals
+     */
+    public static List<ResultSnapshot> snapshotAndReset() {
+        return probeManager.snapshotAndReset();
+    }
+
+    /**
+     * Keep statistics of recent time buckets in new results, so the last minutes can be read with getWindow.
+     *
+     * @param bucketWidth, width of each bucket
+     * @param buckets,     # of buckets, 0 to keep no buckets
+     */
+    public static void setTimeWindows(Duration bucketWidth, int buckets) {
+        probeManager.setTimeWindows(bucketWidth, buckets);
+    }
+
+    /**
+     * Keep a reservoir of samples biased toward the recent ones in new results, besides the most recent samples.
+     *
+     * @param size,  # of samples in the reservoir, 0 to keep no reservoir
+     * @param alpha, decay factor per second
+     */
+    public static void setDecayingReservoir(int size, double alpha) {
+        probeManager.setDecayingReservoir(size, alpha);
+    }
+
+    /**
+     * Hand the samples to a background aggregator thread instead of adding them from the recording thread.
+     *
+     * @param capacity, # of samples in the ring of each thread, 0 to stop asynchronous recording
+     * @param policy,   what to do with a sample when the ring is full
+     */
+    public static void setAsyncRecording(int capacity, BackpressurePolicy policy) {
+        probeManager.setAsyncRecording(capacity, policy);
+    }
+
+    /**
+     * Register the manager in the platform MBean server, with an attribute for each probe.
+     *
+     * @param name, null for a name made from the identity of the manager
+     * @return the name it is registered with
+     * @throws JMException
+     */
+    public static ObjectName registerMBean(ObjectName name) throws JMException {
+        return probeManager.registerMBean(name);
+    }
+
+    /**
+     * Unregister the manager from the platform MBean server, if it is registered
+     *
+     * @throws JMException
+     */
+    public static void unregisterMBean() throws JMException {
+        probeManager.unregisterMBean();
+    }
+
+    /**
+     * Begin timing a call of a named probe, the start time is kept by the caller and passed to end. No state is
+     * kept for the thread, for use from virtual threads.
+     *
+     * @param probeName
+     * @return start time, ProbeManagerImpl.NOT_TIMED if the call is not timed
+     */
+    public static long begin(String probeName) {
+        return probeManager.begin(probeName);
+    }
+
+    /**
+     * End timing a call of a named probe, and add the elapsed time as a sample
+     *
+     * @param probeName
+     * @param begin     start time from begin
+     */
+    public static void end(String probeName, long begin) {
+        probeManager.end(probeName, begin);
+    }
+
+    /**
+     * End timing a call of a named probe, and add the elapsed time as a sample or as a failure
+     *
+     * @param probeName
+     * @param begin     start time from begin
+     * @param success   false to add the elapsed time to the failures
+     */
+    public static void end(String probeName, long begin, boolean success) {
+        probeManager.end(probeName, begin, success);
+    }
+
+    /**
+     * Start a span of a named probe, the token can be stopped from any thread with stopSpan.
+     *
+     * @param probeName
+     * @return token of the span, 0 if the call is not timed or too many spans are running
+     */
+    public static long startSpan(String probeName) {
+        return probeManager.startSpan(probeName);
+    }
+
+    /**
+     * Stop a span from any thread, and add its elapsed time as a sample
+     *
+     * @param token from startSpan
+     * @return false if the token is not a running span
+     */
+    public static boolean stopSpan(long token) {
+        return probeManager.stopSpan(token);
+    }
+
+    /**
+     * Stop a span from any thread, and add its elapsed time as a sample or as a failure
+     *
+     * @param token   from startSpan
+     * @param success false to add the elapsed time to the failures
+     * @return false if the token is not a running span
+     */
+    public static boolean stopSpan(long token, boolean success) {
+        return probeManager.stopSpan(token, success);
+    }
+
+    /**
+     * Set the # of spans that can run at the same time, and how long a span can run before it is taken as leaked.
+     *
+     * @param capacity, # of spans
+     * @param timeout,  null or zero to never take a span as leaked
+     */
+    public static void setSpans(int capacity, Duration timeout) {
+        probeManager.setSpans(capacity, timeout);
+    }
+
+    /**
+     * Free the spans that have run longer than the span timeout
+     *
+     * @return # of leaked spans found
+     */
+    public static int sweepSpans() {
+        return probeManager.sweepSpans();
+    }
+
+    /**
+     * Get the # of spans that were never stopped
+     *
+     * @return # of spans
+     */
+    public static long getLeakedSpans() {
+        return probeManager.getLeakedSpans();
+    }
+
+    /**
+     * Get the # of spans that were not started because too many spans were running
+     *
+     * @return # of spans
+     */
+    public static long getSpanOverflows() {
+        return probeManager.getSpanOverflows();
+    }
+
+    public static int getRunningSpans() {
+        return probeManager.getRunningSpans();
+    }
+
+    /**
+     * Keep a call tree for each thread, a probe started while another probe of the thread is running is a child
+     * of it.
+     *
+     * @param maxDepth, deepest level of the tree, 0 to keep no call trees
+     * @param maxNodes, most nodes in the tree of a thread
+     */
+    public static void setCallTree(int maxDepth, int maxNodes) {
+        probeManager.setCallTree(maxDepth, maxNodes);
+    }
+
+    public static boolean isCallTree() {
+        return probeManager.isCallTree();
+    }
+
+    /**
+     * Get the call tree, merged from the trees of all threads
+     *
+     * @return root of the tree, null if there are no call trees
+     */
+    public static CallNode getCallTree() {
+        return probeManager.getCallTree();
+    }
+
+    /**
+     * Log every raw sample the manager times to a memory-mapped circular file, that survives a crash of the JVM.
+     *
+     * @param file,     created or overwritten, null to stop the flight recorder
+     * @param capacity, # of samples kept
+     * @throws IOException
+     */
+    public static void setFlightRecorder(Path file, int capacity) throws IOException {
+        probeManager.setFlightRecorder(file, capacity);
+    }
+
+    public static FlightRecorder getFlightRecorder() {
+        return probeManager.getFlightRecorder();
+    }
+
+    /**
+     * Add all samples that are handed to the aggregator so far to their results.
+     */
+    public static void flush() {
+        probeManager.flush();
+    }
+
+    public static long getDroppedSamples() {
+        return probeManager.getDroppedSamples();
+    }
+
+    /**
+     * Measure the overhead of timing an empty region with start and stop. The calibration replaces the
+     * previous one.
+     *
+     * @return calibration
+     */
+    public static Calibration calibrate() {
+        return probeManager.calibrate();
+    }
+
+    public static Calibration getCalibration() {
+        return probeManager.getCalibration();
+    }
+
+    /**
+     * Subtract the calibrated overhead from every sample added from now on.
+     *
+     * @param subtract
+     */
+    public static void setBiasSubtraction(boolean subtract) {
+        probeManager.setBiasSubtraction(subtract);
+    }
+
+    public static boolean isBiasSubtraction() {
+        return probeManager.isBiasSubtraction();
+    }
+
+    /**
+     * Set how often the manager is calibrated again
+     *
+     * @param interval, null or zero to calibrate only on demand
+     */
+    public static void setCalibrationInterval(Duration interval) {
+        probeManager.setCalibrationInterval(interval);
+    }
+
+    public static Duration getCalibrationInterval() {
+        return probeManager.getCalibrationInterval();
+    }
+
+    /**
+     * Tell if the average of a named probe is too short to be measured reliably
+     *
+     * @param probeName
+     * @return true if the probe has samples and they are too short
+     */
+    public static boolean isTooShort(String probeName) {
+        return probeManager.isTooShort(probeName);
+    }
+
+    /**
+     * Get the statistics of a named probe within a duration back from now
+     *
+     * @param probeName
+     * @param duration  of the window
+     * @return statistics of the window
+     */
+    public static Window getWindow(String probeName, Duration duration) {
+        return probeManager.getWindow(probeName, duration);
+    }
+
+    /**
+     * Set the max # of bytes of direct memory the off-heap samples can reserve.
+     *
+     * @param bytes
+     */
+    public static void setOffHeapBudget(long bytes) {
+        probeManager.setOffHeapBudget(bytes);
+    }
+
+    public static long getOffHeapBudget() {
+        return probeManager.getOffHeapBudget();
+    }
+
+    public static long getOffHeapReserved() {
+        return probeManager.getOffHeapReserved();
+    }
+
     /**
      * Get the current presentation for the manager
      *
@@ -181,6 +617,20 @@ public final class StaticProbeManager {
         probeManager.setTime(tim);
     }
 
+    /**
+     * Set the Time implementation of a named probe, before the probe is used.
+     *
+     * @param probeName
+     * @param tim,      null to use the time of the manager
+     */
+    public static void setTime(String probeName, Time tim) {
+        probeManager.setTime(probeName, tim);
+    }
+
+    public static Time getTime(String probeName) {
+        return probeManager.getTime(probeName);
+    }
+
     /**
      * Get result as a string
      *
@@ -191,6 +641,16 @@ public final class StaticProbeManager {
         return probeManager.toString(probe);
     }
 
+    /**
+     * Write the samples of all probes to a file in the compact format of SampleWriter
+     *
+     * @param file, created or truncated
+     * @throws IOException
+     */
+    public static void writeSamples(Path file) throws IOException {
+        probeManager.writeSamples(file);
+    }
+
     /**
      * Get all samples from a probe, as a string newline delimited
      *
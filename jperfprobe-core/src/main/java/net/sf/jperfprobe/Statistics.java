@@ -0,0 +1,72 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+/**
+ * Statistics calculated from a set of time samples, all values are in nanos.
+ */
+public interface Statistics {
+
+    /**
+     * Get the number of samples
+     *
+     * @return # of samples
+     */
+    int getNSamples();
+
+    /**
+     * Get the sum of all samples
+     *
+     * @return total
+     */
+    long getTotal();
+
+    /**
+     * Get the average of all samples
+     *
+     * @return average
+     */
+    double getAverage();
+
+    /**
+     * Get the largest sample, 0 if there are no samples
+     *
+     * @return max
+     */
+    double getMax();
+
+    /**
+     * Get the smallest sample, 0 if there are no samples
+     *
+     * @return min
+     */
+    double getMin();
+
+    /**
+     * Get the sample standard deviation
+     *
+     * @return stdev
+     */
+    double getStdev();
+}
@@ -0,0 +1,115 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Accumulator for many recording threads. Every value is kept in striped cells (LongAdder and friends),
+ * so threads recording to the same probe do not fight over one cache line. A read merges the cells.
+ */
+final class StripedAccumulator extends Accumulator {
+
+    private final LongAdder nSamples = new LongAdder();
+
+    private final LongAdder total = new LongAdder();
+
+    private final DoubleAdder squareSum = new DoubleAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+    private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+
+    // reads of the cells before a copy is taken as it is
+    private static final int FREEZE_ATTEMPTS = 10;
+
+    void add(long time) {
+        total.add(time);
+        squareSum.add((double) time * time);
+        max.accumulate(time);
+        min.accumulate(time);
+        nSamples.increment();
+    }
+
+    void clear() {
+        nSamples.reset();
+        total.reset();
+        squareSum.reset();
+        max.reset();
+        min.reset();
+    }
+
+    /**
+     * Copy the statistics from one read of the cells, read again if a sample was counted while reading. Only
+     * the samples being added during the last read can be in some of the values and not in others.
+     *
+     * @return copy
+     */
+    ResultSnapshot.Frozen freeze() {
+        for (int attempt = 1; ; attempt++) {
+            long n = nSamples.sum();
+            long t = total.sum();
+            double sq = squareSum.sum();
+            long mx = max.get();
+            long mn = min.get();
+            if ((t == total.sum() && n == nSamples.sum()) || attempt == FREEZE_ATTEMPTS) {
+                if (n == 0) {
+                    return new ResultSnapshot.Frozen(0, 0, 0.0, 0.0, 0.0, 0.0);
+                }
+
+                return new ResultSnapshot.Frozen((int) n, t, (double) t / n, mx, mn, stdev(n, t, sq));
+            }
+        }
+    }
+
+    public int getNSamples() {
+        return nSamples.intValue();
+    }
+
+    public long getTotal() {
+        return total.sum();
+    }
+
+    public double getAverage() {
+        long n = nSamples.sum();
+
+        return n == 0 ? 0.0 : (double) total.sum() / n;
+    }
+
+    public double getMax() {
+        return nSamples.sum() == 0 ? 0.0 : max.get();
+    }
+
+    public double getMin() {
+        return nSamples.sum() == 0 ? 0.0 : min.get();
+    }
+
+    double getSquareSum() {
+        return squareSum.sum();
+    }
+
+    public double getStdev() {
+        return stdev(nSamples.sum(), total.sum(), squareSum.sum());
+    }
+}
@@ -0,0 +1,428 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * TDigest is a merging t-digest, a QuantileSketch that keeps the samples as a bounded # of centroids. The
+ * centroids are small near the ends of the distribution, so the tail percentiles are the most accurate ones.
+ * See Dunning and Ertl, "Computing extremely accurate quantiles using t-digests".
+ * <p/>
+ * A TDigest can be shared by many threads. The adding threads buffer their samples in stripes, a thread only
+ * locks its own stripe, so threads adding to the same digest rarely wait for each other. The buffers are sorted
+ * and merged into the centroids when the digest is read. When too many full buffers wait for a read, the thread
+ * that fills one more merges them, unless another thread is merging already.
+ */
+public class TDigest implements QuantileSketch, Serializable {
+
+    /**
+     * default compression, about 2 * compression centroids are kept
+     */
+    public static final double DEFAULT_COMPRESSION = 100;
+
+    private static final double[] EMPTY = new double[0];
+
+    private final double compression;
+
+    // buffers of the adding threads, on the thread id
+    private final Stripe[] stripes;
+
+    private final int bufferSize;
+
+    // full stripe buffers waiting to be merged
+    private final Queue<double[]> full = new ConcurrentLinkedQueue<double[]>();
+    private final AtomicInteger fullBuffers = new AtomicInteger();
+
+    // merged buffers, reused by the stripes
+    private final Queue<double[]> spare = new ConcurrentLinkedQueue<double[]>();
+
+    // guards the centroids, taken by the reads and by the merges
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // merged centroids, sorted by mean
+    private double[] mean;
+    private double[] weight;
+    private int centroids;
+
+    // # of samples in the centroids
+    private long centroidWeight;
+
+    // merge space, swapped with the centroids
+    private double[] mergedMean;
+    private double[] mergedWeight;
+
+    // # of samples merged from other digests
+    private volatile long mergedCount;
+
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public TDigest() {
+        this(DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Constr
+     *
+     * @param compression, higher compression keeps more centroids and gives better accuracy, at least 10
+     */
+    public TDigest(double compression) {
+        if (compression < 10) {
+            throw new IllegalArgumentException("compression must be at least 10: " + compression);
+        }
+        this.compression = compression;
+        int size = (int) Math.ceil(compression) * 2 + 10;
+        mean = new double[size];
+        weight = new double[size];
+        mergedMean = new double[size];
+        mergedWeight = new double[size];
+        bufferSize = size * 5;
+
+        int n = 1;
+        int processors = Runtime.getRuntime().availableProcessors();
+        while (n < processors && n < 16) {
+            n <<= 1;
+        }
+        stripes = new Stripe[n];
+        for (int i = 0; i < n; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Get a factory of digests with the given compression
+     *
+     * @param compression
+     * @return factory
+     */
+    public static QuantileSketch.Factory factory(final double compression) {
+        return new QuantileSketch.Factory() {
+            public QuantileSketch create() {
+                return new TDigest(compression);
+            }
+        };
+    }
+
+    public double getCompression() {
+        return compression;
+    }
+
+    public void add(long value) {
+        Stripe s = stripes.length == 1 ? stripes[0]
+                : stripes[(int) ((Thread.currentThread().getId() * 0x9E3779B97F4A7C15L) >>> 32) & (stripes.length - 1)];
+        boolean handedOver = false;
+        synchronized (s) {
+            if (s.buffered == s.buffer.length) {
+                if (s.buffered > 0) {
+                    full.offer(s.buffer);
+                    handedOver = true;
+                }
+                double[] b = spare.poll();
+                s.buffer = b != null ? b : new double[bufferSize];
+                s.buffered = 0;
+            }
+            s.buffer[s.buffered++] = value;
+            s.count++;
+        }
+
+        // nobody reads the digest, do not let the full buffers pile up
+        if (handedOver && fullBuffers.incrementAndGet() > 2 * stripes.length && lock.tryLock()) {
+            try {
+                mergeFull();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public void merge(QuantileSketch other) {
+        if (!(other instanceof TDigest)) {
+            throw new IllegalArgumentException("can only merge a TDigest: " + other);
+        }
+        if (other == this) {
+            throw new IllegalArgumentException("can not merge a TDigest with itself");
+        }
+        // copy the other digest under its own lock, the two locks are never held at the same time
+        TDigest o = (TDigest) other;
+        double[] otherMean;
+        double[] otherWeight;
+        long otherCount;
+        double otherMin;
+        double otherMax;
+        o.lock.lock();
+        try {
+            o.drain();
+            otherMean = Arrays.copyOf(o.mean, o.centroids);
+            otherWeight = Arrays.copyOf(o.weight, o.centroids);
+            otherCount = o.centroidWeight;
+            otherMin = o.min;
+            otherMax = o.max;
+        } finally {
+            o.lock.unlock();
+        }
+        if (otherCount == 0) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            drain();
+            merge(otherMean, otherWeight, otherMean.length);
+            centroidWeight += otherCount;
+            mergedCount += otherCount;
+            min = Math.min(min, otherMin);
+            max = Math.max(max, otherMax);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getValueAtPercentile(double percentile) {
+        lock.lock();
+        try {
+            drain();
+            if (centroidWeight == 0) {
+                return 0;
+            }
+            double index = Math.max(0, Math.min(percentile, 100.0)) / 100.0 * centroidWeight;
+            if (index <= weight[0] / 2) {
+                // between min and the center of the first centroid
+                return interpolate(index, 0, min, weight[0] / 2, mean[0]);
+            }
+
+            double center = weight[0] / 2;
+            for (int i = 1; i < centroids; i++) {
+                double nextCenter = center + (weight[i - 1] + weight[i]) / 2;
+                if (index <= nextCenter) {
+                    return interpolate(index, center, mean[i - 1], nextCenter, mean[i]);
+                }
+                center = nextCenter;
+            }
+
+            // between the center of the last centroid and max
+            return interpolate(index, center, mean[centroids - 1], centroidWeight, max);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static long interpolate(double x, double x0, double y0, double x1, double y1) {
+        if (x1 <= x0) {
+            return Math.round(y1);
+        }
+
+        return Math.round(y0 + (x - x0) / (x1 - x0) * (y1 - y0));
+    }
+
+    public long getCount() {
+        long count = mergedCount;
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                count += s.count;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Get the # of centroids, after the buffered samples are merged
+     *
+     * @return # of centroids
+     */
+    public int getCentroidCount() {
+        lock.lock();
+        try {
+            drain();
+            return centroids;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void reset() {
+        lock.lock();
+        try {
+            for (Stripe s : stripes) {
+                synchronized (s) {
+                    s.buffered = 0;
+                    s.count = 0;
+                }
+            }
+            double[] b;
+            while ((b = full.poll()) != null) {
+                fullBuffers.decrementAndGet();
+                spare.offer(b);
+            }
+            centroids = 0;
+            centroidWeight = 0;
+            mergedCount = 0;
+            min = Double.POSITIVE_INFINITY;
+            max = Double.NEGATIVE_INFINITY;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // merge the buffered samples of all stripes into the centroids, under the lock
+    private void drain() {
+        for (Stripe s : stripes) {
+            double[] b;
+            int n;
+            synchronized (s) {
+                n = s.buffered;
+                if (n == 0) {
+                    continue;
+                }
+                b = s.buffer;
+                // the next sample of the stripe takes a spare buffer
+                s.buffer = EMPTY;
+                s.buffered = 0;
+            }
+            mergeBuffer(b, n);
+        }
+        mergeFull();
+    }
+
+    // merge the full buffers into the centroids, under the lock
+    private void mergeFull() {
+        double[] b;
+        while ((b = full.poll()) != null) {
+            fullBuffers.decrementAndGet();
+            mergeBuffer(b, b.length);
+        }
+    }
+
+    private void mergeBuffer(double[] b, int n) {
+        Arrays.sort(b, 0, n);
+        min = Math.min(min, b[0]);
+        max = Math.max(max, b[n - 1]);
+        merge(b, null, n);
+        centroidWeight += n;
+        spare.offer(b);
+    }
+
+    /**
+     * Merge sorted centroids into the centroids. Neighbours are combined as long as the size of the combined
+     * centroid stays within the k2 scale function, which keeps the centroids near q=0 and q=1 small.
+     *
+     * @param inMean   sorted means
+     * @param inWeight weights, null if all weights are 1
+     * @param n        # of centroids to merge
+     */
+    private void merge(double[] inMean, double[] inWeight, int n) {
+        double total = 0;
+        for (int i = 0; i < centroids; i++) {
+            total += weight[i];
+        }
+        for (int i = 0; i < n; i++) {
+            total += inWeight == null ? 1 : inWeight[i];
+        }
+
+        double normalizer = normalizer(total);
+        int merged = 0;
+        double weightSoFar = 0;
+        double limit = 0;
+        int i = 0;
+        int j = 0;
+        while (i < centroids || j < n) {
+            double m;
+            double w;
+            if (j == n || (i < centroids && mean[i] <= inMean[j])) {
+                m = mean[i];
+                w = weight[i++];
+            } else {
+                m = inMean[j];
+                w = inWeight == null ? 1 : inWeight[j];
+                j++;
+            }
+
+            if (merged > 0 && weightSoFar + w <= limit) {
+                // combine with the current centroid
+                int c = merged - 1;
+                mergedWeight[c] += w;
+                mergedMean[c] += (m - mergedMean[c]) * w / mergedWeight[c];
+            } else {
+                // start a new centroid, its max size follows from the scale function at its start
+                if (merged == mergedMean.length) {
+                    mergedMean = Arrays.copyOf(mergedMean, merged * 2);
+                    mergedWeight = Arrays.copyOf(mergedWeight, merged * 2);
+                }
+                mergedMean[merged] = m;
+                mergedWeight[merged] = w;
+                merged++;
+                limit = total * quantileOf(scaleOf(weightSoFar / total, normalizer) + 1, normalizer);
+            }
+            weightSoFar += w;
+        }
+
+        double[] t = mean;
+        mean = mergedMean;
+        mergedMean = t;
+        t = weight;
+        weight = mergedWeight;
+        mergedWeight = t;
+        centroids = merged;
+    }
+
+    /*
+     * The k2 scale function and its inverse. A centroid spans at most one unit of k, and k changes fast near
+     * q=0 and q=1 so the centroids there stay small. The normalizer keeps the # of centroids near the compression.
+     */
+    private double normalizer(double total) {
+        return 2 * compression / (4 * Math.log(Math.max(total / compression, 1)) + 24);
+    }
+
+    private static double scaleOf(double q, double normalizer) {
+        if (q <= 0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+
+        return normalizer * Math.log(q / (1 - q));
+    }
+
+    private static double quantileOf(double k, double normalizer) {
+        double w = Math.exp(k / normalizer);
+
+        return w / (1 + w);
+    }
+
+    public String toString() {
+        return "TDigest compression=" + compression + ", count=" + getCount() + ", centroids=" + getCentroidCount();
+    }
+
+    // samples buffered by the threads of one stripe, padded to a cache line of their own
+    private static final class Stripe implements Serializable {
+        long p1, p2, p3, p4, p5, p6, p7;
+        double[] buffer = EMPTY;
+        int buffered;
+        long count;
+        long q1, q2, q3, q4, q5, q6, q7;
+    }
+}
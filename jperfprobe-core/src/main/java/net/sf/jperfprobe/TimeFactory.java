@@ -1,11 +1,17 @@
 package net.sf.jperfprobe;
 
+import java.time.*;
+import java.util.concurrent.*;
+
 public class TimeFactory {
+    // cached clocks by resolution in nanos, shared so there is one ticker for each resolution
+    private static final ConcurrentMap<Long, CachedTime> cachedTimes = new ConcurrentHashMap<Long, CachedTime>();
+
     public static Time getTime() {
         Time retTime;
         String version = System.getProperty("java.version");
-        char minor = version.charAt(2);
-        if (minor < '5') {
+        // versions before java 9 are reported as 1.x, later versions starts with the major version
+        if (version.startsWith("1.") && version.charAt(2) < '5') {
             retTime = new SystemTimeByMillis();
         } else {
             retTime = new SystemTimeByNanos();
@@ -13,4 +19,31 @@ public class TimeFactory {
 
         return retTime;
     }
+
+    /**
+     * Get a time with a given resolution. A coarse resolution gives a shared CachedTime, its ticker thread is
+     * started by the first call for the resolution and is never stopped. Use it for a manager with setTime or for
+     * a single probe with setTime(probeName, time).
+     *
+     * @param resolution, null or zero for the clock of getTime()
+     * @return time
+     */
+    public static Time getTime(Duration resolution) {
+        if (resolution == null || resolution.isZero()) {
+            return getTime();
+        }
+        Long nanos = resolution.toNanos();
+        CachedTime time = cachedTimes.get(nanos);
+        if (time == null) {
+            synchronized (cachedTimes) {
+                time = cachedTimes.get(nanos);
+                if (time == null) {
+                    time = new CachedTime(nanos, true);
+                    cachedTimes.put(nanos, time);
+                }
+            }
+        }
+
+        return time;
+    }
 }
@@ -0,0 +1,167 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import java.time.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * TimeWindows keeps the statistics of a Result in a ring of time buckets, so the statistics of the last
+ * minutes can be read. A bucket holds count, total, min, max and a histogram of the samples added while it was
+ * current. There is no background thread, a slot is rotated to a new bucket by the first sample that falls in
+ * the new bucket, by swapping it in with a compare and set.
+ */
+final class TimeWindows {
+
+    private final Time time;
+
+    private final long bucketNanos;
+
+    private final boolean concurrent;
+
+    private final int significantDigits;
+
+    private final AtomicReferenceArray<Bucket> buckets;
+
+    /**
+     * Constr
+     *
+     * @param time,              clock of the buckets
+     * @param bucketNanos,       width of each bucket
+     * @param bucketCount,       # of buckets, the longest window is bucketCount * bucketNanos
+     * @param concurrent,        true if samples will be added from many threads at the same time
+     * @param significantDigits, precision of the bucket histograms, 0 means no histograms
+     */
+    TimeWindows(Time time, long bucketNanos, int bucketCount, boolean concurrent, int significantDigits) {
+        if (bucketNanos <= 0) {
+            throw new IllegalArgumentException("bucket width must be positive: " + bucketNanos);
+        }
+        if (bucketCount < 1) {
+            throw new IllegalArgumentException("bucket count must be at least 1: " + bucketCount);
+        }
+        this.time = time;
+        this.bucketNanos = bucketNanos;
+        this.concurrent = concurrent;
+        this.significantDigits = significantDigits;
+        this.buckets = new AtomicReferenceArray<Bucket>(bucketCount);
+    }
+
+    boolean isConcurrent() {
+        return concurrent;
+    }
+
+    void add(long sample) {
+        Bucket bucket = bucket(Math.floorDiv(time.getNanos(), bucketNanos));
+        if (bucket != null) {
+            bucket.add(sample);
+        }
+    }
+
+    // the bucket of epoch, null if the epoch is so old that its slot is taken by a newer bucket
+    private Bucket bucket(long epoch) {
+        int slot = (int) Math.floorMod(epoch, (long) buckets.length());
+        for (; ;) {
+            Bucket b = buckets.get(slot);
+            if (b != null && b.epoch >= epoch) {
+                return b.epoch == epoch ? b : null;
+            }
+            Bucket fresh = new Bucket(epoch, concurrent, significantDigits);
+            if (buckets.compareAndSet(slot, b, fresh)) {
+                return fresh;
+            }
+        }
+    }
+
+    /**
+     * Get the statistics of the buckets within a duration back from now. The current bucket is included, so the
+     * window covers between duration - bucket width and duration.
+     *
+     * @param duration of the window
+     * @return statistics of the window
+     */
+    Window getWindow(Duration duration) {
+        long nanos = duration.toNanos();
+        if (nanos <= 0 || nanos > bucketNanos * buckets.length()) {
+            throw new IllegalArgumentException("window must be positive and at most " + buckets.length()
+                    + " buckets of " + bucketNanos + " ns: " + duration);
+        }
+        long k = (nanos + bucketNanos - 1) / bucketNanos;
+        long now = Math.floorDiv(time.getNanos(), bucketNanos);
+
+        Window window = new Window(duration, significantDigits);
+        for (int i = 0; i < buckets.length(); i++) {
+            Bucket b = buckets.get(i);
+            if (b != null && b.epoch > now - k && b.epoch <= now) {
+                window.add(b.statistics, b.histogram);
+            }
+        }
+
+        return window;
+    }
+
+    long getBucketNanos() {
+        return bucketNanos;
+    }
+
+    int getBucketCount() {
+        return buckets.length();
+    }
+
+    /**
+     * Drop all buckets
+     */
+    void clear() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, null);
+        }
+    }
+
+    private static final class Bucket {
+        private final long epoch;
+
+        private final Accumulator statistics;
+
+        // null if no histogram
+        private final Histogram histogram;
+
+        Bucket(long epoch, boolean concurrent, int significantDigits) {
+            this.epoch = epoch;
+            this.statistics = Accumulator.create(concurrent);
+            if (significantDigits == 0) {
+                histogram = null;
+            } else if (concurrent) {
+                histogram = new ConcurrentHistogram(Histogram.DEFAULT_HIGHEST_TRACKABLE_VALUE, significantDigits);
+            } else {
+                histogram = new Histogram(Histogram.DEFAULT_HIGHEST_TRACKABLE_VALUE, significantDigits);
+            }
+        }
+
+        void add(long sample) {
+            statistics.add(sample);
+            if (histogram != null) {
+                histogram.recordValue(sample);
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import java.io.*;
+import java.time.*;
+
+/**
+ * Window is a snapshot of the statistics of a Result over a recent interval, e.g. the last minute.
+ */
+public final class Window implements Statistics, Serializable {
+
+    private final Duration duration;
+
+    private long nSamples;
+
+    private long total;
+
+    private double squareSum;
+
+    private double max;
+
+    private double min;
+
+    // null if the result has no histogram
+    private final Histogram histogram;
+
+    Window(Duration duration, int significantDigits) {
+        this.duration = duration;
+        this.histogram = significantDigits == 0 ? null
+                : new Histogram(Histogram.DEFAULT_HIGHEST_TRACKABLE_VALUE, significantDigits);
+    }
+
+    // add the statistics of a bucket
+    void add(Accumulator statistics, Histogram bucketHistogram) {
+        int n = statistics.getNSamples();
+        if (n == 0) {
+            return;
+        }
+        if (nSamples == 0 || statistics.getMax() > max) {
+            max = statistics.getMax();
+        }
+        if (nSamples == 0 || statistics.getMin() < min) {
+            min = statistics.getMin();
+        }
+        nSamples += n;
+        total += statistics.getTotal();
+        squareSum += statistics.getSquareSum();
+        if (histogram != null && bucketHistogram != null) {
+            histogram.add(bucketHistogram);
+        }
+    }
+
+    /**
+     * Get the length of the window
+     *
+     * @return duration
+     */
+    public Duration getDuration() {
+        return duration;
+    }
+
+    public int getNSamples() {
+        return (int) nSamples;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public double getAverage() {
+        return nSamples == 0 ? 0.0 : (double) total / nSamples;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getStdev() {
+        return Accumulator.stdev(nSamples, total, squareSum);
+    }
+
+    /**
+     * Get the histogram of the samples in the window
+     *
+     * @return histogram, null if the result has no histogram
+     */
+    public Histogram getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * Get the sample value that the given percentage of the samples in the window are less than or equal to
+     *
+     * @param percentile 0.0 - 100.0
+     * @return sample value, 0 if there are no samples or no histogram
+     */
+    public long getPercentile(double percentile) {
+        if (histogram == null) {
+            return 0;
+        }
+
+        return Math.min(histogram.getValueAtPercentile(percentile), (long) max);
+    }
+
+    public long getP50() {
+        return getPercentile(50.0);
+    }
+
+    public long getP90() {
+        return getPercentile(90.0);
+    }
+
+    public long getP99() {
+        return getPercentile(99.0);
+    }
+
+    public long getP999() {
+        return getPercentile(99.9);
+    }
+
+    public String toString() {
+        return "window=" + duration + ", #samples=" + nSamples + " , average=" + getAverage() + " , max=" + max
+                + " , min=" + min + " , p99=" + getP99();
+    }
+}
@@ -0,0 +1,115 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * WriterReaderPhaser lets a reader swap out a structure that writers record to, and wait until no writer is
+ * still recording to the old one, without the writers ever waiting (the same scheme as the phaser of
+ * HdrHistogram). A writer brackets each recording with enter and exit, that is one atomic increment each.
+ * The counters are striped on the thread id, so writers on different stripes do not share a cache line. Also a
+ * single threaded result, that threads add to one at a time under its lock, is striped: the threads take turns
+ * and would otherwise move one cache line between them.
+ * <p/>
+ * The reader swaps the structure first and then calls flipPhase, which returns when every writer that may
+ * have seen the old structure has exited.
+ */
+final class WriterReaderPhaser {
+
+    private final Stripe[] stripes;
+
+    WriterReaderPhaser() {
+        int n = 1;
+        int processors = Runtime.getRuntime().availableProcessors();
+        while (n < processors && n < 16) {
+            n <<= 1;
+        }
+        stripes = new Stripe[n];
+        for (int i = 0; i < n; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Enter a write, the returned token must be passed to exit
+     *
+     * @return token
+     */
+    int enter() {
+        int stripe = stripes.length == 1 ? 0
+                : (int) ((Thread.currentThread().getId() * 0x9E3779B97F4A7C15L) >>> 32) & (stripes.length - 1);
+        long epoch = Stripe.START.getAndIncrement(stripes[stripe]);
+
+        return stripe << 1 | (epoch < 0 ? 1 : 0);
+    }
+
+    /**
+     * Exit a write
+     *
+     * @param token from enter
+     */
+    void exit(int token) {
+        Stripe s = stripes[token >>> 1];
+        if ((token & 1) == 0) {
+            Stripe.EVEN_END.getAndIncrement(s);
+        } else {
+            Stripe.ODD_END.getAndIncrement(s);
+        }
+    }
+
+    /**
+     * Wait until all writers that entered before the call have exited. Only one reader at a time.
+     */
+    synchronized void flipPhase() {
+        for (Stripe s : stripes) {
+            boolean nextPhaseIsEven = s.start < 0;
+            long initialStartValue = nextPhaseIsEven ? 0 : Long.MIN_VALUE;
+            if (nextPhaseIsEven) {
+                s.evenEnd = initialStartValue;
+            } else {
+                s.oddEnd = initialStartValue;
+            }
+            long startValueAtFlip = Stripe.START.getAndSet(s, initialStartValue);
+            while ((nextPhaseIsEven ? s.oddEnd : s.evenEnd) != startValueAtFlip) {
+                Thread.yield();
+            }
+        }
+    }
+
+    // counters of one stripe, padded to a cache line of their own
+    private static final class Stripe {
+        static final AtomicLongFieldUpdater<Stripe> START = AtomicLongFieldUpdater.newUpdater(Stripe.class, "start");
+        static final AtomicLongFieldUpdater<Stripe> EVEN_END =
+                AtomicLongFieldUpdater.newUpdater(Stripe.class, "evenEnd");
+        static final AtomicLongFieldUpdater<Stripe> ODD_END =
+                AtomicLongFieldUpdater.newUpdater(Stripe.class, "oddEnd");
+
+        long p1, p2, p3, p4, p5, p6, p7;
+        volatile long start;
+        volatile long evenEnd;
+        volatile long oddEnd = Long.MIN_VALUE;
+        long q1, q2, q3, q4, q5, q6, q7;
+    }
+}
@@ -0,0 +1,175 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class AsyncRecorderTest {
+    private ProbeManagerImpl probeManager;
+
+    @Before
+    public void setUp() {
+        probeManager = new ProbeManagerImpl();
+    }
+
+    @After
+    public void tearDown() {
+        probeManager.setAsyncRecording(0, BackpressurePolicy.DROP);
+    }
+
+    @Test
+    public void testAsyncStop() {
+        probeManager.setAsyncRecording(1024, BackpressurePolicy.SYNCHRONOUS);
+        assertTrue("should be asynchronous", probeManager.isAsyncRecording());
+        ProbeHandle handle = probeManager.handle("ASYNC");
+        for (int i = 0; i < 1000; i++) {
+            handle.start();
+            handle.stop();
+        }
+        ProbeHandle.Scope scope = handle.time();
+        scope.failed();
+        scope.close();
+
+        probeManager.flush();
+        assertEquals("wrong # samples after flush", 1000, probeManager.getResult("ASYNC").getNSamples());
+        assertEquals("wrong # failures after flush", 1, probeManager.getResult("ASYNC").getFailures().getNSamples());
+    }
+
+    @Test
+    public void testDropWhenFull() {
+        probeManager.setAsyncRecording(4, BackpressurePolicy.DROP);
+        Result result = probeManager.getResult("DROP");
+        ProbeHandle handle = probeManager.handle("DROP");
+
+        // the aggregator can not add to the result while it is locked, so the ring fills up
+        synchronized (result) {
+            for (int i = 0; i < 100; i++) {
+                handle.start();
+                handle.stop();
+            }
+        }
+
+        probeManager.flush();
+        assertTrue("samples should be dropped", probeManager.getDroppedSamples() > 0);
+        assertEquals("every sample should be added or dropped", 100,
+                result.getNSamples() + probeManager.getDroppedSamples());
+    }
+
+    @Test
+    public void testSynchronousWhenFull() {
+        probeManager.setAsyncRecording(4, BackpressurePolicy.SYNCHRONOUS);
+        Result result = probeManager.getResult("SYNC");
+        ProbeHandle handle = probeManager.handle("SYNC");
+
+        synchronized (result) {
+            for (int i = 0; i < 100; i++) {
+                handle.start();
+                handle.stop();
+            }
+        }
+
+        probeManager.flush();
+        assertEquals("no samples should be dropped", 0, probeManager.getDroppedSamples());
+        assertEquals("wrong # samples", 100, result.getNSamples());
+    }
+
+    @Test
+    public void testManyThreads() throws Exception {
+        probeManager.setConcurrentResults(true);
+        probeManager.setAsyncRecording(256, BackpressurePolicy.SYNCHRONOUS);
+        final ProbeHandle handle = probeManager.handle("MANY");
+        final int threads = 4;
+        final int loops = 50000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread() {
+                public void run() {
+                    for (int i = 0; i < loops; i++) {
+                        handle.start();
+                        handle.stop();
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        done.await();
+
+        probeManager.flush();
+        assertEquals("samples lost", threads * loops, probeManager.getResult("MANY").getNSamples());
+    }
+
+    @Test
+    public void testStopAsyncRecordingFlushes() {
+        probeManager.setAsyncRecording(1024, BackpressurePolicy.DROP);
+        probeManager.start("STOP");
+        probeManager.stop("STOP");
+        probeManager.setAsyncRecording(0, BackpressurePolicy.DROP);
+
+        assertFalse("should be synchronous", probeManager.isAsyncRecording());
+        assertEquals("sample should be added", 1, probeManager.getResult("STOP").getNSamples());
+    }
+
+    @Test
+    public void testOfferAfterShutdownIsSynchronous() {
+        AtomicLong dropped = new AtomicLong();
+        AsyncRecorder recorder = new AsyncRecorder(probeManager, 16, BackpressurePolicy.DROP, dropped);
+        recorder.shutdown();
+        assertFalse("the caller should add the sample", recorder.offer(probeManager.getResult("LATE"), 1, true));
+        assertEquals(0, dropped.get());
+    }
+
+    @Test
+    public void testSwapWhileRecording() throws Exception {
+        probeManager.setConcurrentResults(true);
+        final ProbeHandle handle = probeManager.handle("SWAP");
+        final int threads = 4;
+        final int loops = 50000;
+        Thread[] recorders = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            recorders[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < loops; i++) {
+                        handle.start();
+                        handle.stop();
+                    }
+                }
+            };
+            recorders[t].start();
+        }
+        for (int i = 0; i < 50; i++) {
+            probeManager.setAsyncRecording(i % 2 == 0 ? 64 : 0, BackpressurePolicy.SYNCHRONOUS);
+        }
+        for (Thread t : recorders) {
+            t.join();
+        }
+        probeManager.setAsyncRecording(0, BackpressurePolicy.DROP);
+
+        assertEquals("samples lost", threads * loops, probeManager.getResult("SWAP").getNSamples());
+        assertEquals(0, probeManager.getDroppedSamples());
+    }
+}
@@ -0,0 +1,186 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.time.*;
+
+public class BeginEndTest {
+    private ProbeManagerImpl pm;
+
+    private MockTime time;
+
+    @Before
+    public void setUp() {
+        time = new MockTime();
+        pm = new ProbeManagerImpl(0, ProbeManagerImpl.Presentation.NANOS, time);
+        pm.setCalibrationInterval(null);
+    }
+
+    @Test
+    public void testWindowsFromManyThreads() throws Exception {
+        final ProbeManagerImpl manager = new ProbeManagerImpl();
+        manager.setTimeWindows(Duration.ofMinutes(1), 5);
+        final int calls = 20000;
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < calls; j++) {
+                        manager.end("w", manager.begin("w"));
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        Result r = manager.getResult("w");
+        assertTrue(r.isConcurrent());
+        assertTrue("the windows of a concurrent result must be concurrent", r.getTimeWindows().isConcurrent());
+        assertEquals(threads.length * calls, r.getNSamples());
+        assertEquals(threads.length * calls, r.getWindow(Duration.ofMinutes(5)).getNSamples());
+    }
+
+    @Test
+    public void testBeginEnd() {
+        time.setTime(100);
+        long begin = pm.begin("a");
+        time.setTime(130);
+        pm.end("a", begin);
+
+        ProbeHandle handle = pm.handle("a");
+        long outer = handle.begin();
+        time.setTime(140);
+        long inner = handle.begin();
+        time.setTime(145);
+        handle.end(inner);
+        time.setTime(150);
+        handle.end(outer, false);
+
+        Result r = pm.getResult("a");
+        assertEquals(2, r.getNSamples());
+        assertEquals(30, r.getMax(), 0);
+        assertEquals(5, r.getMin(), 0);
+        assertEquals(1, r.getFailures().getNSamples());
+        assertEquals(0, r.getProbeCount());
+        assertNull(r.getProbe());
+    }
+
+    @Test
+    public void testManyThreadsKeepNoProbes() throws Exception {
+        pm.setConcurrentResults(true);
+        final ProbeHandle handle = pm.handle("request");
+        Thread[] threads = new Thread[200];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 50; j++) {
+                        handle.end(handle.begin());
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        Result r = pm.getResult("request");
+        assertTrue(r.isConcurrent());
+        assertEquals(200 * 50, r.getNSamples());
+        assertEquals(0, r.getProbeCount());
+    }
+
+    @Test
+    public void testNotConcurrent() {
+        pm.start("plain");
+        pm.stop("plain");
+        assertFalse(pm.getResult("plain").isConcurrent());
+
+        long begin = pm.begin("plain");
+        assertEquals(ProbeManagerImpl.NOT_TIMED, begin);
+        pm.end("plain", begin);
+        assertEquals(1, pm.getResult("plain").getNSamples());
+
+        // a handle for begin and end gets a concurrent result, also after a clear
+        ProbeHandle handle = pm.handle("b", true);
+        assertTrue(handle.getResult().isConcurrent());
+        pm.clear();
+        assertTrue(handle.getResult().isConcurrent());
+        handle.end(handle.begin());
+        assertEquals(1, pm.getResult("b").getNSamples());
+    }
+
+    @Test
+    public void testNotOfferedToAsyncRecorder() {
+        pm.setAsyncRecording(1024, BackpressurePolicy.DROP);
+        try {
+            for (int i = 0; i < 10; i++) {
+                pm.end("a", pm.begin("a"));
+            }
+            // added by the calling thread, there is nothing to flush
+            assertEquals(10, pm.getResult("a").getNSamples());
+        } finally {
+            pm.setAsyncRecording(0, BackpressurePolicy.DROP);
+        }
+    }
+
+    @Test
+    public void testDisabled() {
+        pm.handle("a", true);
+        pm.disable("a");
+        long begin = pm.begin("a");
+        assertEquals(ProbeManagerImpl.NOT_TIMED, begin);
+        pm.end("a", begin);
+        assertEquals(0, pm.getResult("a").getNSamples());
+
+        pm.enable("a");
+        pm.end("a", pm.begin("a"));
+        assertEquals(1, pm.getResult("a").getNSamples());
+    }
+
+    @Test
+    public void testSampling() {
+        pm.handle("a", true);
+        pm.setSampling("a", Sampling.everyNth(4));
+        int timed = 0;
+        for (int i = 0; i < 4000; i++) {
+            long begin = pm.begin("a");
+            if (begin != ProbeManagerImpl.NOT_TIMED) {
+                timed++;
+            }
+            pm.end("a", begin);
+        }
+
+        Result r = pm.getResult("a");
+        assertEquals(timed, r.getNSamples());
+        assertEquals(4000, r.getInvocations());
+        assertTrue("timed " + timed, timed > 800 && timed < 1200);
+    }
+}
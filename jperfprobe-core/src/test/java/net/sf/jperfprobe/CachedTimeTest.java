@@ -0,0 +1,117 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.time.*;
+
+public class CachedTimeTest {
+
+    @Test
+    public void testTicks() throws Exception {
+        CachedTime time = new CachedTime(Duration.ofMillis(1).toNanos());
+        try {
+            long first = time.getNanos();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (time.getNanos() == first && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            assertTrue("the ticker should advance the time", time.getNanos() > first);
+            assertTrue(time.getNanos() <= System.nanoTime());
+        } finally {
+            time.shutdown();
+        }
+        assertFalse(time.isRunning());
+    }
+
+    @Test
+    public void testFactorySharesTickers() {
+        Time t1 = TimeFactory.getTime(Duration.ofNanos(100000));
+        Time t2 = TimeFactory.getTime(Duration.ofNanos(100000));
+        assertTrue(t1 instanceof CachedTime);
+        assertSame(t1, t2);
+        assertEquals(100000, ((CachedTime) t1).getResolution());
+        assertNotSame(t1, TimeFactory.getTime(Duration.ofMillis(1)));
+        assertTrue(TimeFactory.getTime((Duration) null) instanceof SystemTimeByNanos);
+    }
+
+    @Test
+    public void testSharedTimeCanNotBeShutDown() {
+        CachedTime shared = (CachedTime) TimeFactory.getTime(Duration.ofNanos(200000));
+        try {
+            shared.shutdown();
+            fail("a shared time should not be shut down");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertTrue(shared.isRunning());
+        assertSame(shared, TimeFactory.getTime(Duration.ofNanos(200000)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalResolution() {
+        new CachedTime(0);
+    }
+
+    @Test
+    public void testTimePerProbe() {
+        ProbeManagerImpl pm = new ProbeManagerImpl();
+        pm.setCalibrationInterval(null);
+        MockTime mock = new MockTime();
+        pm.setTime("MOCKED", mock);
+        assertSame(mock, pm.getTime("MOCKED"));
+        assertSame(pm.getTime(), pm.getTime("OTHER"));
+
+        mock.setTime(1000);
+        pm.start("MOCKED");
+        mock.setTime(1500);
+        pm.stop("MOCKED");
+        assertEquals(500, pm.getResult("MOCKED").getMax(), 0);
+
+        mock.setTime(2000);
+        try (ProbeHandle.Scope scope = pm.handle("MOCKED").time()) {
+            mock.setTime(2700);
+            scope.success();
+        }
+        assertEquals(700, pm.getResult("MOCKED").getMax(), 0);
+    }
+
+    @Test
+    public void testRegionShorterThanTickIsZero() {
+        ProbeManagerImpl pm = new ProbeManagerImpl();
+        pm.setCalibrationInterval(null);
+        MockTime mock = new MockTime();
+        pm.setTime("P", mock);
+        mock.setTime(1000);
+        pm.start("P");
+        pm.stop("P");
+        pm.start("P");
+        pm.stop("P");
+        Result result = pm.getResult("P");
+        assertEquals(2, result.getNSamples());
+        assertEquals(0, result.getMax(), 0);
+    }
+}
@@ -0,0 +1,164 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+import org.junit.rules.*;
+
+import java.io.*;
+import java.time.*;
+import java.util.*;
+
+public class CalibrationTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // every read of the time is 100 ns after the previous
+    static class SteppingTime implements Time {
+        private long time;
+
+        public synchronized long getNanos() {
+            return time += 100;
+        }
+    }
+
+    @Test
+    public void testCalibrationMeasuresEmptyRegion() {
+        ProbeManagerImpl pm = new ProbeManagerImpl(0, ProbeManagerImpl.Presentation.NANOS, new SteppingTime());
+        pm.setCalibrationInterval(null);
+
+        Calibration c = pm.getCalibration();
+        assertEquals(100, c.getOverhead(), 0);
+        assertEquals(0, c.getVariance(), 0);
+        assertEquals(100, c.getMin());
+        assertEquals(100, c.getMedian());
+        assertEquals(ProbeManagerImpl.CALIBRATION_ROUNDS * 9 / 10, c.getNSamples());
+        assertFalse("the calibration probe should not be a result", pm.getResults().iterator().hasNext());
+    }
+
+    @Test
+    public void testCalibrationLeavesNoSamples() throws IOException {
+        ProbeManagerImpl pm = new ProbeManagerImpl(0, ProbeManagerImpl.Presentation.NANOS, new SteppingTime());
+        assertNull("periodic calibration should be opt-in", pm.getCalibrationInterval());
+        pm.setCallTree(8, 100);
+        pm.setFlightRecorder(folder.newFile().toPath(), 16);
+        pm.setAsyncRecording(256, BackpressurePolicy.DROP);
+        try {
+            pm.start("P");
+            Calibration c = pm.calibrate();
+            pm.stop("P");
+            pm.flush();
+            assertEquals(100, c.getOverhead(), 0);
+
+            // the calibration calls are not in the call tree, the time of P is its own
+            CallNode p = pm.getCallTree().find("P");
+            assertEquals(1, pm.getCallTree().getChildren().size());
+            assertTrue(p.getChildren().isEmpty());
+            assertEquals(p.getTotal(), p.getSelf());
+            assertEquals(0, pm.getCallTree().getDropped());
+            // nor in the flight recording or the rings
+            assertEquals(1, pm.getFlightRecorder().getRecorded());
+            assertEquals(0, pm.getFlightRecorder().getUnnamed());
+            assertEquals(0, pm.getDroppedSamples());
+            assertEquals(1, pm.getResult("P").getNSamples());
+        } finally {
+            pm.setAsyncRecording(0, BackpressurePolicy.DROP);
+            pm.setFlightRecorder(null, 0);
+        }
+    }
+
+    @Test
+    public void testBiasSubtraction() {
+        ProbeManagerImpl pm = new ProbeManagerImpl(0, ProbeManagerImpl.Presentation.NANOS, new SteppingTime());
+        pm.setCalibrationInterval(null);
+        pm.start("P");
+        pm.stop("P");
+        assertEquals(100, pm.getResult("P").getMax(), 0);
+        assertTrue(pm.isTooShort("P"));
+        assertTrue(pm.toString("P").contains("too short"));
+
+        pm.setBiasSubtraction(true);
+        assertTrue(pm.isBiasSubtraction());
+        pm.clear();
+        pm.start("P");
+        pm.stop("P");
+        pm.getResult("P").addSample(5000);
+        pm.addSampleFromProbe(new DefaultProbe("P") {
+            public long getElapsed() {
+                return 50;
+            }
+        });
+        Result result = pm.getResult("P");
+        assertEquals(0, result.getMin(), 0);
+        assertEquals(5000, result.getMax(), 0);
+        assertEquals(3, result.getNSamples());
+
+        pm.setBiasSubtraction(false);
+        pm.start("Q");
+        pm.stop("Q");
+        assertEquals(100, pm.getResult("Q").getMax(), 0);
+    }
+
+    @Test
+    public void testTooShort() {
+        long[] elapsed = new long[20];
+        Arrays.fill(elapsed, 100);
+        elapsed[0] = 90;
+        elapsed[1] = 110;
+        elapsed[2] = 5000;
+        elapsed[3] = 7000;
+        Calibration c = new Calibration(elapsed);
+        assertEquals("the slowest rounds should be dropped", 100, c.getOverhead(), 1e-9);
+        assertEquals(18, c.getNSamples());
+        assertTrue(c.isTooShort(999, false));
+        assertFalse(c.isTooShort(1000, false));
+        assertEquals(10 * c.getStandardDeviation(), c.getMinimumMeasurable(true), 1e-9);
+        assertFalse(c.isTooShort(100, true));
+        assertFalse("a probe without samples is not flagged", new ProbeManagerImpl().isTooShort("EMPTY"));
+    }
+
+    @Test
+    public void testRealClock() {
+        ProbeManagerImpl pm = new ProbeManagerImpl();
+        Calibration c = pm.getCalibration();
+        assertTrue(c.getOverhead() > 0);
+        assertTrue(c.getMin() <= c.getMedian());
+        pm.setCalibrationInterval(null);
+    }
+
+    @Test
+    public void testPeriodicCalibration() throws Exception {
+        ProbeManagerImpl pm = new ProbeManagerImpl();
+        Calibration first = pm.getCalibration();
+        pm.setCalibrationInterval(Duration.ofMillis(10));
+        assertEquals(Duration.ofMillis(10), pm.getCalibrationInterval());
+        long deadline = System.currentTimeMillis() + 10000;
+        while (pm.getCalibration() == first && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        pm.setCalibrationInterval(null);
+        assertNotSame("the manager should be calibrated again", first, pm.getCalibration());
+    }
+}
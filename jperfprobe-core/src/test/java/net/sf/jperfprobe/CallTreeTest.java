@@ -0,0 +1,204 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+public class CallTreeTest {
+    private ProbeManagerImpl pm;
+
+    private MockTime time;
+
+    @Before
+    public void setUp() {
+        time = new MockTime();
+        pm = new ProbeManagerImpl(0, ProbeManagerImpl.Presentation.NANOS, time);
+        pm.setCalibrationInterval(null);
+        pm.setCallTree(8, 100);
+    }
+
+    private void request() {
+        time.setTime(0);
+        pm.start("request");
+        time.setTime(10);
+        pm.start("db");
+        time.setTime(40);
+        pm.stop("db");
+        pm.start("render");
+        time.setTime(60);
+        pm.stop("render");
+        time.setTime(100);
+        pm.stop("request");
+    }
+
+    @Test
+    public void testSelfAndTotalTime() {
+        request();
+        request();
+
+        CallNode request = pm.getCallTree().find("request");
+        assertEquals(2, request.getCount());
+        assertEquals(200, request.getTotal());
+        assertEquals(2 * (100 - 30 - 20), request.getSelf());
+        CallNode db = request.find("db");
+        assertEquals("request/db", db.getPath());
+        assertEquals(60, db.getTotal());
+        assertEquals(60, db.getSelf());
+        assertEquals(20, pm.getCallTree().find("request", "render").getMax());
+        assertEquals(2, request.getChildren().size());
+
+        // the flat results are kept
+        assertEquals(2, pm.getResult("db").getNSamples());
+        assertEquals(100, pm.getResult("request").getMax(), 0);
+    }
+
+    @Test
+    public void testSamePathFromManyThreadsIsMerged() throws Exception {
+        Thread t = new Thread() {
+            public void run() {
+                ProbeHandle db = pm.handle("db");
+                pm.start("request");
+                db.start();
+                db.stop();
+                pm.stop("request");
+            }
+        };
+        t.start();
+        t.join();
+        request();
+
+        CallNode root = pm.getCallTree();
+        assertEquals(1, root.getChildren().size());
+        assertEquals(2, root.find("request", "db").getCount());
+    }
+
+    @Test
+    public void testTreesOfDeadThreadsAreFolded() throws Exception {
+        final CallStack.Registry trees = new CallStack.Registry(8, 100);
+        for (int i = 0; i < 200; i++) {
+            Thread t = new Thread() {
+                public void run() {
+                    CallStack stack = trees.get();
+                    stack.enter("request");
+                    stack.enter("db");
+                    stack.exit("db", 3);
+                    stack.exit("request", 10);
+                }
+            };
+            t.start();
+            t.join();
+        }
+        assertTrue(trees.size() < 64);
+
+        CallNode root = trees.merge();
+        assertEquals(0, trees.size());
+        assertEquals(200, root.find("request").getCount());
+        assertEquals(2000, root.find("request").getTotal());
+        assertEquals(1400, root.find("request").getSelf());
+        assertEquals(600, root.find("request", "db").getTotal());
+        assertEquals(200, trees.merge().find("request").getCount());
+    }
+
+    @Test
+    public void testScopes() {
+        ProbeHandle outer = pm.handle("outer");
+        ProbeHandle inner = pm.handle("inner");
+        time.setTime(0);
+        try (ProbeHandle.Scope o = outer.time()) {
+            time.setTime(5);
+            try (ProbeHandle.Scope i = inner.time()) {
+                time.setTime(12);
+                i.success();
+            }
+            time.setTime(20);
+            o.success();
+        }
+        CallNode o = pm.getCallTree().find("outer");
+        assertEquals(20, o.getTotal());
+        assertEquals(13, o.getSelf());
+        assertEquals(7, o.find("inner").getTotal());
+    }
+
+    @Test
+    public void testDepthAndNodeBounds() {
+        pm.setCallTree(2, 3);
+        time.setTime(0);
+        pm.start("a");
+        pm.start("b");
+        time.setTime(10);
+        // deeper than 2 levels
+        pm.start("c");
+        time.setTime(30);
+        pm.stop("c");
+        pm.stop("b");
+        // a 4th node
+        pm.start("x");
+        pm.start("y");
+        pm.stop("y");
+        pm.stop("x");
+        time.setTime(40);
+        pm.stop("a");
+
+        CallNode root = pm.getCallTree();
+        assertEquals("c and y should not be in the tree", 2, root.getDropped());
+        CallNode b = root.find("a", "b");
+        assertEquals(30, b.getTotal());
+        assertEquals("the time of c should be self time of b", 30, b.getSelf());
+        assertNull(root.find("a", "b", "c"));
+        assertNotNull(root.find("a", "x"));
+        assertNull(root.find("a", "x", "y"));
+        assertEquals(1, pm.getResult("c").getNSamples());
+    }
+
+    @Test
+    public void testStopBelowTopEndsTheCallsAbove() {
+        time.setTime(0);
+        pm.start("a");
+        pm.start("b");
+        time.setTime(10);
+        // b is never stopped
+        pm.stop("a");
+        pm.start("a");
+        time.setTime(15);
+        pm.stop("a");
+
+        CallNode a = pm.getCallTree().find("a");
+        assertEquals(2, a.getCount());
+        assertEquals(15, a.getTotal());
+        assertEquals(15, a.getSelf());
+        assertEquals(0, a.find("b").getCount());
+    }
+
+    @Test
+    public void testClearAndDisable() {
+        request();
+        pm.clear();
+        assertEquals(0, pm.getCallTree().getChildren().size());
+        pm.setCallTree(0, 0);
+        assertFalse(pm.isCallTree());
+        assertNull(pm.getCallTree());
+        request();
+    }
+}
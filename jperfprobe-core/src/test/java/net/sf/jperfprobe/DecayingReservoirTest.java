@@ -0,0 +1,134 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.util.concurrent.*;
+
+public class DecayingReservoirTest {
+    private static final long SECOND = 1000000000L;
+
+    @Test
+    public void testBounded() {
+        DecayingReservoir reservoir = new DecayingReservoir(100, DecayingReservoir.DEFAULT_ALPHA, new MockTime());
+        for (int i = 0; i < 100000; i++) {
+            reservoir.update(i);
+        }
+
+        assertEquals("wrong # samples kept", 100, reservoir.getCount());
+        assertEquals("wrong # samples returned", 100, reservoir.getSamples().length);
+    }
+
+    @Test
+    public void testBiasedTowardRecentSamples() {
+        MockTime time = new MockTime();
+        DecayingReservoir reservoir = new DecayingReservoir(DecayingReservoir.DEFAULT_SIZE,
+                DecayingReservoir.DEFAULT_ALPHA, time);
+        // 10 minutes of slow calls, then 2 minutes of fast calls at the same rate
+        for (int s = 0; s < 720; s++) {
+            time.setTime(s * SECOND);
+            for (int i = 0; i < 100; i++) {
+                reservoir.update(s < 600 ? 1000 : 10);
+            }
+        }
+
+        assertEquals("recent samples should dominate the median", 10, reservoir.getPercentile(50.0));
+        assertEquals("old samples should still be in the tail", 1000, reservoir.getPercentile(99.0));
+    }
+
+    @Test
+    public void testRescale() {
+        MockTime time = new MockTime();
+        DecayingReservoir reservoir = new DecayingReservoir(100, DecayingReservoir.DEFAULT_ALPHA, time);
+        for (int i = 0; i < 1000; i++) {
+            reservoir.update(1000);
+        }
+
+        // far past the rescale interval, the priorities must stay in range
+        time.setTime(3 * 3600 * SECOND);
+        for (int i = 0; i < 1000; i++) {
+            reservoir.update(10);
+        }
+
+        assertEquals("wrong # samples kept", 100, reservoir.getCount());
+        assertEquals("old samples should be replaced", 10, reservoir.getPercentile(100.0));
+    }
+
+    @Test
+    public void testRescaleWithHighAlpha() {
+        MockTime time = new MockTime();
+        // exp(alpha * age) would overflow after 709 / 5 seconds without a rescale
+        DecayingReservoir reservoir = new DecayingReservoir(100, 5.0, time);
+        for (int minute = 0; minute < 180; minute++) {
+            time.setTime(minute * 60 * SECOND);
+            for (int i = 0; i < 100; i++) {
+                reservoir.update(minute);
+            }
+        }
+
+        assertEquals("wrong # samples kept", 100, reservoir.getCount());
+        assertEquals("only recent samples should be kept", 179, reservoir.getPercentile(0.0));
+        assertEquals("wrong max", 179, reservoir.getPercentile(100.0));
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws Exception {
+        final DecayingReservoir reservoir = new DecayingReservoir(DecayingReservoir.DEFAULT_SIZE,
+                DecayingReservoir.DEFAULT_ALPHA, new SystemTimeByNanos());
+        final int threads = 4;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread() {
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        reservoir.update(i);
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        done.await();
+
+        assertEquals("wrong # samples kept", DecayingReservoir.DEFAULT_SIZE, reservoir.getCount());
+        for (long sample : reservoir.getSamples()) {
+            assertTrue("unknown sample " + sample, sample >= 0 && sample < 100000);
+        }
+    }
+
+    @Test
+    public void testResultReservoir() {
+        ProbeManagerImpl pm = new ProbeManagerImpl();
+        pm.setDecayingReservoir(10, DecayingReservoir.DEFAULT_ALPHA);
+        Result result = pm.getResult("RES");
+        for (int i = 0; i < 50; i++) {
+            result.addSample(i);
+        }
+
+        assertEquals("wrong reservoir size", 10, result.getReservoir().getCount());
+        assertEquals("ring should be unchanged", 50, result.getSamples().length);
+        assertNull("no reservoir by default", new Result("PLAIN").getReservoir());
+    }
+}
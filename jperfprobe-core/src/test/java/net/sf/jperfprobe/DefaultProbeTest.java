@@ -119,6 +119,7 @@ public class DefaultProbeTest {
         };
 
         t1.start();
+        t1.join();
         t2.start();
 
         doneSignal.await();
@@ -0,0 +1,144 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.nio.*;
+import java.util.*;
+
+public class DirectSampleStoreTest {
+
+    @Test
+    public void testRing() {
+        OffHeapBudget budget = new OffHeapBudget(1024);
+        DirectSampleStore ring = new DirectSampleStore(5, false, budget, 5);
+        assertEquals("nothing reserved before the first sample", 0, budget.getReserved());
+        for (int i = 1; i <= 12; i++) {
+            ring.add(i);
+        }
+
+        assertEquals("capacity should be reserved", 40, budget.getReserved());
+        assertArrayEquals("should be the most recent samples, oldest first", new long[]{8, 9, 10, 11, 12},
+                ring.getSamples());
+        assertEquals("wrong count", 12, ring.getCount());
+    }
+
+    @Test
+    public void testLog() {
+        OffHeapBudget budget = new OffHeapBudget(1024);
+        DirectSampleStore log = new DirectSampleStore(10, true, budget, 4);
+        for (int i = 0; i < 3; i++) {
+            log.add(i);
+        }
+        assertArrayEquals("wrong samples in first segment", new long[]{0, 1, 2}, log.getSamples());
+
+        for (int i = 3; i < 25; i++) {
+            log.add(i);
+        }
+        assertArrayEquals("wrong samples across segments", new long[]{15, 16, 17, 18, 19, 20, 21, 22, 23, 24},
+                log.getSamples());
+    }
+
+    @Test
+    public void testLogReservesSegments() {
+        OffHeapBudget budget = new OffHeapBudget(64);
+        DirectSampleStore log = new DirectSampleStore(10, false, budget, 4);
+        for (int i = 0; i < 3; i++) {
+            log.add(i);
+        }
+        assertEquals("only the first segment should be reserved", 32, budget.getReserved());
+
+        // the third segment does not fit, the samples of the first two are kept
+        for (int i = 3; i < 12; i++) {
+            log.add(i);
+        }
+        assertEquals(64, budget.getReserved());
+        assertArrayEquals(new long[]{0, 1, 2, 3, 4, 5, 6, 7}, log.getSamples());
+
+        log.release();
+        assertEquals(0, budget.getReserved());
+    }
+
+    @Test
+    public void testVisitBlocks() {
+        DirectSampleStore log = new DirectSampleStore(10, false, new OffHeapBudget(1024), 4);
+        for (int i = 0; i < 13; i++) {
+            log.add(i);
+        }
+
+        final List<Integer> blockSizes = new ArrayList<Integer>();
+        final List<Long> samples = new ArrayList<Long>();
+        log.visit(new SampleVisitor() {
+            public void visit(LongBuffer block) {
+                assertTrue("block should be read-only", block.isReadOnly());
+                blockSizes.add(block.remaining());
+                while (block.hasRemaining()) {
+                    samples.add(block.get());
+                }
+            }
+        });
+
+        // positions 3..9 and then 0..2 of the ring, split at the segments 0-3, 4-7 and 8-9
+        assertEquals("wrong blocks", Arrays.asList(1, 4, 2, 3), blockSizes);
+        assertEquals("wrong samples", Arrays.asList(3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L, 11L, 12L), samples);
+    }
+
+    @Test
+    public void testBudget() {
+        OffHeapBudget budget = new OffHeapBudget(100);
+        DirectSampleStore first = new DirectSampleStore(10, false, budget, 10);
+        DirectSampleStore second = new DirectSampleStore(10, false, budget, 10);
+        first.add(1);
+        second.add(2);
+
+        assertEquals("only the first store fits", 80, budget.getReserved());
+        assertArrayEquals("first store should keep samples", new long[]{1}, first.getSamples());
+        assertEquals("second store should drop samples", 0, second.getSamples().length);
+
+        first.release();
+        assertEquals("release should give back the budget", 0, budget.getReserved());
+        second.clear();
+        second.add(3);
+        assertArrayEquals("second store should fit after release", new long[]{3}, second.getSamples());
+    }
+
+    @Test
+    public void testResult() {
+        OffHeapBudget budget = new OffHeapBudget(OffHeapBudget.DEFAULT_LIMIT);
+        Result result = new Result(0, "OFFHEAP", false, 2, 1000, SampleStorage.DIRECT_LOG, budget);
+        for (int i = 0; i < 1500; i++) {
+            result.addSample(i);
+        }
+
+        long[] samples = result.getSamples();
+        assertEquals("wrong # samples kept", 1000, samples.length);
+        assertEquals("wrong oldest sample", 500, samples[0]);
+        assertEquals("statistics should cover all samples", 1500, result.getNSamples());
+
+        result.setSampleCapacity(0);
+        assertEquals("budget should be given back", 0, budget.getReserved());
+    }
+}
@@ -0,0 +1,159 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+import org.junit.rules.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+public class FlightRecorderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ProbeManagerImpl pm;
+
+    private MockTime time;
+
+    @Before
+    public void setUp() {
+        time = new MockTime();
+        pm = new ProbeManagerImpl(0, ProbeManagerImpl.Presentation.NANOS, time);
+        pm.setCalibrationInterval(null);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        pm.setFlightRecorder(null, 0);
+    }
+
+    private void time(String probe, long elapsed) {
+        time.setTime(1000);
+        pm.start(probe);
+        time.setTime(1000 + elapsed);
+        pm.stop(probe);
+    }
+
+    @Test
+    public void testFileIsReadableWithoutClose() throws IOException {
+        Path file = folder.newFile().toPath();
+        pm.setFlightRecorder(file, 1000);
+        assertEquals(1024, pm.getFlightRecorder().getCapacity());
+        long before = System.currentTimeMillis();
+        for (int i = 1; i <= 500; i++) {
+            time("A", i);
+            time("B", 10 * i);
+        }
+        time.setTime(0);
+        try (ProbeHandle.Scope scope = pm.handle("A").time()) {
+            time.setTime(77);
+            scope.failed();
+        }
+        assertEquals(1001, pm.getFlightRecorder().getRecorded());
+
+        // the recorder is not closed, as if the JVM had crashed
+        FlightRecorderReader reader = new FlightRecorderReader(file);
+        List<FlightRecorderReader.Record> records = reader.getRecords();
+        assertEquals(1001, records.size());
+        FlightRecorderReader.Record first = records.get(0);
+        assertEquals("A", first.getName());
+        assertEquals(1, first.getElapsed());
+        assertEquals(Thread.currentThread().getId(), first.getThreadId());
+        assertTrue(first.getTimeMillis() >= before - 1);
+        assertTrue(first.getTimeMillis() <= System.currentTimeMillis() + 1);
+        assertFalse(records.get(1000).isSuccess());
+
+        Map<String, Result> results = reader.readResults();
+        assertEquals(pm.getResult("A").getNSamples(), results.get("A").getNSamples());
+        assertEquals(pm.getResult("B").getAverage(), results.get("B").getAverage(), 0);
+        assertEquals(1, results.get("A").getFailures().getNSamples());
+        assertEquals(500, results.get("B").getSamples().length);
+    }
+
+    @Test
+    public void testKeepsLastCapacitySamples() throws IOException {
+        Path file = folder.newFile().toPath();
+        pm.setFlightRecorder(file, 16);
+        for (int i = 1; i <= 100; i++) {
+            time("A", i);
+        }
+        pm.clear();
+        time("A", 101);
+        pm.setFlightRecorder(null, 0);
+
+        List<FlightRecorderReader.Record> records = new FlightRecorderReader(file).getRecords();
+        assertEquals(16, records.size());
+        for (int i = 0; i < 16; i++) {
+            assertEquals(86 + i, records.get(i).getSequence());
+            assertEquals(86 + i, records.get(i).getElapsed());
+        }
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        Path file = folder.newFile().toPath();
+        pm.setTime(new SystemTimeByNanos());
+        pm.setFlightRecorder(file, 1 << 16);
+        final int n = 10000;
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final String name = "T" + t;
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < n; i++) {
+                        pm.start(name);
+                        pm.stop(name);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        FlightRecorderReader reader = new FlightRecorderReader(file);
+        assertEquals(threads.length * n, reader.getRecords().size());
+        Set<Long> threadIds = new HashSet<Long>();
+        long seq = 0;
+        for (FlightRecorderReader.Record r : reader.getRecords()) {
+            assertEquals(++seq, r.getSequence());
+            threadIds.add(r.getThreadId());
+        }
+        assertEquals(threads.length, threadIds.size());
+        for (Result r : reader.readResults().values()) {
+            assertEquals(n, r.getNSamples());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotAFlightRecorderFile() throws IOException {
+        Path file = folder.newFile().toPath();
+        Files.write(file, new byte[100000]);
+        new FlightRecorderReader(file);
+    }
+}
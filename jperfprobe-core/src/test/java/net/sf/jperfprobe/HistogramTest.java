@@ -0,0 +1,208 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+public class HistogramTest {
+
+    @Test
+    public void testAdd() {
+        Histogram a = new Histogram();
+        Histogram b = new ConcurrentHistogram(Histogram.DEFAULT_HIGHEST_TRACKABLE_VALUE,
+                Histogram.DEFAULT_SIGNIFICANT_DIGITS);
+        for (int i = 1; i <= 50; i++) {
+            a.recordValue(i);
+            b.recordValue(i + 50);
+        }
+        a.add(b);
+
+        assertEquals("wrong count", 100, a.getTotalCount());
+        assertEquals("wrong p50", 50, a.getValueAtPercentile(50.0));
+        assertEquals("other histogram should not change", 50, b.getTotalCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddOtherLayout() {
+        new Histogram().add(new Histogram(1000, 1));
+    }
+
+    @Test
+    public void testEmpty() {
+        Histogram h = new Histogram();
+        assertEquals("wrong count", 0, h.getTotalCount());
+        assertEquals("wrong percentile", 0, h.getValueAtPercentile(99.0));
+        assertEquals("wrong max", 0, h.getMaxValue());
+        assertFalse("no buckets", h.iterator().hasNext());
+    }
+
+    @Test
+    public void testPercentilesUniform() {
+        Histogram h = new Histogram(Histogram.DEFAULT_HIGHEST_TRACKABLE_VALUE, 3);
+        for (int i = 1; i <= 100000; i++) {
+            h.recordValue(i);
+        }
+
+        assertEquals("wrong count", 100000, h.getTotalCount());
+        assertEquals("wrong p50", 50000, h.getValueAtPercentile(50.0), 50);
+        assertEquals("wrong p90", 90000, h.getValueAtPercentile(90.0), 90);
+        assertEquals("wrong p99", 99000, h.getValueAtPercentile(99.0), 99);
+        assertEquals("wrong p99.9", 99900, h.getValueAtPercentile(99.9), 100);
+        assertEquals("wrong max", 100000, h.getMaxValue(), 100);
+        assertEquals("wrong p0", 1, h.getValueAtPercentile(0.0));
+    }
+
+    @Test
+    public void testPrecision() {
+        Random random = new Random(42);
+        for (int digits = 1; digits <= 3; digits++) {
+            Histogram h = new Histogram(Histogram.DEFAULT_HIGHEST_TRACKABLE_VALUE, digits);
+            double maxError = Math.pow(10, -digits);
+            for (int i = 0; i < 10000; i++) {
+                long value = 1 + (long) (random.nextDouble() * random.nextDouble() * 1000000000L);
+                h.reset();
+                h.recordValue(value);
+                long read = h.getValueAtPercentile(100.0);
+                assertTrue("value should not be read back lower", read >= value);
+                assertTrue("value " + value + " read back as " + read + " with " + digits + " digits",
+                        (read - value) <= Math.max(1, value * maxError));
+            }
+        }
+    }
+
+    @Test
+    public void testLargeAndNegativeValues() {
+        Histogram h = new Histogram(1000000, 2);
+        h.recordValue(-5);
+        h.recordValue(Long.MAX_VALUE);
+
+        assertEquals("wrong count", 2, h.getTotalCount());
+        assertEquals("negative should be recorded as 0", 0, h.getValueAtPercentile(50.0));
+        assertTrue("large value should be recorded at the top", h.getMaxValue() >= 1000000);
+    }
+
+    @Test
+    public void testBuckets() {
+        Histogram h = new Histogram();
+        h.recordValue(10);
+        h.recordValue(10);
+        h.recordValue(1000);
+        h.recordValue(1000000);
+
+        long count = 0;
+        long previous = -1;
+        int n = 0;
+        for (Histogram.Bucket b : h) {
+            assertTrue("buckets should be increasing", b.getLowValue() > previous);
+            assertTrue("bucket range", b.getHighValue() >= b.getLowValue());
+            previous = b.getHighValue();
+            count += b.getCount();
+            n++;
+        }
+
+        assertEquals("wrong # buckets", 3, n);
+        assertEquals("wrong count", 4, count);
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        final Histogram h = new ConcurrentHistogram(Histogram.DEFAULT_HIGHEST_TRACKABLE_VALUE, 2);
+        final int nThreads = 8;
+        final int nValues = 20000;
+        final CountDownLatch doneSignal = new CountDownLatch(nThreads);
+
+        for (int i = 0; i < nThreads; i++) {
+            new Thread() {
+                public void run() {
+                    for (int v = 0; v < nValues; v++) {
+                        h.recordValue(v);
+                    }
+                    doneSignal.countDown();
+                }
+            }.start();
+        }
+
+        doneSignal.await();
+        assertEquals("lost values", nThreads * nValues, h.getTotalCount());
+
+        h.reset();
+        assertEquals("values after reset", 0, h.getTotalCount());
+    }
+
+    @Test
+    public void testStripedRecording() throws Exception {
+        // more stripes than processors, so the threads collide and move to their own stripes
+        final Histogram h = new ConcurrentHistogram(Histogram.DEFAULT_HIGHEST_TRACKABLE_VALUE, 2, 8);
+        final int nThreads = 8;
+        final int nValues = 50000;
+        Thread[] threads = new Thread[nThreads];
+        for (int i = 0; i < nThreads; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int v = 0; v < nValues; v++) {
+                        h.recordValue(1000 + v % 3);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assertEquals("lost values", nThreads * nValues, h.getTotalCount());
+        assertEquals("wrong max", 1002, h.getMaxValue(), 2);
+        Histogram copy = new Histogram();
+        copy.add(h);
+        assertEquals("wrong copy", nThreads * nValues, copy.getTotalCount());
+        h.reset();
+        assertEquals("values after reset", 0, h.getTotalCount());
+    }
+
+    @Test
+    public void testResultPercentiles() {
+        Result result = new Result("PERC");
+        for (int i = 1; i <= 1000; i++) {
+            result.addSample(i * 1000L);
+        }
+
+        assertEquals("wrong p50", 500000, result.getP50(), 5000);
+        assertEquals("wrong p90", 900000, result.getP90(), 9000);
+        assertEquals("wrong p99", 990000, result.getP99(), 9900);
+        assertEquals("wrong p99.9", 999000, result.getP999(), 9990);
+        assertTrue("percentile should not be above max", result.getPercentile(100.0) <= result.getMax());
+
+        result.clear();
+        assertEquals("no percentile after clear", 0, result.getP99());
+
+        Result noHistogram = new Result(0, "NOHIST", false, 0, Result.DEFAULT_MAXSAMPLES);
+        noHistogram.addSample(10);
+        assertNull("should have no histogram", noHistogram.getHistogram());
+        assertEquals("no percentile without histogram", 0, noHistogram.getP50());
+    }
+}
@@ -27,6 +27,7 @@ import static org.junit.Assert.*;
 import org.junit.*;
 import org.slf4j.*;
 
+import java.io.*;
 import java.util.*;
 import java.util.concurrent.*;
 
@@ -254,6 +255,7 @@ public class ProbeManagerImplTest {
 
         System.out.println(probeManager.toString("HJALLABALLA"));
         System.out.println(probeManager.getResult("HJALLABALLA"));
+        assertTrue("percentiles should be presented", probeManager.toString("HJALLABALLA").contains("p99.9=12.0"));
         probeManager.setPresentation(ProbeManagerImpl.Presentation.MICROS);
         System.out.println(probeManager.toString("HJALLABALLA"));
     }
@@ -455,6 +457,358 @@ public class ProbeManagerImplTest {
     }
 
 
+    @Test
+    public void testConcurrentRegistration() throws Exception {
+        final int nThreads = 16;
+        final int nNames = 500;
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        final CountDownLatch doneSignal = new CountDownLatch(nThreads);
+        final Result[][] seen = new Result[nThreads][nNames];
+
+        for (int i = 0; i < nThreads; i++) {
+            final int t = i;
+            new Thread() {
+                public void run() {
+                    try {
+                        startSignal.await();
+                        for (int n = 0; n < nNames; n++) {
+                            seen[t][n] = probeManager.getResult("REG" + n);
+                            // iterating while others register must not fail
+                            for (Result r : probeManager.getResults()) {
+                                assertNotNull(r);
+                            }
+                        }
+                    } catch (InterruptedException ie) {
+
+                    } finally {
+                        doneSignal.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        startSignal.countDown();
+        doneSignal.await();
+
+        assertEquals("wrong # results", nNames, probeManager.getResults().size());
+        assertEquals("wrong # names", nNames, probeManager.getNames().length);
+        for (int n = 0; n < nNames; n++) {
+            for (int t = 1; t < nThreads; t++) {
+                assertSame("all threads should get the same result", seen[0][n], seen[t][n]);
+            }
+        }
+    }
+
+
+    @Test
+    public void testConcurrentResults() throws Exception {
+        probeManager.setConcurrentResults(true);
+        assertTrue("should make concurrent results", probeManager.isConcurrentResults());
+        final int max = 16;
+        final int loops = 1000;
+        final CountDownLatch doneSignal = new CountDownLatch(max);
+
+        for (int i = 0; i < max; i++) {
+            new Thread() {
+                public void run() {
+                    for (int l = 0; l < loops; l++) {
+                        probeManager.start("CONCURRENT");
+                        probeManager.stop("CONCURRENT");
+                        probeManager.addSampleFromProbe(createProbeSample("CONCURRENT", 5));
+                    }
+                    doneSignal.countDown();
+                }
+            }.start();
+        }
+
+        doneSignal.await();
+        Result result = probeManager.getResult("CONCURRENT");
+        assertTrue("result should be concurrent", result.isConcurrent());
+        assertEquals("lost samples", 2 * max * loops, result.getNSamples());
+    }
+
+
+    @Test
+    public void testHandle() {
+        MockTime mt = new MockTime();
+        probeManager.setTime(mt);
+        ProbeHandle handle = probeManager.handle("HANDLE");
+
+        assertSame("handle should be interned", handle, probeManager.handle("HANDLE"));
+        assertEquals("wrong name", "HANDLE", handle.getName());
+        assertSame("wrong result", probeManager.getResult("HANDLE"), handle.getResult());
+
+        mt.setTime(10);
+        handle.start();
+        assertTrue("probe should be running", probeManager.getProbeInstance("HANDLE").isRunning());
+        mt.setTime(25);
+        handle.stop();
+        ResultTest.assertResult("wrong result", 15, 15, 15, 1, probeManager.getResult("HANDLE"));
+
+        // a handle outlives clear
+        probeManager.clear();
+        mt.setTime(30);
+        handle.start();
+        mt.setTime(33);
+        handle.stop();
+        ResultTest.assertResult("wrong result after clear", 3, 3, 3, 1, probeManager.getResult("HANDLE"));
+        assertSame("handle should be bound to new result", probeManager.getResult("HANDLE"), handle.getResult());
+    }
+
+    @Test
+    public void testHandleAndNameShareProbe() {
+        MockTime mt = new MockTime();
+        probeManager.setTime(mt);
+        ProbeHandle handle = probeManager.handle("MIXED");
+
+        mt.setTime(10);
+        probeManager.start("MIXED");
+        mt.setTime(20);
+        handle.stop();
+        assertEquals("wrong # samples", 1, probeManager.getResult("MIXED").getNSamples());
+        assertEquals("wrong sample", 10, probeManager.getResult("MIXED").getLastSample());
+    }
+
+    @Test
+    public void testScope() {
+        MockTime mt = new MockTime();
+        probeManager.setTime(mt);
+        ProbeHandle handle = probeManager.handle("SCOPE");
+
+        ProbeHandle.Scope first;
+        mt.setTime(10);
+        try (ProbeHandle.Scope s = handle.time()) {
+            first = s;
+            mt.setTime(17);
+            s.success();
+        }
+
+        try {
+            try (ProbeHandle.Scope s = handle.time()) {
+                assertSame("scope should be reused by the thread", first, s);
+                mt.setTime(117);
+                try {
+                    throw new IllegalStateException("failed call");
+                } catch (IllegalStateException e) {
+                    s.failed();
+                    throw e;
+                }
+            }
+        } catch (IllegalStateException ise) {
+            // expected
+        }
+
+        Result result = probeManager.getResult("SCOPE");
+        ResultTest.assertResult("failure should not be a sample", 7, 7, 7, 1, result);
+        assertEquals("wrong # failures", 1, result.getFailures().getNSamples());
+        assertEquals("wrong failure time", 100.0, result.getFailures().getMax(), 0.0);
+        assertTrue("failures should be presented", probeManager.toString("SCOPE").contains("#failures=1"));
+    }
+
+    private boolean returnEarly(ProbeHandle handle, boolean early) {
+        try (ProbeHandle.Scope s = handle.time()) {
+            if (early) {
+                return true;
+            }
+            s.failed();
+            return false;
+        }
+    }
+
+    @Test
+    public void testScopeIsASuccessUnlessFailed() {
+        ProbeHandle handle = probeManager.handle("RETURN");
+        assertTrue(returnEarly(handle, true));
+        assertFalse(returnEarly(handle, false));
+        try (ProbeHandle.Scope s = handle.time()) {
+            s.failed();
+            s.success();
+        }
+
+        Result result = probeManager.getResult("RETURN");
+        assertEquals("an early return should be a success", 2, result.getNSamples());
+        assertEquals(1, result.getFailures().getNSamples());
+    }
+
+    @Test
+    public void testRunAndCall() throws Exception {
+        ProbeHandle handle = probeManager.handle("WRAPPED");
+        handle.run(new Runnable() {
+            public void run() {
+            }
+        });
+        assertEquals("value", handle.call(new Callable<String>() {
+            public String call() {
+                return "value";
+            }
+        }));
+        try {
+            handle.run(new Runnable() {
+                public void run() {
+                    throw new IllegalStateException("failed call");
+                }
+            });
+            fail("the exception should be thrown on");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            handle.call(new Callable<String>() {
+                public String call() throws IOException {
+                    throw new IOException("failed call");
+                }
+            });
+            fail("the exception should be thrown on");
+        } catch (IOException e) {
+            // expected
+        }
+
+        Result result = probeManager.getResult("WRAPPED");
+        assertEquals(2, result.getNSamples());
+        assertEquals("a region that throws should be a failure", 2, result.getFailures().getNSamples());
+    }
+
+    @Test
+    public void testNestedScope() {
+        MockTime mt = new MockTime();
+        probeManager.setTime(mt);
+        ProbeHandle handle = probeManager.handle("NESTED");
+
+        mt.setTime(0);
+        try (ProbeHandle.Scope outer = handle.time()) {
+            mt.setTime(5);
+            try (ProbeHandle.Scope inner = handle.time()) {
+                assertNotSame("nested scope should be a new scope", outer, inner);
+                mt.setTime(8);
+                inner.success();
+            }
+            mt.setTime(20);
+            outer.success();
+        }
+
+        Result result = probeManager.getResult("NESTED");
+        assertEquals("wrong # samples", 2, result.getNSamples());
+        assertEquals("wrong max", 20.0, result.getMax(), 0.0);
+        assertEquals("wrong min", 3.0, result.getMin(), 0.0);
+    }
+
+    @Test
+    public void testDisabledScope() {
+        ProbeHandle handle = probeManager.handle("DISABLEDSCOPE");
+        probeManager.getProbeInstance("DISABLEDSCOPE").disable();
+        try (ProbeHandle.Scope s = handle.time()) {
+            s.success();
+        }
+
+        assertEquals("disabled probe should add nothing", 0, probeManager.getResult("DISABLEDSCOPE").getNSamples());
+    }
+
+    @Test
+    public void testSampleCapacity() {
+        probeManager.setSampleCapacity(10);
+        assertEquals("wrong capacity", 10, probeManager.getSampleCapacity());
+        assertEquals("wrong capacity of new result", 10, probeManager.getResult("TEN").getSampleCapacity());
+
+        probeManager.setSampleCapacity("HOT", 5000);
+        assertEquals("wrong capacity of probe", 5000, probeManager.getResult("HOT").getSampleCapacity());
+        probeManager.setSampleCapacity("COLD", 0);
+        probeManager.start("COLD");
+        probeManager.stop("COLD");
+        assertEquals("probe should keep statistics only", 0, probeManager.getSamples("COLD").length);
+        assertEquals("wrong # samples", 1, probeManager.getResult("COLD").getNSamples());
+    }
+
+    @Test
+    public void testSnapshotAndReset() {
+        probeManager.getResult("A").addSample(1);
+        probeManager.getResult("A").addSample(2);
+        probeManager.getResult("B").addSample(3);
+
+        List<ResultSnapshot> snapshots = probeManager.snapshotAndReset();
+        assertEquals("wrong # snapshots", 2, snapshots.size());
+        int samples = 0;
+        for (ResultSnapshot s : snapshots) {
+            samples += s.getNSamples();
+        }
+        assertEquals("wrong # samples in snapshots", 3, samples);
+        assertEquals("results should be reset", 0, probeManager.getResult("A").getNSamples());
+        assertEquals("wrong # samples in probe snapshot", 0, probeManager.snapshotAndReset("B").getNSamples());
+    }
+
+    @Test
+    public void testOffHeapSamples() {
+        probeManager.setSampleStorage(SampleStorage.DIRECT_RING);
+        probeManager.setOffHeapBudget(1000 * 8);
+        probeManager.setSampleCapacity(1000);
+        for (int i = 0; i < 10; i++) {
+            probeManager.getResult("OFF").addSample(i);
+        }
+
+        assertEquals("wrong storage", SampleStorage.DIRECT_RING, probeManager.getResult("OFF").getSampleStorage());
+        assertEquals("wrong # samples", 10, probeManager.getSamples("OFF").length);
+        assertEquals("wrong reserved", 1000 * 8, probeManager.getOffHeapReserved());
+
+        probeManager.getResult("OVER").addSample(1);
+        assertEquals("no samples over budget", 0, probeManager.getSamples("OVER").length);
+        assertEquals("statistics over budget", 1, probeManager.getResult("OVER").getNSamples());
+
+        probeManager.clear();
+        assertEquals("clear should give back the budget", 0, probeManager.getOffHeapReserved());
+    }
+
+    @Test
+    public void testSameThreadNameSeparateProbes() throws Exception {
+        final Holder[] holders = {new Holder(), new Holder()};
+        Thread[] thrds = new Thread[2];
+        for (int i = 0; i < 2; i++) {
+            final Holder h = holders[i];
+            thrds[i] = new Thread("same-name") {
+                public void run() {
+                    h.probe = probeManager.getProbeInstance("NAMED");
+                }
+            };
+            thrds[i].start();
+            thrds[i].join();
+        }
+
+        assertNotNull("probe should be created", holders[0].probe);
+        assertNotSame("threads with same name should not share probe", holders[0].probe, holders[1].probe);
+    }
+
+    @Test
+    public void testRenamedThreadKeepsProbe() {
+        String name = Thread.currentThread().getName();
+        try {
+            Probe probe = probeManager.getProbeInstance("RENAMED");
+            Thread.currentThread().setName("renamed-by-pool");
+            assertSame("renamed thread should keep its probe", probe, probeManager.getProbeInstance("RENAMED"));
+        } finally {
+            Thread.currentThread().setName(name);
+        }
+    }
+
+    @Test
+    public void testProbeOfDeadThreadIsReleased() throws Exception {
+        Thread t = new Thread() {
+            public void run() {
+                probeManager.start("DEAD");
+                probeManager.stop("DEAD");
+            }
+        };
+        t.start();
+        t.join();
+        t = null;
+
+        Result result = probeManager.getResult("DEAD");
+        for (int i = 0; i < 50 && result.getProbeCount() > 0; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertEquals("probe of dead thread should be released", 0, result.getProbeCount());
+        assertEquals("sample should be kept", 1, result.getNSamples());
+    }
+
+
     private Probe createProbeSample(String pName, int t) {
         MockTime mt = new MockTime();
         DefaultProbe p = new DefaultProbe(pName, mt);
@@ -0,0 +1,142 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import javax.management.*;
+import javax.management.openmbean.*;
+import java.lang.management.*;
+import java.util.*;
+
+public class ProbeManagerMBeanTest {
+    private ProbeManagerImpl pm;
+
+    private ObjectName name;
+
+    private MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    @Before
+    public void setUp() throws Exception {
+        pm = new ProbeManagerImpl();
+        pm.setCalibrationInterval(null);
+        name = pm.registerMBean(null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pm.unregisterMBean();
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void testProbeAttributes() throws Exception {
+        Result result = pm.getResult("QUERY");
+        for (int i = 1; i <= 100; i++) {
+            result.addSample(i * 1000);
+        }
+        result.addFailure(5);
+
+        CompositeData data = (CompositeData) server.getAttribute(name, "QUERY");
+        assertEquals(100, data.get("nSamples"));
+        assertEquals(101L, data.get("invocations"));
+        assertEquals(50500.0, (Double) data.get("average"), 0);
+        assertEquals(1000.0, (Double) data.get("min"), 0);
+        assertEquals(100000.0, (Double) data.get("max"), 0);
+        assertEquals(50000, (Long) data.get("p50"), 500);
+        assertEquals(1, data.get("failures"));
+
+        String[] names = (String[]) server.getAttribute(name, ProbeManagerMBean.NAMES);
+        assertEquals(Arrays.asList("QUERY"), Arrays.asList(names));
+        MBeanAttributeInfo[] attributes = server.getMBeanInfo(name).getAttributes();
+        assertEquals(2, attributes.length);
+        assertEquals("QUERY", attributes[1].getName());
+    }
+
+    @Test
+    public void testUnknownProbeIsNotCreated() throws Exception {
+        try {
+            server.getAttribute(name, "NOBODY");
+            fail("expected AttributeNotFoundException");
+        } catch (AttributeNotFoundException e) {
+            // expected
+        }
+        assertEquals(0, pm.getNames().length);
+        AttributeList list = server.getAttributes(name, new String[]{"NOBODY", ProbeManagerMBean.NAMES});
+        assertEquals(1, list.size());
+    }
+
+    @Test
+    public void testOperations() throws Exception {
+        pm.start("A");
+        pm.stop("A");
+        pm.start("B");
+        pm.stop("B");
+
+        server.invoke(name, "disable", new Object[]{"A"}, new String[]{String.class.getName()});
+        assertFalse(pm.getProbeInstance("A").isEnabled());
+        assertTrue(pm.getProbeInstance("B").isEnabled());
+        server.invoke(name, "enable", new Object[0], new String[0]);
+        assertTrue(pm.getProbeInstance("A").isEnabled());
+
+        server.invoke(name, "clear", new Object[]{"B"}, new String[]{String.class.getName()});
+        assertEquals(0, pm.getResult("B").getNSamples());
+        assertEquals(1, pm.getResult("A").getNSamples());
+        server.invoke(name, "clear", null, null);
+        assertEquals(0, pm.getNames().length);
+    }
+
+    @Test
+    public void testConcurrentSnapshotIsConsistent() throws Exception {
+        pm.setConcurrentResults(true);
+        final Result result = pm.getResult("C");
+        Thread writer = new Thread() {
+            public void run() {
+                for (int i = 0; i < 200000; i++) {
+                    result.addSample(7);
+                }
+            }
+        };
+        writer.start();
+        while (writer.isAlive()) {
+            CompositeData data = (CompositeData) server.getAttribute(name, "C");
+            int n = (Integer) data.get("nSamples");
+            if (n > 0) {
+                assertEquals(7.0, (Double) data.get("average"), 0.01);
+                assertEquals(7L * n, ((Long) data.get("total")).longValue(), 7);
+            }
+        }
+        writer.join();
+        ResultSnapshot snapshot = result.snapshot();
+        assertEquals(200000, snapshot.getNSamples());
+        assertEquals(200000, result.getNSamples());
+    }
+
+    @Test
+    public void testStaticManagerIsRegistered() throws Exception {
+        StaticProbeManager.getNames();
+        assertTrue(server.isRegistered(new ObjectName(StaticProbeManager.MBEAN_NAME)));
+    }
+}
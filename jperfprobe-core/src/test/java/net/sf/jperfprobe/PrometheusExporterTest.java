@@ -0,0 +1,189 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.io.*;
+import java.lang.management.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+public class PrometheusExporterTest {
+    private ProbeManagerImpl pm;
+
+    private PrometheusExporter exporter;
+
+    @Before
+    public void setUp() {
+        pm = new ProbeManagerImpl();
+        pm.setCalibrationInterval(null);
+        exporter = new PrometheusExporter(pm);
+    }
+
+    @After
+    public void tearDown() {
+        exporter.stop();
+    }
+
+    @Test
+    public void testSummary() {
+        Result result = pm.getResult("db \"query\"");
+        for (int i = 1; i <= 100; i++) {
+            result.addSample(i * 1000000L);
+        }
+        result.addFailure(1);
+        exporter.render();
+        String text = exporter.getText();
+
+        assertTrue(text.contains("# TYPE jperfprobe_duration_seconds summary\n"));
+        assertTrue(text, text.contains("jperfprobe_duration_seconds{probe=\"db \\\"query\\\"\",quantile=\"0.5\"} 0.050"));
+        assertTrue(text.contains("jperfprobe_duration_seconds_sum{probe=\"db \\\"query\\\"\"} 5.050000000\n"));
+        assertTrue(text.contains("jperfprobe_duration_seconds_count{probe=\"db \\\"query\\\"\"} 100\n"));
+        assertTrue(text.contains("jperfprobe_duration_max_seconds{probe=\"db \\\"query\\\"\"} 0.100000000\n"));
+        assertTrue(text.contains("jperfprobe_failures_total{probe=\"db \\\"query\\\"\"} 1\n"));
+    }
+
+    @Test
+    public void testHistogram() {
+        Result result = pm.getResult("P");
+        for (int i = 1; i <= 10; i++) {
+            result.addSample(i * 1000000L);
+        }
+        exporter.setHistogram(5000000L, 1000000000L);
+        exporter.render();
+        String text = exporter.getText();
+
+        assertTrue(text.contains("# TYPE jperfprobe_duration_seconds histogram\n"));
+        assertTrue(text, text.contains("jperfprobe_duration_seconds_bucket{probe=\"P\",le=\"0.005000000\"} 5\n"));
+        assertTrue(text.contains("jperfprobe_duration_seconds_bucket{probe=\"P\",le=\"1.000000000\"} 10\n"));
+        assertTrue(text.contains("jperfprobe_duration_seconds_bucket{probe=\"P\",le=\"+Inf\"} 10\n"));
+        assertFalse(text.contains("quantile"));
+    }
+
+    @Test
+    public void testHistogramIsConsistentUnderLoad() throws Exception {
+        final Result result = pm.getResult("P", true);
+        exporter.setHistogram(1000L, 100000L);
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    Random random = new Random();
+                    while (!done.get()) {
+                        result.addSample(random.nextInt(200000));
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        try {
+            for (int scrape = 0; scrape < 200; scrape++) {
+                exporter.render();
+                long previous = 0;
+                long count = -1;
+                for (String line : exporter.getText().split("\n")) {
+                    if (line.startsWith("jperfprobe_duration_seconds_bucket")) {
+                        long n = Long.parseLong(line.substring(line.lastIndexOf(' ') + 1));
+                        assertTrue(line, n >= previous);
+                        previous = n;
+                    } else if (line.startsWith("jperfprobe_duration_seconds_count")) {
+                        count = Long.parseLong(line.substring(line.lastIndexOf(' ') + 1));
+                    }
+                }
+                // the last bucket is +Inf
+                assertEquals(previous, count);
+            }
+        } finally {
+            done.set(true);
+            for (Thread t : threads) {
+                t.join();
+            }
+        }
+    }
+
+    @Test
+    public void testTextNumbers() {
+        PrometheusExporter.Text text = new PrometheusExporter.Text();
+        text.number(0).newline().number(-42).newline().number(Long.MAX_VALUE).newline().seconds(1).newline()
+                .seconds(-1500000000L).newline().escaped("æ€\n\\").newline();
+        assertEquals("0\n-42\n" + Long.MAX_VALUE + "\n0.000000001\n-1.500000000\næ€\\n\\\\\n",
+                new String(text.bytes, 0, text.size, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testScrape() throws IOException {
+        pm.getResult("HTTP").addSample(1000);
+        InetSocketAddress address = exporter.start(new InetSocketAddress("127.0.0.1", 0));
+
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + address.getPort()
+                + "/metrics").openConnection();
+        assertEquals(200, connection.getResponseCode());
+        assertEquals(PrometheusExporter.CONTENT_TYPE, connection.getContentType());
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        InputStream in = connection.getInputStream();
+        byte[] buffer = new byte[8192];
+        for (int n; (n = in.read(buffer)) > 0; ) {
+            body.write(buffer, 0, n);
+        }
+        in.close();
+        assertTrue(body.toString("UTF-8").contains("jperfprobe_duration_seconds_count{probe=\"HTTP\"} 1\n"));
+    }
+
+    @Test
+    public void testLargeScrapeCreatesLittleGarbage() throws IOException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported());
+
+        // 8 series for each probe, 50000 series
+        Random random = new Random(1);
+        for (int i = 0; i < 6250; i++) {
+            Result result = pm.getResult("probe-" + i);
+            for (int j = 0; j < 10; j++) {
+                result.addSample(random.nextInt(10000000));
+            }
+        }
+        OutputStream sink = new OutputStream() {
+            public void write(int b) {
+            }
+
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+        exporter.writeTo(sink);
+
+        long thread = Thread.currentThread().getId();
+        long before = allocations.getThreadAllocatedBytes(thread);
+        int size = exporter.writeTo(sink);
+        long allocated = allocations.getThreadAllocatedBytes(thread) - before;
+        assertTrue(size > 50000 * 40);
+        assertTrue("a scrape allocated " + allocated + " bytes", allocated < 64 * 1024);
+    }
+}
@@ -27,6 +27,8 @@ import static org.junit.Assert.*;
 import org.junit.*;
 import org.slf4j.*;
 
+import java.util.concurrent.*;
+
 public class ResultTest {
     final Logger log = LoggerFactory.getLogger(ResultTest.class);
 
@@ -185,6 +187,188 @@ public class ResultTest {
     }
 
 
+    @Test
+    public void testConcurrentSamples() throws Exception {
+        final Result result = new Result(0, "CONC", true);
+        final int nThreads = 8;
+        final int nSamples = 50000;
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        final CountDownLatch doneSignal = new CountDownLatch(nThreads);
+        final Throwable[] failure = new Throwable[1];
+
+        for (int i = 0; i < nThreads; i++) {
+            new Thread() {
+                public void run() {
+                    try {
+                        startSignal.await();
+                        for (int s = 1; s <= nSamples; s++) {
+                            result.addSample(s);
+                        }
+                    } catch (Throwable t) {
+                        failure[0] = t;
+                    } finally {
+                        doneSignal.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        startSignal.countDown();
+        doneSignal.await();
+
+        assertNull("no thread should fail", failure[0]);
+        assertTrue("should be concurrent", result.isConcurrent());
+        assertEquals("wrong # samples", nThreads * nSamples, result.getNSamples());
+        assertEquals("wrong total", nThreads * ((long) nSamples * (nSamples + 1) / 2), result.getTotal());
+        assertEquals("wrong max", nSamples, result.getMax(), 0.0);
+        assertEquals("wrong min", 1.0, result.getMin(), 0.0);
+        assertEquals("wrong average", (nSamples + 1) / 2.0, result.getAverage(), 0.0);
+        assertEquals("wrong # stored samples", Result.DEFAULT_MAXSAMPLES, result.getSamples().length);
+    }
+
+    @Test
+    public void testConcurrentStatisticsSameAsSingleThreaded() {
+        Result single = new Result("single");
+        Result conc = new Result(0, "conc", true);
+        long[] values = {3, 7, 7, 19};
+        for (long v : values) {
+            single.addSample(v);
+            conc.addSample(v);
+        }
+
+        assertResult("concurrent differs", single.getMax(), single.getMin(), single.getAverage(),
+                single.getNSamples(), conc);
+        assertEquals("wrong stdev", single.getStdev(), conc.getStdev(), 0.0);
+        assertArrayEquals("wrong samples", single.getSamples(), conc.getSamples());
+
+        conc.clear();
+        assertResult("wrong result after clear", 0, 0, 0, 0, conc);
+        assertEquals("no samples after clear", 0, conc.getSamples().length);
+    }
+
+    @Test
+    public void testSamplesAfterRollover() {
+        Result res = new Result(0, "ROLL", false, 2, 5);
+        for (int i = 1; i <= 12; i++) {
+            res.addSample(i);
+        }
+
+        assertArrayEquals("should be the most recent samples, oldest first", new long[]{8, 9, 10, 11, 12},
+                res.getSamples());
+        assertEquals("statistics should cover all samples", 12, res.getNSamples());
+
+        res.clear();
+        assertEquals("no samples after clear", 0, res.getSamples().length);
+        res.addSample(42);
+        assertArrayEquals("wrong samples after clear", new long[]{42}, res.getSamples());
+    }
+
+    @Test
+    public void testStatisticsOnly() {
+        Result res = new Result(0, "STATS", true, 2, 0);
+        res.addSample(10);
+        res.addSample(20);
+
+        assertEquals("no samples should be kept", 0, res.getSamples().length);
+        assertEquals("wrong capacity", 0, res.getSampleCapacity());
+        ResultTest.assertResult("statistics should be kept", 20, 10, 15, 2, res);
+        assertEquals("wrong last sample", 20, res.getLastSample());
+    }
+
+    @Test
+    public void testChangeCapacity() {
+        Result res = new Result("CAP");
+        assertEquals("wrong default capacity", Result.DEFAULT_MAXSAMPLES, res.getSampleCapacity());
+        for (int i = 0; i < 10; i++) {
+            res.addSample(i);
+        }
+
+        res.setSampleCapacity(3);
+        assertEquals("samples should be dropped", 0, res.getSamples().length);
+        for (int i = 0; i < 10; i++) {
+            res.addSample(i);
+        }
+        assertArrayEquals("wrong samples", new long[]{7, 8, 9}, res.getSamples());
+    }
+
+    @Test
+    public void testSnapshotAndReset() {
+        Result res = new Result("SNAP");
+        res.addSample(10);
+        res.addSample(30);
+        res.addFailure(99);
+
+        ResultSnapshot snapshot = res.snapshotAndReset();
+        assertEquals("wrong name", "SNAP", snapshot.getName());
+        assertEquals("wrong # samples in snapshot", 2, snapshot.getNSamples());
+        assertEquals("wrong average in snapshot", 20, snapshot.getAverage(), 0.0);
+        assertEquals("wrong max in snapshot", 30, snapshot.getMax(), 0.0);
+        assertEquals("wrong p99 in snapshot", 30, snapshot.getP99());
+        assertEquals("wrong # failures in snapshot", 1, snapshot.getFailures().getNSamples());
+        assertTrue("interval should end after it starts", snapshot.getEndMillis() >= snapshot.getStartMillis());
+
+        assertEquals("result should be reset", 0, res.getNSamples());
+        assertEquals("failures should be reset", 0, res.getFailures().getNSamples());
+        res.addSample(5);
+        assertEquals("snapshot should not change", 2, snapshot.getNSamples());
+        assertEquals("wrong # samples after snapshot", 1, res.getNSamples());
+        assertEquals("wrong # samples in next snapshot", 1, res.snapshotAndReset().getNSamples());
+    }
+
+    @Test
+    public void testSnapshotLosesNoSamples() throws Exception {
+        final Result res = new Result(0, "SNAPCONC", true);
+        final int threads = 4;
+        final int loops = 200000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread() {
+                public void run() {
+                    for (int i = 0; i < loops; i++) {
+                        res.addSample(1);
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+
+        long samples = 0;
+        long total = 0;
+        long histogramCount = 0;
+        while (done.getCount() > 0) {
+            ResultSnapshot snapshot = res.snapshotAndReset();
+            samples += snapshot.getNSamples();
+            total += snapshot.getTotal();
+            histogramCount += snapshot.getHistogram().getTotalCount();
+        }
+        ResultSnapshot last = res.snapshotAndReset();
+        samples += last.getNSamples();
+        total += last.getTotal();
+        histogramCount += last.getHistogram().getTotalCount();
+
+        assertEquals("samples lost or counted twice", threads * loops, samples);
+        assertEquals("wrong total", threads * loops, total);
+        assertEquals("wrong histogram count", threads * loops, histogramCount);
+    }
+
+    @Test
+    public void testSnapshotHistogramCannotBeChanged() {
+        Result res = new Result("SNAPHIST");
+        res.addSample(10);
+        ResultSnapshot snapshot = res.snapshotAndReset();
+        snapshot.getHistogram().recordValue(1000);
+        snapshot.getHistogram().reset();
+
+        assertEquals("snapshot histogram changed", 1, snapshot.getHistogram().getTotalCount());
+        assertEquals("wrong p99 in snapshot", 10, snapshot.getP99());
+    }
+
+    @Test
+    public void testEmptyStdev() {
+        assertEquals("stdev of no samples", 0.0, new Result("empty").getStdev(), 0.0);
+    }
+
+
     public static void assertResult(String message, double max, double min, double average, int nSamples, Result result) {
         assertEquals(message + " wrong max value", (double)max, result.getMax(), 0.0);
         assertEquals(message + " wrong min value", (double)min, result.getMin(), 0.0);
@@ -0,0 +1,206 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+import org.junit.rules.*;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+public class SampleWriterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // latencies around 2 ms with a long tail, timed with a clock ticking every 100 us
+    private static long[] tickLatencies(int n, long tick, Random random) {
+        long[] samples = new long[n];
+        long now = 0;
+        for (int i = 0; i < n; i++) {
+            long elapsed = (long) (2000000 * Math.exp(0.5 * random.nextGaussian()));
+            samples[i] = ((now + elapsed) / tick - now / tick) * tick;
+            now += elapsed + random.nextInt(1000000);
+        }
+
+        return samples;
+    }
+
+    @Test
+    public void testRoundTripIsExact() throws IOException {
+        Random random = new Random(1);
+        long[] nanos = new long[10000];
+        long[] timestamps = new long[nanos.length];
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i] = (long) (200000 * Math.exp(random.nextGaussian()));
+            timestamps[i] = 1700000000000L + i * 3 + random.nextInt(3);
+        }
+        nanos[5] = -7;
+        nanos[6] = Long.MAX_VALUE / 4;
+        File file = folder.newFile();
+        SampleWriter writer = new SampleWriter(file.toPath());
+        writer.write("NANOS", nanos, timestamps);
+        writer.write("EMPTY", new long[0], null);
+        writer.write("ZEROS", new long[3], null);
+        writer.close();
+
+        SampleReader reader = new SampleReader(file.toPath());
+        assertTrue(reader.nextProbe());
+        assertEquals("NANOS", reader.getName());
+        assertEquals(nanos.length, reader.getCount());
+        assertTrue(reader.hasTimestamps());
+        for (int i = 0; i < nanos.length; i++) {
+            assertTrue(reader.nextSample());
+            assertEquals(nanos[i], reader.getSample());
+            assertEquals(timestamps[i], reader.getTimestamp());
+        }
+        assertFalse(reader.nextSample());
+        assertTrue(reader.nextProbe());
+        assertEquals("EMPTY", reader.getName());
+        assertFalse(reader.nextSample());
+        assertTrue(reader.nextProbe());
+        assertEquals("ZEROS", reader.getName());
+        assertFalse(reader.hasTimestamps());
+        Result zeros = reader.readResult();
+        assertEquals(3, zeros.getNSamples());
+        assertEquals(0, zeros.getMax(), 0);
+        assertFalse(reader.nextProbe());
+        assertFalse(reader.nextProbe());
+        reader.close();
+    }
+
+    @Test
+    public void testTickDataIsFiveTimesSmaller() throws IOException {
+        long[] samples = tickLatencies(1000000, 100000, new Random(2));
+        File file = folder.newFile();
+        SampleWriter writer = new SampleWriter(file.toPath());
+        writer.write("TICKS", samples, null);
+        writer.close();
+
+        long raw = 8L * samples.length;
+        assertEquals(file.length(), writer.getBytesWritten());
+        assertTrue("expected 5x smaller than long[], was " + (double) raw / file.length(),
+                file.length() * 5 <= raw);
+
+        SampleReader reader = new SampleReader(file.toPath());
+        assertTrue(reader.nextProbe());
+        for (long s : samples) {
+            assertTrue(reader.nextSample());
+            assertEquals(s, reader.getSample());
+        }
+        reader.close();
+    }
+
+    @Test
+    public void testExactNanosRatio() throws IOException {
+        // exact nanosecond latencies, lognormal around 2 ms: about 22 bits of entropy each, no lossless format
+        // gets near 5x, the deltas take about 3.5 bytes a sample
+        Random random = new Random(4);
+        long[] nanos = new long[100000];
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i] = (long) (2000000 * Math.exp(0.5 * random.nextGaussian()));
+        }
+        File file = folder.newFile();
+        SampleWriter writer = new SampleWriter(file.toPath());
+        writer.write("EXACT", nanos, null);
+        writer.close();
+
+        double ratio = 8.0 * nanos.length / file.length();
+        assertTrue("expected over 2x smaller than long[], was " + ratio, ratio > 2.0);
+    }
+
+    @Test
+    public void testResolutionRoundsNanos() throws IOException {
+        Random random = new Random(3);
+        long[] nanos = new long[100000];
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i] = (long) (2000000 * Math.exp(0.5 * random.nextGaussian()));
+        }
+        File exact = folder.newFile();
+        SampleWriter writer = new SampleWriter(exact.toPath());
+        writer.write("P", nanos, null);
+        writer.close();
+        File rounded = folder.newFile();
+        writer = new SampleWriter(FileChannel.open(rounded.toPath(), StandardOpenOption.WRITE), 100000);
+        writer.write("P", nanos, null);
+        writer.close();
+        assertTrue(rounded.length() * 5 <= 8L * nanos.length);
+        assertTrue(rounded.length() < exact.length());
+
+        SampleReader reader = new SampleReader(rounded.toPath());
+        reader.nextProbe();
+        for (long s : nanos) {
+            reader.nextSample();
+            assertEquals(s, reader.getSample(), 50000);
+            assertEquals(0, reader.getSample() % 100000);
+        }
+        reader.close();
+    }
+
+    @Test
+    public void testManagerWritesAllResults() throws IOException {
+        ProbeManagerImpl pm = new ProbeManagerImpl();
+        pm.setCalibrationInterval(null);
+        for (int i = 1; i <= 100; i++) {
+            pm.getResult("A").addSample(i * 1000);
+            pm.getResult("B").addSample(i);
+        }
+        File file = folder.newFile();
+        pm.writeSamples(file.toPath());
+
+        SampleReader reader = new SampleReader(file.toPath());
+        Map<String, Result> results = new HashMap<String, Result>();
+        while (reader.nextProbe()) {
+            results.put(reader.getName(), reader.readResult());
+        }
+        reader.close();
+        assertEquals(2, results.size());
+        assertArrayEquals(pm.getSamples("A"), results.get("A").getSamples());
+        assertEquals(pm.getResult("B").getAverage(), results.get("B").getAverage(), 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotASampleFile() throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), new byte[]{1, 2, 3, 4, 5, 6});
+        new SampleReader(file.toPath());
+    }
+
+    @Test(expected = EOFException.class)
+    public void testTruncatedFile() throws IOException {
+        File file = folder.newFile();
+        SampleWriter writer = new SampleWriter(file.toPath());
+        writer.write("P", new long[]{1, 2, 3}, null);
+        writer.close();
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 3));
+
+        SampleReader reader = new SampleReader(file.toPath());
+        while (reader.nextProbe()) {
+            // read to the end
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.util.concurrent.atomic.*;
+
+public class SamplingTest {
+
+    // counts the clock reads
+    static class CountingTime implements Time {
+        final AtomicLong reads = new AtomicLong();
+
+        public long getNanos() {
+            return reads.incrementAndGet() * 1000;
+        }
+    }
+
+    @Test
+    public void testEveryNthTimesEveryNthCall() {
+        CountingTime time = new CountingTime();
+        ProbeManagerImpl pm = new ProbeManagerImpl(0, ProbeManagerImpl.Presentation.NANOS, time);
+        pm.setCalibrationInterval(null);
+        time.reads.set(0);
+        pm.setSampling("P", Sampling.everyNth(10));
+
+        for (int i = 0; i < 1000; i++) {
+            pm.start("P");
+            pm.stop("P");
+        }
+
+        Result result = pm.getResult("P");
+        assertEquals(100, result.getNSamples());
+        assertEquals("only the timed calls should read the time", 200, time.reads.get());
+        assertEquals(1000, result.getInvocations());
+        pm.start("P");
+        pm.stop("P");
+        assertEquals(1001, result.getInvocations());
+    }
+
+    @Test
+    public void testProbabilityIsApproximate() {
+        ProbeManagerImpl pm = new ProbeManagerImpl();
+        pm.setSampling("P", Sampling.probability(0.05));
+        for (int i = 0; i < 100000; i++) {
+            pm.start("P");
+            pm.stop("P");
+        }
+
+        Result result = pm.getResult("P");
+        assertEquals(5000, result.getNSamples(), 500);
+        assertTrue(result.getInvocations() > 99000);
+        assertTrue(result.getInvocations() <= 100000);
+    }
+
+    @Test
+    public void testSamplingCanBeSwitchedOff() {
+        ProbeManagerImpl pm = new ProbeManagerImpl();
+        // the first call is timed, then every 4th: calls 1, 5 and 9
+        pm.setSampling("P", Sampling.everyNth(4));
+        for (int i = 0; i < 10; i++) {
+            pm.start("P");
+            pm.stop("P");
+        }
+        pm.setSampling("P", null);
+        assertNull(pm.getSampling("P"));
+        for (int i = 0; i < 10; i++) {
+            pm.start("P");
+            pm.stop("P");
+        }
+
+        Result result = pm.getResult("P");
+        assertEquals(20, result.getInvocations());
+        assertEquals(13, result.getNSamples());
+    }
+
+    @Test
+    public void testHandleAndScopeAreSampled() {
+        ProbeManagerImpl pm = new ProbeManagerImpl();
+        ProbeHandle handle = pm.handle("P");
+        pm.setSampling("P", Sampling.everyNth(5));
+        for (int i = 0; i < 50; i++) {
+            handle.start();
+            handle.stop();
+        }
+        for (int i = 0; i < 50; i++) {
+            try (ProbeHandle.Scope scope = handle.time()) {
+                scope.success();
+            }
+        }
+        pm.start("P");
+        pm.stop("P");
+
+        Result result = pm.getResult("P");
+        assertEquals(21, result.getNSamples());
+        assertEquals(101, result.getInvocations());
+        assertEquals(101, pm.snapshotAndReset("P").getInvocations());
+        assertEquals(0, result.getInvocations());
+    }
+
+    @Test
+    public void testSkippedCallsAreCountedWhenMade() throws Exception {
+        final ProbeManagerImpl pm = new ProbeManagerImpl();
+        pm.setSampling("P", Sampling.everyNth(10));
+        // a thread that goes quiet after skipped calls
+        Thread t = new Thread() {
+            public void run() {
+                for (int i = 0; i < 5; i++) {
+                    pm.start("P");
+                    pm.stop("P");
+                }
+            }
+        };
+        t.start();
+        t.join();
+        assertEquals(5, pm.getResult("P").getInvocations());
+
+        for (int i = 0; i < 5; i++) {
+            pm.start("P");
+            pm.stop("P");
+        }
+        assertEquals(10, pm.snapshotAndReset("P").getInvocations());
+        pm.start("P");
+        pm.stop("P");
+        assertEquals(1, pm.snapshotAndReset("P").getInvocations());
+    }
+
+    @Test
+    public void testSkippedCallsAfterClear() {
+        ProbeManagerImpl pm = new ProbeManagerImpl();
+        pm.setSampling("P", Sampling.everyNth(10));
+        Result result = pm.getResult("P");
+        for (int i = 0; i < 5; i++) {
+            pm.start("P");
+            pm.stop("P");
+        }
+        result.clear();
+        assertEquals(0, result.getInvocations());
+
+        // a new probe, its first call is timed
+        for (int i = 0; i < 3; i++) {
+            pm.start("P");
+            pm.stop("P");
+        }
+        assertEquals(3, result.getInvocations());
+        assertEquals(1, result.getNSamples());
+        assertEquals(3, result.snapshot().getInvocations());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalProbability() {
+        Sampling.probability(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalInterval() {
+        Sampling.everyNth(0);
+    }
+}
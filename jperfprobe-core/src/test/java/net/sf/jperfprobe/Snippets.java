@@ -55,6 +55,39 @@ public class Snippets {
             StaticProbeManager.addSampleFromProbe(probe);
             // END SNIPPET: probe-startstop
         }
+        {
+            // START SNIPPET: handle-startstop
+            ProbeHandle handle = StaticProbeManager.handle("MyProbe");
+            handle.start();
+            aVeryTimeConsumingMethod();
+            handle.stop();
+            // END SNIPPET: handle-startstop
+        }
+        {
+            ProbeHandle handle = StaticProbeManager.handle("MyProbe");
+            // START SNIPPET: handle-scope
+            // a scope is a success unless it is marked as failed
+            try (ProbeHandle.Scope scope = handle.time()) {
+                try {
+                    aVeryTimeConsumingMethod();
+                } catch (RuntimeException e) {
+                    scope.failed();
+                    throw e;
+                }
+            }
+            // END SNIPPET: handle-scope
+        }
+        {
+            ProbeHandle handle = StaticProbeManager.handle("MyProbe");
+            // START SNIPPET: handle-run
+            // a region that throws is a failure
+            handle.run(new Runnable() {
+                public void run() {
+                    aVeryTimeConsumingMethod();
+                }
+            });
+            // END SNIPPET: handle-run
+        }
     }
 
 
@@ -0,0 +1,168 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.time.*;
+import java.util.concurrent.*;
+
+public class SpanTest {
+    private ProbeManagerImpl pm;
+
+    private MockTime time;
+
+    @Before
+    public void setUp() {
+        time = new MockTime();
+        pm = new ProbeManagerImpl(0, ProbeManagerImpl.Presentation.NANOS, time);
+        pm.setCalibrationInterval(null);
+    }
+
+    @Test
+    public void testStopInAnotherThread() throws Exception {
+        time.setTime(100);
+        final long token = pm.startSpan("io");
+        assertTrue(token != 0);
+        assertEquals(1, pm.getRunningSpans());
+
+        time.setTime(350);
+        Thread t = new Thread() {
+            public void run() {
+                pm.stopSpan(token);
+            }
+        };
+        t.start();
+        t.join();
+
+        assertEquals(1, pm.getResult("io").getNSamples());
+        assertEquals(250, pm.getResult("io").getMax(), 0);
+        assertEquals(0, pm.getRunningSpans());
+    }
+
+    @Test
+    public void testStopInCompletableFuture() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            ProbeHandle handle = pm.handle("call");
+            for (int i = 0; i < 100; i++) {
+                final long token = handle.startSpan();
+                CompletableFuture.supplyAsync(() -> "reply", executor)
+                        .thenApplyAsync(String::length, executor)
+                        .whenComplete((n, e) -> pm.stopSpan(token, e == null))
+                        .get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(100, pm.getResult("call").getNSamples());
+        assertEquals(0, pm.getRunningSpans());
+    }
+
+    @Test
+    public void testStopTwiceAndStaleToken() {
+        long token = pm.startSpan("a");
+        assertTrue(pm.stopSpan(token));
+        assertFalse(pm.stopSpan(token));
+
+        // the slot is reused by the next span, the old token must not stop it
+        pm.setSpans(1, null);
+        long first = pm.startSpan("a");
+        assertTrue(pm.stopSpan(first, false));
+        long second = pm.startSpan("a");
+        assertFalse(pm.stopSpan(first));
+        assertTrue(pm.stopSpan(second));
+        assertFalse(pm.stopSpan(0));
+
+        assertEquals(2, pm.getResult("a").getNSamples());
+        assertEquals(1, pm.getResult("a").getFailures().getNSamples());
+    }
+
+    @Test
+    public void testFullTable() {
+        pm.setSpans(2, null);
+        long a = pm.startSpan("a");
+        long b = pm.startSpan("a");
+        assertEquals(0, pm.startSpan("a"));
+        assertEquals(1, pm.getSpanOverflows());
+
+        pm.stopSpan(a);
+        assertTrue(pm.startSpan("a") != 0);
+        assertTrue(pm.stopSpan(b));
+    }
+
+    @Test
+    public void testLeakedSpans() {
+        pm.setSpans(16, Duration.ofNanos(1000));
+        time.setTime(0);
+        long leaked = pm.startSpan("a");
+        pm.startSpan("a");
+        time.setTime(500);
+        long stopped = pm.startSpan("a");
+        assertEquals(0, pm.sweepSpans());
+
+        time.setTime(1200);
+        assertEquals(2, pm.sweepSpans());
+        assertEquals(2, pm.getLeakedSpans());
+        assertEquals(1, pm.getRunningSpans());
+        assertFalse(pm.stopSpan(leaked));
+        assertTrue(pm.stopSpan(stopped));
+        assertEquals(1, pm.getResult("a").getNSamples());
+    }
+
+    @Test
+    public void testDisabledAndSampled() {
+        pm.disable("a");
+        long token = pm.startSpan("a");
+        assertEquals(0, token);
+        assertFalse(pm.stopSpan(token));
+        assertEquals(0, pm.getRunningSpans());
+
+        pm.enable("a");
+        pm.setSampling("a", Sampling.everyNth(4));
+        int timed = 0;
+        for (int i = 0; i < 4000; i++) {
+            if (pm.stopSpan(pm.startSpan("a"))) {
+                timed++;
+            }
+        }
+        Result r = pm.getResult("a");
+        assertEquals(timed, r.getNSamples());
+        assertEquals(4000, r.getInvocations());
+        assertTrue("timed " + timed, timed > 800 && timed < 1200);
+        assertEquals(0, pm.getSpanOverflows());
+    }
+
+    @Test
+    public void testNoProbeInstances() {
+        for (int i = 0; i < 10; i++) {
+            pm.stopSpan(pm.startSpan("a"));
+        }
+
+        assertEquals(10, pm.getResult("a").getNSamples());
+        assertNull(pm.getResult("a").getProbe());
+    }
+}
@@ -38,6 +38,8 @@ public class StaticProbeManagerTest {
     public void setUp() throws Exception {
         StaticProbeManager.clear();
         StaticProbeManager.setPresentation(ProbeManagerImpl.Presentation.MILLIS);
+        // the manager is shared, do not let a MockTime from a previous test leak into this one
+        StaticProbeManager.setTime(TimeFactory.getTime());
     }
 
     @Test
@@ -353,6 +355,20 @@ public class StaticProbeManagerTest {
 
     }
 
+    @Test
+    public void testHandle() {
+        MockTime mt = new MockTime();
+        StaticProbeManager.setTime(mt);
+        ProbeHandle handle = StaticProbeManager.handle("STATICHANDLE");
+        assertSame("handle should be interned", handle, StaticProbeManager.handle("STATICHANDLE"));
+
+        mt.setTime(10);
+        handle.start();
+        mt.setTime(22);
+        handle.stop();
+        ResultTest.assertResult("wrong result", 12, 12, 12, 1, StaticProbeManager.getResult("STATICHANDLE"));
+    }
+
     static class Holder {
         Probe probe;
     }
@@ -0,0 +1,268 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.util.*;
+
+public class TDigestTest {
+
+    private static final double[] PERCENTILES = {1.0, 10.0, 50.0, 90.0, 99.0, 99.9};
+
+    // max error of the rank of the estimate, in percent, at each of PERCENTILES
+    private static final double[] RANK_ERROR = {0.1, 0.5, 0.5, 0.5, 0.1, 0.02};
+
+    private static final int N = 200000;
+
+    @Test
+    public void testEmpty() {
+        TDigest digest = new TDigest();
+        assertEquals("wrong count", 0, digest.getCount());
+        assertEquals("wrong percentile", 0, digest.getValueAtPercentile(99.0));
+    }
+
+    @Test
+    public void testSingleValue() {
+        TDigest digest = new TDigest();
+        digest.add(42);
+        assertEquals("wrong p0", 42, digest.getValueAtPercentile(0.0));
+        assertEquals("wrong p50", 42, digest.getValueAtPercentile(50.0));
+        assertEquals("wrong p100", 42, digest.getValueAtPercentile(100.0));
+    }
+
+    @Test
+    public void testUniform() {
+        Random random = new Random(1);
+        long[] samples = new long[N];
+        for (int i = 0; i < N; i++) {
+            samples[i] = random.nextInt(1000000);
+        }
+        assertAccurate("uniform", samples);
+    }
+
+    @Test
+    public void testExponential() {
+        Random random = new Random(2);
+        long[] samples = new long[N];
+        for (int i = 0; i < N; i++) {
+            samples[i] = (long) (-Math.log(1 - random.nextDouble()) * 100000);
+        }
+        assertAccurate("exponential", samples);
+    }
+
+    @Test
+    public void testLogNormal() {
+        // response times: most calls fast, a long tail of slow ones
+        Random random = new Random(3);
+        long[] samples = new long[N];
+        for (int i = 0; i < N; i++) {
+            samples[i] = (long) Math.exp(12 + 1.5 * random.nextGaussian());
+        }
+        assertAccurate("lognormal", samples);
+    }
+
+    @Test
+    public void testMerge() {
+        Random random = new Random(4);
+        long[] samples = new long[N];
+        TDigest[] parts = new TDigest[4];
+        for (int p = 0; p < parts.length; p++) {
+            parts[p] = new TDigest();
+        }
+        for (int i = 0; i < N; i++) {
+            samples[i] = (long) Math.exp(12 + 1.5 * random.nextGaussian());
+            parts[i % parts.length].add(samples[i]);
+        }
+
+        TDigest merged = new TDigest();
+        for (TDigest part : parts) {
+            merged.merge(part);
+        }
+
+        assertEquals("wrong merged count", N, merged.getCount());
+        assertEquals("merge should not change the other digest", N / parts.length, parts[0].getCount());
+        assertRankError("merged", samples, merged);
+    }
+
+    @Test
+    public void testManyThreads() throws Exception {
+        final TDigest digest = new TDigest();
+        final int threads = 4;
+        final long[] samples = new long[N];
+        Random random = new Random(6);
+        for (int i = 0; i < N; i++) {
+            samples[i] = (long) Math.exp(12 + 1.5 * random.nextGaussian());
+        }
+
+        Thread[] adders = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int first = t;
+            adders[t] = new Thread() {
+                public void run() {
+                    for (int i = first; i < N; i += threads) {
+                        digest.add(samples[i]);
+                    }
+                }
+            };
+            adders[t].start();
+        }
+        // read while the threads add
+        while (adders[0].isAlive()) {
+            digest.getValueAtPercentile(99.0);
+        }
+        for (Thread adder : adders) {
+            adder.join();
+        }
+
+        assertEquals("wrong count", N, digest.getCount());
+        assertRankError("many threads", samples, digest);
+    }
+
+    @Test
+    public void testBoundedCentroids() {
+        TDigest digest = new TDigest(50);
+        Random random = new Random(5);
+        for (int i = 0; i < 1000000; i++) {
+            digest.add(random.nextInt());
+        }
+
+        assertTrue("too many centroids: " + digest.getCentroidCount(), digest.getCentroidCount() <= 100);
+    }
+
+    @Test
+    public void testReset() {
+        TDigest digest = new TDigest();
+        for (int i = 0; i < 1000; i++) {
+            digest.add(i);
+        }
+        digest.reset();
+        digest.add(7);
+
+        assertEquals("wrong count", 1, digest.getCount());
+        assertEquals("wrong p99", 7, digest.getValueAtPercentile(99.0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeOtherKind() {
+        new TDigest().merge(new QuantileSketch() {
+            public void add(long value) {
+            }
+
+            public void merge(QuantileSketch other) {
+            }
+
+            public long getValueAtPercentile(double percentile) {
+                return 0;
+            }
+
+            public long getCount() {
+                return 0;
+            }
+
+            public void reset() {
+            }
+        });
+    }
+
+    @Test
+    public void testResultPercentiles() {
+        ProbeManagerImpl pm = new ProbeManagerImpl();
+        pm.setQuantileSketchFactory(TDigest.factory(200));
+        Result result = pm.getResult("SKETCH");
+        for (int i = 1; i <= 1000; i++) {
+            result.addSample(i);
+        }
+
+        assertTrue("result should have a digest", result.getQuantileSketch() instanceof TDigest);
+        assertEquals("wrong p50", 500, result.getP50(), 1);
+        assertEquals("wrong p99", 990, result.getP99(), 1);
+        assertEquals("wrong p99.9", 999, result.getP999(), 1);
+
+        result.clear();
+        assertEquals("sketch should be cleared", 0, result.getQuantileSketch().getCount());
+    }
+
+    @Test
+    public void testPercentilesAfterSnapshot() {
+        ProbeManagerImpl pm = new ProbeManagerImpl();
+        pm.setCalibrationInterval(null);
+        pm.setQuantileSketchFactory(TDigest.factory(200));
+        Result result = pm.getResult("SKETCH");
+        for (int i = 1; i <= 1000; i++) {
+            result.addSample(i * 1000L);
+        }
+        assertEquals("wrong p99", 990500, result.getP99(), 1000);
+
+        // the sketch is cumulative, a new interval does not change its percentiles
+        result.snapshotAndReset();
+        assertEquals("wrong p99 after snapshot", 990500, result.getP99(), 1000);
+        result.addSample(10);
+        assertEquals("wrong p99 after a small sample", 990500, result.getP99(), 2000);
+
+        long[] values = new long[1];
+        result.getPercentiles(new double[]{99.0}, values);
+        assertEquals(result.getP99(), values[0]);
+    }
+
+    private static void assertAccurate(String distribution, long[] samples) {
+        TDigest digest = new TDigest();
+        for (long sample : samples) {
+            digest.add(sample);
+        }
+        assertEquals("wrong count", samples.length, digest.getCount());
+        assertRankError(distribution, samples, digest);
+    }
+
+    // the share of the samples at or below the estimate should be close to the percentile
+    private static void assertRankError(String distribution, long[] samples, TDigest digest) {
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            long estimate = digest.getValueAtPercentile(PERCENTILES[i]);
+            int below = upperBound(sorted, estimate);
+            double rank = 100.0 * below / sorted.length;
+            assertEquals(distribution + " rank of p" + PERCENTILES[i] + " estimate " + estimate + ", exact "
+                    + sorted[(int) Math.ceil(PERCENTILES[i] / 100 * sorted.length) - 1],
+                    PERCENTILES[i], rank, RANK_ERROR[i]);
+        }
+    }
+
+    // # of values less than or equal to value
+    private static int upperBound(long[] sorted, long value) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] <= value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+}
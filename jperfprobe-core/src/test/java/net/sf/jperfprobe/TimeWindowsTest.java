@@ -0,0 +1,138 @@
+/* ==========================================
+ * JperfProbe : Java Performance Probes
+ * ==========================================
+ *
+ * Project Info:  http://jperfprobe.sourceforge.net/
+ * Project Lead:  Tor-Erik Larsen (http://sourceforge.net/users/uptime62)
+ *
+ * (C) Copyright 2005, by Tor-Erik Larsen and Contributors.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307, USA.
+ */
+package net.sf.jperfprobe;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.time.*;
+import java.util.concurrent.*;
+
+public class TimeWindowsTest {
+    private static final long SECOND = 1000000000L;
+
+    private MockTime time;
+    private TimeWindows windows;
+
+    @Before
+    public void setUp() {
+        time = new MockTime();
+        windows = new TimeWindows(time, SECOND, 5, false, 2);
+    }
+
+    @Test
+    public void testWindow() {
+        time.setTime(10 * SECOND);
+        windows.add(100);
+        windows.add(300);
+        time.setTime(12 * SECOND + 500);
+        windows.add(50);
+
+        Window last = windows.getWindow(Duration.ofSeconds(1));
+        assertEquals("wrong # samples in last second", 1, last.getNSamples());
+        assertEquals("wrong max in last second", 50, last.getMax(), 0.0);
+
+        Window all = windows.getWindow(Duration.ofSeconds(5));
+        assertEquals("wrong # samples", 3, all.getNSamples());
+        assertEquals("wrong total", 450, all.getTotal());
+        assertEquals("wrong average", 150, all.getAverage(), 0.0);
+        assertEquals("wrong max", 300, all.getMax(), 0.0);
+        assertEquals("wrong min", 50, all.getMin(), 0.0);
+        assertEquals("wrong stdev", 132.3, all.getStdev(), 0.1);
+        assertEquals("wrong p99", 300, all.getP99(), 3);
+    }
+
+    @Test
+    public void testOldBucketsRotateOut() {
+        time.setTime(10 * SECOND);
+        windows.add(1000);
+        time.setTime(14 * SECOND);
+        windows.add(10);
+        assertEquals("first bucket still within 5 seconds", 2, windows.getWindow(Duration.ofSeconds(5)).getNSamples());
+
+        time.setTime(15 * SECOND);
+        Window window = windows.getWindow(Duration.ofSeconds(5));
+        assertEquals("first bucket should be out of the window", 1, window.getNSamples());
+        assertEquals("wrong max", 10, window.getMax(), 0.0);
+
+        // the slot of the first bucket is reused
+        windows.add(20);
+        assertEquals("wrong # samples after rotation", 2, windows.getWindow(Duration.ofSeconds(5)).getNSamples());
+        time.setTime(100 * SECOND);
+        assertEquals("all buckets should be out of the window", 0,
+                windows.getWindow(Duration.ofSeconds(5)).getNSamples());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWindowLongerThanHistory() {
+        windows.getWindow(Duration.ofSeconds(6));
+    }
+
+    @Test
+    public void testConcurrentRotation() throws Exception {
+        final SystemTimeByNanos clock = new SystemTimeByNanos();
+        // buckets of 1 ms, so the threads rotate many of them
+        final TimeWindows concurrentWindows = new TimeWindows(clock, 1000000L, 100000, true, 2);
+        final int threads = 4;
+        final int loops = 50000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread() {
+                public void run() {
+                    for (int i = 0; i < loops; i++) {
+                        concurrentWindows.add(i);
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        done.await();
+
+        Window window = concurrentWindows.getWindow(Duration.ofSeconds(100));
+        assertEquals("samples lost while rotating", threads * loops, window.getNSamples());
+        assertEquals("wrong histogram count", threads * loops, window.getHistogram().getTotalCount());
+    }
+
+    @Test
+    public void testResultWindows() {
+        ProbeManagerImpl pm = new ProbeManagerImpl();
+        pm.setTime(time);
+        pm.setTimeWindows(Duration.ofSeconds(1), 60);
+        time.setTime(SECOND);
+        pm.getResult("WIN").addSample(5);
+        time.setTime(30 * SECOND);
+        pm.getResult("WIN").addSample(7);
+
+        assertEquals("wrong # samples in last 10 seconds", 1, pm.getWindow("WIN", Duration.ofSeconds(10)).getNSamples());
+        assertEquals("wrong # samples in last minute", 2, pm.getWindow("WIN", Duration.ofMinutes(1)).getNSamples());
+
+        pm.clear(pm.getResult("WIN").getName());
+        assertEquals("windows should be cleared", 0, pm.getWindow("WIN", Duration.ofMinutes(1)).getNSamples());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNoWindows() {
+        new Result("NOWIN").getWindow(Duration.ofSeconds(1));
+    }
+}